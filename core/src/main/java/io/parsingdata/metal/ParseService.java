@@ -0,0 +1,201 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal;
+
+import static io.parsingdata.metal.Util.checkNotNull;
+import static io.parsingdata.metal.data.ParseState.createFromByteStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.parsingdata.metal.data.ByteStream;
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.token.Token;
+
+/**
+ * Parses many {@link ByteStream}s concurrently.
+ * <p>
+ * Tokens are immutable, so a single token can be used to parse any number of
+ * inputs at the same time. Every input is parsed as a separate task on an
+ * executor. At most <code>maxConcurrency</code> inputs are parsed or waiting
+ * to be parsed at any time: submitting more blocks the caller until a parse
+ * completes, so that a producer of inputs cannot outrun the parses.
+ * <p>
+ * The executor of {@link #create(int)} uses a virtual thread per task if the
+ * runtime supports it, and a pool of <code>maxConcurrency</code> threads
+ * otherwise. It is shut down by {@link #close()}. An executor passed to
+ * {@link #create(ExecutorService, int)} is not.
+ * <p>
+ * The service counts the inputs it has parsed, the bytes they consumed and
+ * the inputs that failed to parse, from which the throughput since its
+ * creation is calculated. A parse that throws an exception, for instance
+ * because reading its input fails, completes its future exceptionally and is
+ * counted as an error.
+ */
+public class ParseService implements AutoCloseable {
+
+    public final int maxConcurrency;
+
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final Semaphore permits;
+    private final long startTime = System.nanoTime();
+    private final LongAdder parses = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private ParseService(final ExecutorService executor, final boolean ownsExecutor, final int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Argument maxConcurrency must be positive.");
+        }
+        this.executor = checkNotNull(executor, "executor");
+        this.ownsExecutor = ownsExecutor;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    public static ParseService create(final int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Argument maxConcurrency must be positive.");
+        }
+        return new ParseService(createExecutor(maxConcurrency), true, maxConcurrency);
+    }
+
+    public static ParseService create(final ExecutorService executor, final int maxConcurrency) {
+        return new ParseService(executor, false, maxConcurrency);
+    }
+
+    // Virtual threads are only available as of Java 21, so they are looked up at runtime.
+    private static ExecutorService createExecutor(final int maxConcurrency) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException | RuntimeException exception) {
+            return Executors.newFixedThreadPool(maxConcurrency, runnable -> {
+                final Thread thread = new Thread(runnable, "metal-parse");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Parses <code>input</code> with <code>token</code>, blocking until fewer
+     * than <code>maxConcurrency</code> parses are pending.
+     *
+     * @return A future of the result of the parse
+     * @throws InterruptedException If the caller is interrupted while blocked
+     */
+    public CompletableFuture<Optional<ParseState>> submit(final Token token, final ByteStream input, final Encoding encoding) throws InterruptedException {
+        checkNotNull(token, "token");
+        checkNotNull(input, "input");
+        checkNotNull(encoding, "encoding");
+        permits.acquire();
+        try {
+            return CompletableFuture.supplyAsync(() -> parse(token, input, encoding), executor);
+        } catch (final RejectedExecutionException exception) {
+            permits.release();
+            throw exception;
+        }
+    }
+
+    /**
+     * Parses every input in <code>inputs</code> with <code>token</code>, by
+     * calling {@link #submit(Token, ByteStream, Encoding)} for each of them.
+     *
+     * @return The futures of the results, in the order of the inputs
+     * @throws InterruptedException If the caller is interrupted while blocked
+     */
+    public List<CompletableFuture<Optional<ParseState>>> submitAll(final Token token, final Iterable<? extends ByteStream> inputs, final Encoding encoding) throws InterruptedException {
+        checkNotNull(inputs, "inputs");
+        final List<CompletableFuture<Optional<ParseState>>> results = new ArrayList<>();
+        for (final ByteStream input : inputs) {
+            results.add(submit(token, input, encoding));
+        }
+        return results;
+    }
+
+    private Optional<ParseState> parse(final Token token, final ByteStream input, final Encoding encoding) {
+        try {
+            final Optional<ParseState> result = token.parse(new Environment(createFromByteStream(input), encoding));
+            parses.increment();
+            if (result.isPresent()) {
+                bytes.add(result.get().offset.longValue());
+            } else {
+                failures.increment();
+            }
+            return result;
+        } catch (final RuntimeException exception) {
+            errors.increment();
+            throw exception;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /** @return The number of inputs that have been parsed, including those that failed to parse */
+    public long parses() {
+        return parses.sum();
+    }
+
+    /** @return The number of bytes consumed by successful parses */
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+
+    public long errors() {
+        return errors.sum();
+    }
+
+    public double parsesPerSecond() {
+        return parses.sum() / elapsedSeconds();
+    }
+
+    public double bytesPerSecond() {
+        return bytes.sum() / elapsedSeconds();
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(System.nanoTime() - startTime, 1) / 1e9;
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(maxConcurrency:" + maxConcurrency + ";parses:" + parses() + ";bytes:" + bytes() + ";failures:" + failures() + ";errors:" + errors() + ")";
+    }
+
+}
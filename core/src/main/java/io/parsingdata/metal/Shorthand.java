@@ -72,11 +72,17 @@ import io.parsingdata.metal.expression.value.reference.Ref.DefinitionRef;
 import io.parsingdata.metal.expression.value.reference.Ref.NameRef;
 import io.parsingdata.metal.expression.value.reference.Self;
 import io.parsingdata.metal.token.Cho;
+import io.parsingdata.metal.token.Compiled;
 import io.parsingdata.metal.token.Def;
+import io.parsingdata.metal.token.ParallelCho;
+import io.parsingdata.metal.token.ParallelRep;
+import io.parsingdata.metal.token.ParallelRepN;
+import io.parsingdata.metal.token.ParallelSub;
 import io.parsingdata.metal.token.Post;
 import io.parsingdata.metal.token.Pre;
 import io.parsingdata.metal.token.Rep;
 import io.parsingdata.metal.token.RepN;
+import io.parsingdata.metal.token.Scan;
 import io.parsingdata.metal.token.Seq;
 import io.parsingdata.metal.token.Tie;
 import io.parsingdata.metal.token.Token;
@@ -107,6 +113,10 @@ public final class Shorthand {
     public static Token cho(final String name, final Token token1, final Token token2, final Token... tokens) { return cho(name, null, token1, token2, tokens); }
     public static Token cho(final Encoding encoding, final Token token1, final Token token2, final Token... tokens) { return cho(NO_NAME, encoding, token1, token2, tokens); }
     public static Token cho(final Token token1, final Token token2, final Token... tokens) { return cho((Encoding)null, token1, token2, tokens); }
+    public static Token parallelCho(final String name, final Encoding encoding, final Token token1, final Token token2, final Token... tokens) { return new ParallelCho(name, encoding, token1, token2, tokens); }
+    public static Token parallelCho(final String name, final Token token1, final Token token2, final Token... tokens) { return parallelCho(name, null, token1, token2, tokens); }
+    public static Token parallelCho(final Encoding encoding, final Token token1, final Token token2, final Token... tokens) { return parallelCho(NO_NAME, encoding, token1, token2, tokens); }
+    public static Token parallelCho(final Token token1, final Token token2, final Token... tokens) { return parallelCho((Encoding)null, token1, token2, tokens); }
     public static Token rep(final String name, final Token token, final Encoding encoding) { return new Rep(name, token, encoding); }
     public static Token rep(final String name, final Token token) { return rep(name, token, null); }
     public static Token rep(final Token token, final Encoding encoding) { return rep(NO_NAME, token, encoding); }
@@ -115,6 +125,14 @@ public final class Shorthand {
     public static Token repn(final String name, final Token token, final ValueExpression n) { return repn(name, token, n, null); }
     public static Token repn(final Token token, final ValueExpression n, final Encoding encoding) { return repn(NO_NAME, token, n, encoding); }
     public static Token repn(final Token token, final ValueExpression n) { return repn(token, n, null); }
+    public static Token parallelRep(final String name, final Token token, final Encoding encoding) { return new ParallelRep(name, token, encoding); }
+    public static Token parallelRep(final String name, final Token token) { return parallelRep(name, token, null); }
+    public static Token parallelRep(final Token token, final Encoding encoding) { return parallelRep(NO_NAME, token, encoding); }
+    public static Token parallelRep(final Token token) { return parallelRep(token, null); }
+    public static Token parallelRepN(final String name, final Token token, final ValueExpression n, final Encoding encoding) { return new ParallelRepN(name, token, n, encoding); }
+    public static Token parallelRepN(final String name, final Token token, final ValueExpression n) { return parallelRepN(name, token, n, null); }
+    public static Token parallelRepN(final Token token, final ValueExpression n, final Encoding encoding) { return parallelRepN(NO_NAME, token, n, encoding); }
+    public static Token parallelRepN(final Token token, final ValueExpression n) { return parallelRepN(token, n, null); }
     public static Token seq(final String name, final Encoding encoding, final Token token1, final Token token2, final Token... tokens) { return new Seq(name, encoding, token1, token2, tokens); }
     public static Token seq(final String name, final Token token1, final Token token2, final Token... tokens) { return seq(name, null, token1, token2, tokens); }
     public static Token seq(final Encoding encoding, final Token token1, final Token token2, final Token... tokens) { return seq(NO_NAME, encoding, token1, token2, tokens); }
@@ -123,6 +141,10 @@ public final class Shorthand {
     public static Token sub(final String name, final Token token, final ValueExpression address) { return sub(name, token, address, null); }
     public static Token sub(final Token token, final ValueExpression address, final Encoding encoding) { return sub(NO_NAME, token, address, encoding); }
     public static Token sub(final Token token, final ValueExpression address) { return sub(token, address, null); }
+    public static Token parallelSub(final String name, final Token token, final ValueExpression address, final Encoding encoding) { return new ParallelSub(name, token, address, encoding); }
+    public static Token parallelSub(final String name, final Token token, final ValueExpression address) { return parallelSub(name, token, address, null); }
+    public static Token parallelSub(final Token token, final ValueExpression address, final Encoding encoding) { return parallelSub(NO_NAME, token, address, encoding); }
+    public static Token parallelSub(final Token token, final ValueExpression address) { return parallelSub(token, address, null); }
     public static Token pre(final String name, final Token token, final Expression predicate, final Encoding encoding) { return new Pre(name, token, predicate, encoding); }
     public static Token pre(final String name, final Token token, final Expression predicate) { return pre(name, token, predicate, null); }
     public static Token pre(final Token token, final Expression predicate, final Encoding encoding) { return pre(NO_NAME, token, predicate, encoding); }
@@ -152,6 +174,11 @@ public final class Shorthand {
     public static Token until(final String name, final ValueExpression initialSize, final Token terminator) { return until(name, initialSize, null, terminator, null); }
     public static Token until(final String name, final Token terminator, final Encoding encoding) { return until(name, null, terminator, encoding); }
     public static Token until(final String name, final Token terminator) { return until(name, terminator, null); }
+    public static Token scan(final String name, final ValueExpression bytes, final Encoding encoding) { return new Scan(name, bytes, true, encoding); }
+    public static Token scan(final String name, final ValueExpression bytes) { return scan(name, bytes, null); }
+    public static Token scanNot(final String name, final ValueExpression bytes, final Encoding encoding) { return new Scan(name, bytes, false, encoding); }
+    public static Token scanNot(final String name, final ValueExpression bytes) { return scanNot(name, bytes, null); }
+    public static Token compile(final Token token) { return new Compiled(token); }
 
     public static BinaryValueExpression add(final ValueExpression left, final ValueExpression right) { return new Add(left, right); }
     public static BinaryValueExpression div(final ValueExpression left, final ValueExpression right) { return new Div(left, right); }
@@ -18,14 +18,12 @@ package io.parsingdata.metal;
 
 import static java.math.BigInteger.ZERO;
 
-import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
 import java.util.Optional;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
 
+import io.parsingdata.metal.data.IndexedInflatedSource;
+import io.parsingdata.metal.data.InflatedSource;
 import io.parsingdata.metal.data.ParseState;
-import io.parsingdata.metal.data.Slice;
 import io.parsingdata.metal.encoding.Encoding;
 import io.parsingdata.metal.expression.value.UnaryValueExpression;
 import io.parsingdata.metal.expression.value.Value;
@@ -73,6 +71,17 @@ public final class Util {
         return argument;
     }
 
+    public static long checkNotNegative(final long argument, final String name) {
+        if (argument < 0) {
+            throw new IllegalArgumentException("Argument " + name + " may not be negative.");
+        }
+        return argument;
+    }
+
+    public static boolean fitsInLong(final BigInteger value) {
+        return value.bitLength() < Long.SIZE;
+    }
+
     public static String bytesToHexString(final byte[] bytes) {
         checkNotNull(bytes, "bytes");
         char[] hexChars = new char[bytes.length * 2];
@@ -85,22 +94,30 @@ public final class Util {
     }
 
     public static ValueExpression inflate(final ValueExpression target) {
+        return inflate(target, InflatedSource.DEFAULT_MAX_LENGTH);
+    }
+
+    public static ValueExpression inflate(final ValueExpression target, final long maxLength) {
+        checkNotNegative(maxLength, "maxLength");
+        return new UnaryValueExpression(target) {
+            @Override
+            public Optional<Value> eval(final Value value, final ParseState parseState, final Encoding encoding) {
+                return InflatedSource.inflate(value.slice, InflatedSource.DEFAULT_WINDOW_SIZE, maxLength)
+                    .map(slice -> new Value(slice, encoding));
+            }
+        };
+    }
+
+    public static ValueExpression inflate(final ValueExpression target, final long maxLength, final long checkpointSpacing) {
+        checkNotNegative(maxLength, "maxLength");
+        if (checkpointSpacing <= 0) {
+            throw new IllegalArgumentException("Argument checkpointSpacing must be positive.");
+        }
         return new UnaryValueExpression(target) {
             @Override
             public Optional<Value> eval(final Value value, final ParseState parseState, final Encoding encoding) {
-                final Inflater inf = new Inflater(true);
-                inf.setInput(value.getValue());
-                final byte[] dataReceiver = new byte[512];
-                final ByteArrayOutputStream out = new ByteArrayOutputStream();
-                while(!inf.finished()) {
-                    try {
-                        final int processed = inf.inflate(dataReceiver);
-                        out.write(dataReceiver, 0, processed);
-                    } catch (final DataFormatException e) {
-                        return Optional.empty();
-                    }
-                }
-                return Optional.of(new Value(Slice.createFromBytes(out.toByteArray()), encoding));
+                return IndexedInflatedSource.inflate(value.slice, checkpointSpacing, maxLength)
+                    .map(slice -> new Value(slice, encoding));
             }
         };
     }
@@ -22,6 +22,7 @@ import static io.parsingdata.metal.Util.checkNotNull;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import io.parsingdata.metal.Util;
@@ -51,6 +52,35 @@ public class ByteStreamSource extends Source {
         return input.isAvailable(checkNotNegative(offset, "offset"), checkNotNegative(length, "length").intValueExact());
     }
 
+    @Override
+    protected byte[] getData(final long offset, final int length) {
+        if (!isAvailable(offset, length)) {
+            throw new IllegalStateException("Data to read is not available ([offset=" + offset + ";length=" + length + ";source=" + this + ").");
+        }
+        try {
+            return input.read(offset, length);
+        } catch (final IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    @Override
+    protected boolean isAvailable(final long offset, final long length) {
+        return input.isAvailable(checkNotNegative(offset, "offset"), Math.toIntExact(checkNotNegative(length, "length")));
+    }
+
+    @Override
+    protected ByteBuffer getByteBuffer(final long offset, final int length) {
+        if (!isAvailable(offset, length)) {
+            throw new IllegalStateException("Data to read is not available ([offset=" + offset + ";length=" + length + ";source=" + this + ").");
+        }
+        try {
+            return input.readByteBuffer(offset, length);
+        } catch (final IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "(" + input + ")";
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static io.parsingdata.metal.Util.checkNotNull;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.parsingdata.metal.Util;
+
+/**
+ * A {@link ByteStream} decorator that caches the data of another
+ * {@link ByteStream} in fixed-size pages.
+ * <p>
+ * A CachingByteStream consists of a <code>byteStream</code>, a
+ * <code>pageSize</code>, a <code>maxBytes</code> budget and a number of
+ * <code>segments</code>. Every read is served from whole aligned pages of
+ * <code>pageSize</code> bytes, so many small adjacent reads result in a
+ * single read on the underlying stream. Calls to
+ * {@link #isAvailable(BigInteger, int)} that are covered by cached pages are
+ * answered without consulting the underlying stream. Pages are distributed
+ * over <code>segments</code> independently locked segments, each of which
+ * evicts its least recently used page when its share of
+ * <code>maxBytes</code> is exceeded. Every segment holds at least one page,
+ * so <code>maxBytes</code> must be at least <code>pageSize</code> times
+ * <code>segments</code>. A page at the end of the stream that is
+ * not completely available is not cached: reads there are passed through.
+ * <p>
+ * The number of page hits, misses and evictions is counted, to help tune the
+ * page size for a specific format.
+ */
+public class CachingByteStream implements ByteStream {
+
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    public final ByteStream byteStream;
+    public final int pageSize;
+    public final long maxBytes;
+    public final int segments;
+
+    private final Segment[] segmentArray;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingByteStream(final ByteStream byteStream, final int pageSize, final long maxBytes, final int segments) {
+        this.byteStream = checkNotNull(byteStream, "byteStream");
+        this.pageSize = (int) checkPositive(pageSize, "pageSize");
+        this.maxBytes = checkPositive(maxBytes, "maxBytes");
+        this.segments = (int) checkPositive(segments, "segments");
+        if (maxBytes / pageSize / segments < 1) {
+            throw new IllegalArgumentException("Argument maxBytes must be at least pageSize * segments.");
+        }
+        final int pagesPerSegment = (int) Math.min(Integer.MAX_VALUE, maxBytes / pageSize / segments);
+        segmentArray = new Segment[segments];
+        for (int i = 0; i < segments; i++) {
+            segmentArray[i] = new Segment(pagesPerSegment);
+        }
+    }
+
+    public CachingByteStream(final ByteStream byteStream) {
+        this(byteStream, DEFAULT_PAGE_SIZE, DEFAULT_MAX_BYTES, DEFAULT_SEGMENTS);
+    }
+
+    private static long checkPositive(final long argument, final String name) {
+        if (argument <= 0) {
+            throw new IllegalArgumentException("Argument " + name + " must be positive.");
+        }
+        return argument;
+    }
+
+    @Override
+    public byte[] read(final BigInteger offset, final int length) throws IOException {
+        if (!isCacheable(offset, length)) {
+            return byteStream.read(offset, length);
+        }
+        return read(offset.longValue(), length);
+    }
+
+    @Override
+    public byte[] read(final long offset, final int length) throws IOException {
+        if (!isCacheable(offset, length)) {
+            return byteStream.read(offset, length);
+        }
+        final long start = offset;
+        final byte[] data = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            final long position = start + copied;
+            final byte[] page = getPage(position / pageSize);
+            if (page == null) {
+                // Page at the end of the stream: read the remainder directly.
+                final byte[] rest = byteStream.read(position, length - copied);
+                System.arraycopy(rest, 0, data, copied, rest.length);
+                return data;
+            }
+            final int pageOffset = (int) (position % pageSize);
+            final int toCopy = Math.min(length - copied, pageSize - pageOffset);
+            System.arraycopy(page, pageOffset, data, copied, toCopy);
+            copied += toCopy;
+        }
+        return data;
+    }
+
+    @Override
+    public ByteBuffer readByteBuffer(final long offset, final int length) throws IOException {
+        final int pageOffset = (int) (offset % pageSize);
+        if (!isCacheable(offset, length) || pageOffset + length > pageSize) {
+            return ByteBuffer.wrap(read(offset, length));
+        }
+        final byte[] page = getPage(offset / pageSize);
+        if (page == null) {
+            return byteStream.readByteBuffer(offset, length);
+        }
+        return ByteBuffer.wrap(page, pageOffset, length).slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public boolean isAvailable(final BigInteger offset, final int length) {
+        if (!isCacheable(offset, length)) {
+            return byteStream.isAvailable(offset, length);
+        }
+        return isAvailable(offset.longValue(), length);
+    }
+
+    @Override
+    public boolean isAvailable(final long offset, final int length) {
+        if (!isCacheable(offset, length)) {
+            return byteStream.isAvailable(offset, length);
+        }
+        final long end = offset + length;
+        for (long pageIndex = offset / pageSize; pageIndex * pageSize < end; pageIndex++) {
+            if (segmentFor(pageIndex).peek(pageIndex) == null) {
+                return byteStream.isAvailable(offset, length);
+            }
+        }
+        return true;
+    }
+
+    private boolean isCacheable(final BigInteger offset, final int length) {
+        return offset.signum() >= 0 && offset.bitLength() < Long.SIZE - 2 && isCacheable(offset.longValue(), length);
+    }
+
+    private boolean isCacheable(final long offset, final int length) {
+        return offset >= 0 && length > 0 && offset < Long.MAX_VALUE / 2;
+    }
+
+    private byte[] getPage(final long pageIndex) throws IOException {
+        final Segment segment = segmentFor(pageIndex);
+        synchronized (segment) {
+            final byte[] cached = segment.pages.get(pageIndex);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            misses.increment();
+            final BigInteger pageOffset = BigInteger.valueOf(pageIndex * pageSize);
+            if (!byteStream.isAvailable(pageOffset, pageSize)) {
+                return null;
+            }
+            final byte[] page = byteStream.read(pageOffset, pageSize);
+            segment.pages.put(pageIndex, page);
+            return page;
+        }
+    }
+
+    private Segment segmentFor(final long pageIndex) {
+        return segmentArray[(int) Math.floorMod(pageIndex ^ (pageIndex >>> 32), (long) segments)];
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + byteStream + "," + pageSize + "," + maxBytes + "," + segments + ")";
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return Util.notNullAndSameClass(this, obj)
+            && Objects.equals(byteStream, ((CachingByteStream)obj).byteStream)
+            && pageSize == ((CachingByteStream)obj).pageSize
+            && maxBytes == ((CachingByteStream)obj).maxBytes
+            && segments == ((CachingByteStream)obj).segments;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getClass(), byteStream, pageSize, maxBytes, segments);
+    }
+
+    private class Segment {
+
+        final Map<Long, byte[]> pages; // Guarded by this.
+
+        Segment(final int maxPages) {
+            pages = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+                    if (size() > maxPages) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized byte[] peek(final long pageIndex) {
+            return pages.get(pageIndex);
+        }
+
+    }
+
+}
@@ -22,9 +22,11 @@ import static io.parsingdata.metal.Trampoline.complete;
 import static io.parsingdata.metal.Trampoline.intermediate;
 import static io.parsingdata.metal.Util.checkNotNegative;
 import static io.parsingdata.metal.Util.checkNotNull;
+import static io.parsingdata.metal.Util.fitsInLong;
 import static io.parsingdata.metal.data.Slice.createFromSource;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -37,6 +39,8 @@ public class ConcatenatedValueSource extends Source {
     public final ImmutableList<Value> values;
     public final BigInteger length;
 
+    private volatile Index index; // Built by the first read, see index().
+
     private ConcatenatedValueSource(final ImmutableList<Value> values, final BigInteger length) {
         this.values = checkNotNull(values, "values");
         this.length = checkNotNegative(length, "length");
@@ -76,20 +80,52 @@ public class ConcatenatedValueSource extends Source {
         if (!isAvailable(offset, length)) {
             throw new IllegalStateException("Data to read is not available (offset=" + offset + ";length=" + length + ";source=" + this + ").");
         }
-        return getData(values, ZERO, ZERO, offset, length, new byte[length.intValueExact()]).computeResult();
+        final byte[] output = new byte[length.intValueExact()];
+        final Index index = index();
+        int part = index.findPart(offset);
+        BigInteger localOffset = offset.subtract(index.starts[part]);
+        for (int copied = 0; copied < output.length; part++, localOffset = ZERO) {
+            final Slice slice = index.parts[part].slice;
+            final int toCopy = slice.length.subtract(localOffset).min(BigInteger.valueOf(output.length - copied)).intValueExact();
+            System.arraycopy(slice.source.getData(slice.offset.add(localOffset), BigInteger.valueOf(toCopy)), 0, output, copied, toCopy);
+            copied += toCopy;
+        }
+        return output;
     }
 
-    private Trampoline<byte[]> getData(final ImmutableList<Value> values, final BigInteger currentOffset, final BigInteger currentDest, final BigInteger offset, final BigInteger length, final byte[] output) {
-        if (length.compareTo(ZERO) <= 0) {
-            return complete(() -> output);
+    @Override
+    protected ByteBuffer getByteBuffer(final long offset, final int length) {
+        final BigInteger start = BigInteger.valueOf(offset);
+        if (!isAvailable(start, BigInteger.valueOf(length))) {
+            throw new IllegalStateException("Data to read is not available (offset=" + offset + ";length=" + length + ";source=" + this + ").");
+        }
+        final Index index = index();
+        final int part = index.findPart(start);
+        final BigInteger localOffset = start.subtract(index.starts[part]);
+        final Slice slice = index.parts[part].slice;
+        if (length == 0 || localOffset.add(BigInteger.valueOf(length)).compareTo(slice.length) > 0) {
+            return super.getByteBuffer(offset, length);
         }
-        if (currentOffset.add(values.head.slice.length).compareTo(offset) <= 0) {
-            return intermediate(() -> getData(values.tail, currentOffset.add(values.head.slice.length), currentDest, offset, length, output));
+        final BigInteger sourceOffset = slice.offset.add(localOffset);
+        if (!fitsInLong(sourceOffset)) {
+            return ByteBuffer.wrap(slice.source.getData(sourceOffset, BigInteger.valueOf(length)));
         }
-        final BigInteger localOffset = offset.subtract(currentOffset).compareTo(ZERO) < 0 ? ZERO : offset.subtract(currentOffset);
-        final BigInteger toCopy = length.compareTo(values.head.slice.length.subtract(localOffset)) > 0 ? values.head.slice.length.subtract(localOffset) : length;
-        System.arraycopy(values.head.slice.getData(), localOffset.intValueExact(), output, currentDest.intValueExact(), toCopy.intValueExact());
-        return intermediate(() -> getData(values.tail, currentOffset.add(values.head.slice.length), currentDest.add(toCopy), offset, length.subtract(toCopy), output));
+        return slice.source.getByteBuffer(sourceOffset.longValue(), length);
+    }
+
+    // Only the first read builds the index, so that sources that are never read do not pay for it.
+    private Index index() {
+        Index current = index;
+        if (current == null) {
+            synchronized (this) {
+                current = index;
+                if (current == null) {
+                    current = new Index(values);
+                    index = current;
+                }
+            }
+        }
+        return current;
     }
 
     @Override
@@ -114,4 +150,42 @@ public class ConcatenatedValueSource extends Source {
         return Objects.hash(getClass(), values, length);
     }
 
+    private static final class Index {
+
+        final Value[] parts; // Never exposed, because array content is mutable.
+        final BigInteger[] starts; // Offset of each part, for binary search.
+
+        Index(final ImmutableList<Value> values) {
+            parts = new Value[(int) values.size];
+            starts = new BigInteger[parts.length];
+            BigInteger start = ZERO;
+            ImmutableList<Value> remaining = values;
+            for (int i = 0; i < parts.length; i++, remaining = remaining.tail) {
+                parts[i] = remaining.head;
+                starts[i] = start;
+                start = start.add(remaining.head.slice.length);
+            }
+        }
+
+        /**
+         * Returns the index of the last part that starts at or before
+         * <code>offset</code>, skipping any empty parts at that position.
+         */
+        int findPart(final BigInteger offset) {
+            int low = 0;
+            int high = starts.length - 1;
+            while (low < high) {
+                LookupStatistics.PART_LOOKUPS.increment();
+                final int middle = (low + high + 1) >>> 1;
+                if (starts[middle].compareTo(offset) <= 0) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+    }
+
 }
@@ -21,6 +21,7 @@ import static io.parsingdata.metal.Util.checkNotNegative;
 import static io.parsingdata.metal.Util.checkNotNull;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 
@@ -49,6 +50,29 @@ public class ConstantSource extends Source {
         return checkNotNegative(length, "length").add((checkNotNegative(offset, "offset"))).compareTo(BigInteger.valueOf(data.length)) <= 0;
     }
 
+    @Override
+    protected byte[] getData(final long offset, final int length) {
+        if (!isAvailable(offset, length)) {
+            throw new IllegalStateException("Data to read is not available ([offset=" + offset + ";length=" + length + ";source=" + this + ").");
+        }
+        final byte[] outputData = new byte[length];
+        System.arraycopy(data, (int) offset, outputData, 0, length);
+        return outputData;
+    }
+
+    @Override
+    protected boolean isAvailable(final long offset, final long length) {
+        return checkNotNegative(offset, "offset") <= data.length && checkNotNegative(length, "length") <= data.length - offset;
+    }
+
+    @Override
+    protected ByteBuffer getByteBuffer(final long offset, final int length) {
+        if (!isAvailable(offset, length)) {
+            throw new IllegalStateException("Data to read is not available ([offset=" + offset + ";length=" + length + ";source=" + this + ").");
+        }
+        return ByteBuffer.wrap(data, (int) offset, length).slice();
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "(0x" + bytesToHexString(data) + ")";
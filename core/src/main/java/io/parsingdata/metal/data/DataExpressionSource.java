@@ -20,8 +20,10 @@ import static io.parsingdata.metal.Trampoline.complete;
 import static io.parsingdata.metal.Trampoline.intermediate;
 import static io.parsingdata.metal.Util.checkNotNegative;
 import static io.parsingdata.metal.Util.checkNotNull;
+import static io.parsingdata.metal.Util.fitsInLong;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.Optional;
@@ -39,7 +41,7 @@ public class DataExpressionSource extends Source {
     public final ParseState parseState;
     public final Encoding encoding;
 
-    private byte[] cache = null;
+    private Slice cache = null;
 
     public DataExpressionSource(final ValueExpression dataExpression, final int index, final ParseState parseState, final Encoding encoding) {
         this.dataExpression = checkNotNull(dataExpression, "dataExpression");
@@ -50,22 +52,58 @@ public class DataExpressionSource extends Source {
 
     @Override
     protected byte[] getData(final BigInteger offset, final BigInteger length) {
-        checkNotNegative(offset, "offset");
-        final byte[] data = getValue();
-        if (checkNotNegative(length, "length").add(offset).compareTo(BigInteger.valueOf(data.length)) > 0) {
+        if (!isAvailable(offset, length)) {
             throw new IllegalStateException("Data to read is not available ([offset=" + offset + ";length=" + length + ";source=" + this + ").");
         }
-        final byte[] outputData = new byte[length.intValueExact()];
-        System.arraycopy(data, offset.intValueExact(), outputData, 0, outputData.length);
-        return outputData;
+        final Slice slice = getSlice();
+        return slice.source.getData(slice.offset.add(offset), length);
     }
 
     @Override
     protected boolean isAvailable(final BigInteger offset, final BigInteger length) {
-        return checkNotNegative(offset, "offset").add(checkNotNegative(length, "length")).compareTo(BigInteger.valueOf(getValue().length)) <= 0;
+        return checkNotNegative(offset, "offset").add(checkNotNegative(length, "length")).compareTo(getSlice().length) <= 0;
     }
 
-    private synchronized byte[] getValue() {
+    @Override
+    protected byte[] getData(final long offset, final int length) {
+        if (!isAvailable(offset, length)) {
+            throw new IllegalStateException("Data to read is not available ([offset=" + offset + ";length=" + length + ";source=" + this + ").");
+        }
+        final Slice slice = getSlice();
+        if (fitsInLong(slice.offset.add(slice.length))) {
+            return slice.source.getData(slice.offset.longValue() + offset, length);
+        }
+        return slice.source.getData(slice.offset.add(BigInteger.valueOf(offset)), BigInteger.valueOf(length));
+    }
+
+    @Override
+    protected boolean isAvailable(final long offset, final long length) {
+        final BigInteger sliceLength = getSlice().length;
+        if (!fitsInLong(sliceLength)) {
+            return isAvailable(BigInteger.valueOf(offset), BigInteger.valueOf(length));
+        }
+        final long dataLength = sliceLength.longValue();
+        return checkNotNegative(offset, "offset") <= dataLength && checkNotNegative(length, "length") <= dataLength - offset;
+    }
+
+    @Override
+    protected ByteBuffer getByteBuffer(final long offset, final int length) {
+        if (!isAvailable(offset, length)) {
+            throw new IllegalStateException("Data to read is not available ([offset=" + offset + ";length=" + length + ";source=" + this + ").");
+        }
+        final Slice slice = getSlice();
+        if (fitsInLong(slice.offset.add(slice.length))) {
+            return slice.source.getByteBuffer(slice.offset.longValue() + offset, length);
+        }
+        return ByteBuffer.wrap(getData(offset, length));
+    }
+
+    /**
+     * Reads are delegated to the {@link Slice} of the evaluated value, so
+     * data that is itself backed by a large or lazily computed
+     * {@link Source} is never copied as a whole.
+     */
+    private synchronized Slice getSlice() {
         if (cache == null) {
             final ImmutableList<Optional<Value>> results = dataExpression.eval(parseState, encoding);
             if (results.size <= index) {
@@ -73,10 +111,10 @@ public class DataExpressionSource extends Source {
             }
             cache = getValueAtIndex(results, index, 0)
                 .computeResult()
-                .map(Value::getValue)
+                .map(value -> value.slice)
                 .orElseThrow(() -> new IllegalStateException("ValueExpression dataExpression yields empty Value at index " + index + "."));
         }
-        return cache.clone();
+        return cache;
     }
 
     private Trampoline<Optional<Value>> getValueAtIndex(final ImmutableList<Optional<Value>> results, final int index, final int current) {
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import io.parsingdata.metal.token.Token;
+
+/**
+ * A persistent index of the definitions of the {@link ParseItem}s in a
+ * {@link ParseGraph}.
+ * <p>
+ * Definitions are keyed by {@link Token#id}, so that updating the index does
+ * not require the structural comparison of {@link Token#equals(Object)}. The
+ * index of a graph records which definitions occur anywhere in the graph
+ * (including nested graphs) and, for each of them, the nearest tail of the
+ * graph whose head contains an item with that definition. Since tails are
+ * never modified, a search for a definition can skip directly from one
+ * matching item to the next.
+ * <p>
+ * An index is only built for a graph when a lookup needs it (see
+ * {@link ParseGraph#definitions()}), from the indexes of its tail and head.
+ */
+final class DefinitionIndex {
+
+    static final DefinitionIndex EMPTY = new DefinitionIndex(ImmutableHashMap.empty(), ImmutableHashMap.empty(), ImmutableHashMap.empty());
+
+    private final ImmutableHashMap<Long, Token> present;
+    private final ImmutableHashMap<String, ImmutableList<Token>> byName;
+    private final ImmutableHashMap<Long, ParseGraph> next;
+
+    private DefinitionIndex(final ImmutableHashMap<Long, Token> present, final ImmutableHashMap<String, ImmutableList<Token>> byName, final ImmutableHashMap<Long, ParseGraph> next) {
+        this.present = present;
+        this.byName = byName;
+        this.next = next;
+    }
+
+    /**
+     * Records that an item with <code>definition</code> has been added to
+     * the head of the graph.
+     */
+    DefinitionIndex add(final Token definition) {
+        if (present.get(definition.id) != null) {
+            return this;
+        }
+        final String key = key(definition);
+        final ImmutableList<Token> tokens = byName.get(key);
+        return new DefinitionIndex(present.put(definition.id, definition),
+                                   byName.put(key, (tokens == null ? new ImmutableList<Token>() : tokens).add(definition)),
+                                   next);
+    }
+
+    /**
+     * Records that items with the definitions in <code>other</code> have been
+     * added to the head of the graph.
+     */
+    DefinitionIndex addAll(final DefinitionIndex other) {
+        DefinitionIndex result = this;
+        for (ImmutableList<Token> tokens = other.present.values(); !tokens.isEmpty(); tokens = tokens.tail) {
+            result = result.add(tokens.head);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index for a graph that has <code>tail</code> as its tail,
+     * where <code>this</code> is the index of <code>tail</code>.
+     */
+    DefinitionIndex push(final ParseGraph tail) {
+        if (tail.isEmpty()) {
+            return this;
+        }
+        ImmutableHashMap<Long, ParseGraph> result = next.put(tail.head.getDefinition().id, tail);
+        if (tail.head.isGraph()) {
+            for (ImmutableList<Token> tokens = tail.head.asGraph().definitions().present.values(); !tokens.isEmpty(); tokens = tokens.tail) {
+                result = result.put(tokens.head.id, tail);
+            }
+        }
+        return new DefinitionIndex(present, byName, result);
+    }
+
+    /**
+     * @return All definitions in the graph that are equal to <code>definition</code>
+     */
+    ImmutableList<Token> matching(final Token definition) {
+        ImmutableList<Token> result = new ImmutableList<>();
+        for (ImmutableList<Token> tokens = byName.get(key(definition)); tokens != null && !tokens.isEmpty(); tokens = tokens.tail) {
+            if (tokens.head == definition || tokens.head.equals(definition)) {
+                result = result.add(tokens.head);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Whether the graph contains an item with one of <code>definitions</code>
+     */
+    boolean containsAny(final ImmutableList<Token> definitions) {
+        for (ImmutableList<Token> tokens = definitions; !tokens.isEmpty(); tokens = tokens.tail) {
+            if (present.get(tokens.head.id) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The nearest tail of the graph whose head contains an item with
+     * one of <code>definitions</code>, or <code>null</code> if there is none
+     */
+    ParseGraph nearest(final ImmutableList<Token> definitions) {
+        ParseGraph result = null;
+        for (ImmutableList<Token> tokens = definitions; !tokens.isEmpty(); tokens = tokens.tail) {
+            final ParseGraph graph = next.get(tokens.head.id);
+            if (graph != null && (result == null || graph.size > result.size)) {
+                result = graph;
+            }
+        }
+        return result;
+    }
+
+    // Tokens of different classes or with different names are never equal.
+    private static String key(final Token definition) {
+        return definition.getClass().getName() + Token.SEPARATOR + definition.name;
+    }
+
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import java.util.Arrays;
+
+/**
+ * A raw deflate (RFC 1951) decoder that can start at any block boundary.
+ * <p>
+ * Unlike {@link java.util.zip.Inflater}, this decoder exposes the exact bit
+ * position of the input at block boundaries and the last 32 KiB of output
+ * (the dictionary that later blocks may refer to). Decoding can be resumed
+ * from such a position by providing that dictionary again. Input is read
+ * in chunks from a {@link Slice}.
+ */
+final class DeflateDecoder {
+
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int INPUT_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_BITS = 15;
+
+    private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+    private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+    private static final int[] DISTANCE_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+    private static final int[] DISTANCE_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+    private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+    private static final Huffman FIXED_LENGTH_CODE;
+    private static final Huffman FIXED_DISTANCE_CODE;
+
+    static {
+        final int[] lengths = new int[288];
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            lengths[symbol] = symbol < 144 ? 8 : symbol < 256 ? 9 : symbol < 280 ? 7 : 8;
+        }
+        FIXED_LENGTH_CODE = new Huffman(lengths, 0, lengths.length);
+        final int[] distanceLengths = new int[30];
+        Arrays.fill(distanceLengths, 5);
+        FIXED_DISTANCE_CODE = new Huffman(distanceLengths, 0, distanceLengths.length);
+    }
+
+    private enum Mode { HEADER, STORED, CODES, DONE }
+
+    private final Slice input;
+    private final long inputOffset;
+    private final long inputLength;
+
+    private final byte[] inputBuffer = new byte[INPUT_BUFFER_SIZE];
+    private long inputBufferStart;
+    private int inputBufferLength;
+    private long inputPosition; // Next byte to move into the bit buffer.
+    private int bitBuffer;
+    private int bitCount;
+
+    private final byte[] history = new byte[DICTIONARY_SIZE];
+    private int historyPosition;
+    private int historyFill;
+
+    private Mode mode = Mode.HEADER;
+    private boolean lastBlock;
+    private int storedRemaining;
+    private Huffman lengthCode;
+    private Huffman distanceCode;
+    private int copyRemaining;
+    private int copyDistance;
+
+    DeflateDecoder(final Slice input, final long bitPosition, final byte[] dictionary) {
+        this.input = input;
+        inputOffset = input.offset.longValue();
+        inputLength = input.length.longValue();
+        inputPosition = bitPosition >>> 3;
+        System.arraycopy(dictionary, 0, history, 0, dictionary.length);
+        historyPosition = dictionary.length & (DICTIONARY_SIZE - 1);
+        historyFill = dictionary.length;
+        final int skip = (int) (bitPosition & 7);
+        if (skip > 0) {
+            bitBuffer = nextByte() >>> skip;
+            bitCount = 8 - skip;
+        }
+    }
+
+    /**
+     * Decodes at most <code>length</code> bytes into <code>output</code>.
+     * Decoding stops early at the end of a block, so that the caller may
+     * inspect {@link #isAtBlockBoundary()} in between.
+     */
+    int decode(final byte[] output, final int offset, final int length) {
+        int produced = 0;
+        while (produced < length && mode != Mode.DONE) {
+            switch (mode) {
+                case HEADER:
+                    if (lastBlock) {
+                        mode = Mode.DONE;
+                        return produced;
+                    }
+                    readHeader();
+                    break;
+                case STORED:
+                    while (produced < length && storedRemaining > 0) {
+                        output[offset + produced++] = emit((byte) nextByte());
+                        storedRemaining--;
+                    }
+                    if (storedRemaining == 0) {
+                        mode = Mode.HEADER;
+                        return produced;
+                    }
+                    break;
+                default:
+                    produced += decodeCodes(output, offset + produced, length - produced);
+                    if (mode == Mode.HEADER) {
+                        return produced;
+                    }
+            }
+        }
+        return produced;
+    }
+
+    boolean isFinished() {
+        if (mode == Mode.HEADER && lastBlock) {
+            mode = Mode.DONE;
+        }
+        return mode == Mode.DONE;
+    }
+
+    boolean isAtBlockBoundary() {
+        return mode == Mode.HEADER && !lastBlock;
+    }
+
+    long getBitPosition() {
+        return (inputPosition << 3) - bitCount;
+    }
+
+    /**
+     * Returns the last (at most) 32 KiB of output, oldest byte first.
+     */
+    byte[] getDictionary() {
+        final byte[] dictionary = new byte[historyFill];
+        final int start = (historyPosition - historyFill) & (DICTIONARY_SIZE - 1);
+        final int firstPart = Math.min(historyFill, DICTIONARY_SIZE - start);
+        System.arraycopy(history, start, dictionary, 0, firstPart);
+        System.arraycopy(history, 0, dictionary, firstPart, historyFill - firstPart);
+        return dictionary;
+    }
+
+    private void readHeader() {
+        lastBlock = bits(1) == 1;
+        final int type = bits(2);
+        if (type == 0) {
+            bitBuffer = 0;
+            bitCount = 0;
+            final int storedLength = nextByte() | (nextByte() << 8);
+            final int complement = nextByte() | (nextByte() << 8);
+            if (storedLength != (~complement & 0xffff)) {
+                throw new DeflateException("Invalid stored block length.");
+            }
+            storedRemaining = storedLength;
+            mode = Mode.STORED;
+        } else if (type == 1) {
+            lengthCode = FIXED_LENGTH_CODE;
+            distanceCode = FIXED_DISTANCE_CODE;
+            mode = Mode.CODES;
+        } else if (type == 2) {
+            readDynamicCodes();
+            mode = Mode.CODES;
+        } else {
+            throw new DeflateException("Invalid block type.");
+        }
+    }
+
+    private void readDynamicCodes() {
+        final int lengthCount = bits(5) + 257;
+        final int distanceCount = bits(5) + 1;
+        final int codeLengthCount = bits(4) + 4;
+        if (lengthCount > 286 || distanceCount > 30) {
+            throw new DeflateException("Invalid dynamic block code counts.");
+        }
+        final int[] lengths = new int[19];
+        for (int index = 0; index < codeLengthCount; index++) {
+            lengths[CODE_LENGTH_ORDER[index]] = bits(3);
+        }
+        final Huffman codeLengthCode = new Huffman(lengths, 0, 19);
+        final int[] codeLengths = new int[lengthCount + distanceCount];
+        int index = 0;
+        while (index < codeLengths.length) {
+            final int symbol = decodeSymbol(codeLengthCode);
+            if (symbol < 16) {
+                codeLengths[index++] = symbol;
+                continue;
+            }
+            int value = 0;
+            final int repeat;
+            if (symbol == 16) {
+                if (index == 0) {
+                    throw new DeflateException("Repeated code length without previous length.");
+                }
+                value = codeLengths[index - 1];
+                repeat = 3 + bits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + bits(3);
+            } else {
+                repeat = 11 + bits(7);
+            }
+            if (index + repeat > codeLengths.length) {
+                throw new DeflateException("Too many code lengths.");
+            }
+            for (int count = 0; count < repeat; count++) {
+                codeLengths[index++] = value;
+            }
+        }
+        if (codeLengths[256] == 0) {
+            throw new DeflateException("Missing end-of-block code.");
+        }
+        lengthCode = new Huffman(codeLengths, 0, lengthCount);
+        distanceCode = new Huffman(codeLengths, lengthCount, distanceCount);
+    }
+
+    private int decodeCodes(final byte[] output, final int offset, final int length) {
+        int produced = 0;
+        while (produced < length) {
+            if (copyRemaining > 0) {
+                final byte value = history[(historyPosition - copyDistance) & (DICTIONARY_SIZE - 1)];
+                output[offset + produced++] = emit(value);
+                copyRemaining--;
+                continue;
+            }
+            final int symbol = decodeSymbol(lengthCode);
+            if (symbol < 256) {
+                output[offset + produced++] = emit((byte) symbol);
+            } else if (symbol == 256) {
+                mode = Mode.HEADER;
+                return produced;
+            } else {
+                final int lengthSymbol = symbol - 257;
+                if (lengthSymbol >= LENGTH_BASE.length) {
+                    throw new DeflateException("Invalid length symbol.");
+                }
+                copyRemaining = LENGTH_BASE[lengthSymbol] + bits(LENGTH_EXTRA[lengthSymbol]);
+                final int distanceSymbol = decodeSymbol(distanceCode);
+                if (distanceSymbol >= DISTANCE_BASE.length) {
+                    throw new DeflateException("Invalid distance symbol.");
+                }
+                copyDistance = DISTANCE_BASE[distanceSymbol] + bits(DISTANCE_EXTRA[distanceSymbol]);
+                if (copyDistance > historyFill) {
+                    throw new DeflateException("Distance too far back.");
+                }
+            }
+        }
+        return produced;
+    }
+
+    private byte emit(final byte value) {
+        history[historyPosition] = value;
+        historyPosition = (historyPosition + 1) & (DICTIONARY_SIZE - 1);
+        if (historyFill < DICTIONARY_SIZE) {
+            historyFill++;
+        }
+        return value;
+    }
+
+    private int decodeSymbol(final Huffman huffman) {
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (int length = 1; length <= MAX_BITS; length++) {
+            code |= bits(1);
+            final int count = huffman.count[length];
+            if (code - count < first) {
+                return huffman.symbol[index + (code - first)];
+            }
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+        throw new DeflateException("Invalid Huffman code.");
+    }
+
+    private int bits(final int count) {
+        while (bitCount < count) {
+            bitBuffer |= nextByte() << bitCount;
+            bitCount += 8;
+        }
+        final int value = bitBuffer & ((1 << count) - 1);
+        bitBuffer >>>= count;
+        bitCount -= count;
+        return value;
+    }
+
+    private int nextByte() {
+        if (inputPosition >= inputLength) {
+            throw new DeflateException("Unexpected end of input.");
+        }
+        if (inputPosition < inputBufferStart || inputPosition >= inputBufferStart + inputBufferLength) {
+            inputBufferStart = inputPosition;
+            inputBufferLength = (int) Math.min(INPUT_BUFFER_SIZE, inputLength - inputPosition);
+            System.arraycopy(input.source.getData(inputOffset + inputPosition, inputBufferLength), 0, inputBuffer, 0, inputBufferLength);
+        }
+        return inputBuffer[(int) (inputPosition++ - inputBufferStart)] & 0xff;
+    }
+
+    private static final class Huffman {
+
+        final int[] count = new int[MAX_BITS + 1];
+        final int[] symbol;
+
+        Huffman(final int[] lengths, final int offset, final int length) {
+            symbol = new int[length];
+            for (int index = 0; index < length; index++) {
+                count[lengths[offset + index]]++;
+            }
+            count[0] = 0;
+            int left = 1;
+            for (int bits = 1; bits <= MAX_BITS; bits++) {
+                left = (left << 1) - count[bits];
+                if (left < 0) {
+                    throw new DeflateException("Over-subscribed Huffman code.");
+                }
+            }
+            final int[] offsets = new int[MAX_BITS + 1];
+            for (int bits = 1; bits < MAX_BITS; bits++) {
+                offsets[bits + 1] = offsets[bits] + count[bits];
+            }
+            for (int index = 0; index < length; index++) {
+                if (lengths[offset + index] != 0) {
+                    symbol[offsets[lengths[offset + index]]++] = index;
+                }
+            }
+        }
+
+    }
+
+    static final class DeflateException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        DeflateException(final String message) {
+            super(message);
+        }
+
+    }
+
+}
@@ -30,12 +30,18 @@ public class Environment {
     public final ParseState parseState;
     public final Callbacks callbacks;
     public final Encoding encoding;
+    public final ParseCache cache;
 
-    public Environment(final String scope, final ParseState parseState, final Callbacks callbacks, final Encoding encoding) {
+    public Environment(final String scope, final ParseState parseState, final Callbacks callbacks, final Encoding encoding, final ParseCache cache) {
         this.scope = checkNotNull(scope, "scope");
         this.parseState = checkNotNull(parseState, "parseState");
         this.callbacks = checkNotNull(callbacks, "callbacks");
         this.encoding = checkNotNull(encoding, "encoding");
+        this.cache = checkNotNull(cache, "cache");
+    }
+
+    public Environment(final String scope, final ParseState parseState, final Callbacks callbacks, final Encoding encoding) {
+        this(scope, parseState, callbacks, encoding, ParseCache.NONE);
     }
 
     public Environment(final String scope, final ParseState parseState, final Encoding encoding) {
@@ -51,11 +57,15 @@ public class Environment {
     }
 
     public Environment withParseState(final ParseState parseState) {
-        return new Environment(scope, parseState, callbacks, encoding);
+        return new Environment(scope, parseState, callbacks, encoding, cache);
     }
 
     public Environment withEncoding(final Encoding encoding) {
-        return new Environment(scope, parseState, callbacks, encoding);
+        return new Environment(scope, parseState, callbacks, encoding, cache);
+    }
+
+    public Environment withCache(final ParseCache cache) {
+        return new Environment(scope, parseState, callbacks, encoding, cache);
     }
 
     public Environment addBranch(final Token token) {
@@ -63,7 +73,7 @@ public class Environment {
     }
 
     public Environment extendScope(final String name) {
-        return new Environment(scope + (scope.isEmpty() || name.isEmpty() ? NO_NAME : SEPARATOR) + name, parseState, callbacks, encoding);
+        return new Environment(scope + (scope.isEmpty() || name.isEmpty() ? NO_NAME : SEPARATOR) + name, parseState, callbacks, encoding, cache);
     }
 
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static io.parsingdata.metal.Util.checkNotNull;
+
+/**
+ * A persistent hash map (a hash array mapped trie).
+ * <p>
+ * Every {@link #put(Object, Object)} returns a new map that shares all but
+ * the path to the changed entry with the original, so both lookups and
+ * updates take a number of steps logarithmic (base 32) in the size of the
+ * map. Keys are compared using {@link Object#equals(Object)}.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+final class ImmutableHashMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final ImmutableHashMap<?, ?> EMPTY = new ImmutableHashMap<>(new Node(0, new Object[0]), 0);
+
+    private final Node root;
+    final long size;
+
+    private ImmutableHashMap(final Node root, final long size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> ImmutableHashMap<K, V> empty() {
+        return (ImmutableHashMap<K, V>) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(final K key) {
+        final int hash = hash(checkNotNull(key, "key"));
+        Node node = root;
+        for (int shift = 0; ; shift += BITS) {
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            final Object entry = node.entries[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (entry instanceof Node) {
+                node = (Node) entry;
+                continue;
+            }
+            for (Leaf leaf = (Leaf) entry; leaf != null; leaf = leaf.next) {
+                if (leaf.hash == hash && leaf.key.equals(key)) {
+                    return (V) leaf.value;
+                }
+            }
+            return null;
+        }
+    }
+
+    ImmutableHashMap<K, V> put(final K key, final V value) {
+        final int hash = hash(checkNotNull(key, "key"));
+        final boolean[] added = new boolean[1];
+        final Node newRoot = put(root, 0, new Leaf(hash, key, checkNotNull(value, "value"), null), added);
+        return new ImmutableHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    private static Node put(final Node node, final int shift, final Leaf leaf, final boolean[] added) {
+        final int bit = 1 << ((leaf.hash >>> shift) & MASK);
+        final int index = Integer.bitCount(node.bitmap & (bit - 1));
+        if ((node.bitmap & bit) == 0) {
+            added[0] = true;
+            final Object[] entries = new Object[node.entries.length + 1];
+            System.arraycopy(node.entries, 0, entries, 0, index);
+            entries[index] = leaf;
+            System.arraycopy(node.entries, index, entries, index + 1, node.entries.length - index);
+            return new Node(node.bitmap | bit, entries);
+        }
+        final Object entry = node.entries[index];
+        final Object replacement;
+        if (entry instanceof Node) {
+            replacement = put((Node) entry, shift + BITS, leaf, added);
+        } else if (((Leaf) entry).hash == leaf.hash) {
+            replacement = replaceInChain((Leaf) entry, leaf, added);
+        } else {
+            final Leaf existing = (Leaf) entry;
+            final Node split = new Node(1 << ((existing.hash >>> (shift + BITS)) & MASK), new Object[] { existing });
+            replacement = put(split, shift + BITS, leaf, added);
+        }
+        final Object[] entries = node.entries.clone();
+        entries[index] = replacement;
+        return new Node(node.bitmap, entries);
+    }
+
+    // All leaves in a chain have the same hash.
+    private static Leaf replaceInChain(final Leaf chain, final Leaf leaf, final boolean[] added) {
+        if (chain == null) {
+            added[0] = true;
+            return leaf;
+        }
+        if (chain.key.equals(leaf.key)) {
+            return new Leaf(leaf.hash, leaf.key, leaf.value, chain.next);
+        }
+        return new Leaf(chain.hash, chain.key, chain.value, replaceInChain(chain.next, leaf, added));
+    }
+
+    /**
+     * @return All values in this map, in no particular order
+     */
+    @SuppressWarnings("unchecked")
+    ImmutableList<V> values() {
+        return (ImmutableList<V>) values(root, new ImmutableList<>());
+    }
+
+    private static ImmutableList<Object> values(final Node node, final ImmutableList<Object> list) {
+        ImmutableList<Object> result = list;
+        for (final Object entry : node.entries) {
+            if (entry instanceof Node) {
+                result = values((Node) entry, result);
+            } else {
+                for (Leaf leaf = (Leaf) entry; leaf != null; leaf = leaf.next) {
+                    result = result.add(leaf.value);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int hash(final Object key) {
+        final int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Node {
+
+        final int bitmap;
+        final Object[] entries; // Each entry is either a Node or a Leaf.
+
+        Node(final int bitmap, final Object[] entries) {
+            this.bitmap = bitmap;
+            this.entries = entries;
+        }
+
+    }
+
+    private static final class Leaf {
+
+        final int hash;
+        final Object key;
+        final Object value;
+        final Leaf next;
+
+        Leaf(final int hash, final Object key, final Object value, final Leaf next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(size:" + size + ")";
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static io.parsingdata.metal.Util.checkNotNegative;
+import static io.parsingdata.metal.Util.checkNotNull;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+import io.parsingdata.metal.Util;
+
+/**
+ * A {@link Source} that contains the inflated (raw deflate) contents of a
+ * {@link Slice}, with random access through an {@link InflateIndex}.
+ * <p>
+ * An IndexedInflatedSource consists of an <code>input</code> (a
+ * {@link Slice} containing the compressed data), an <code>index</code> (an
+ * {@link InflateIndex} built from that input) and a <code>windowSize</code>.
+ * Like {@link InflatedSource}, reads are served from a window of at most
+ * <code>windowSize</code> bytes that moves forward through the inflated
+ * data. A read that is before the window, or beyond the next checkpoint,
+ * starts inflating at the nearest checkpoint before it instead of at the
+ * beginning of the input.
+ */
+public class IndexedInflatedSource extends Source {
+
+    public static final int DEFAULT_WINDOW_SIZE = InflatedSource.DEFAULT_WINDOW_SIZE;
+
+    static final int INITIAL_WINDOW_SIZE = InflatedSource.INITIAL_WINDOW_SIZE;
+
+    public final Slice input;
+    public final InflateIndex index;
+    public final int windowSize;
+
+    private DeflateDecoder decoder; // Guarded by this, as is all other mutable state.
+    private byte[] window;
+    private long windowStart;
+    private int windowFill;
+
+    private IndexedInflatedSource(final Slice input, final InflateIndex index, final int windowSize) {
+        this.input = input;
+        this.index = index;
+        this.windowSize = windowSize;
+        window = new byte[Math.min(INITIAL_WINDOW_SIZE, windowSize)];
+    }
+
+    /**
+     * Returns a {@link Slice} covering all inflated data of <code>input</code>,
+     * using an <code>index</code> that was built from the same input. Returns
+     * {@link Optional#empty()} if the index does not match the length and
+     * checksum of the input (see {@link InflateIndex#matches(Slice)}).
+     */
+    public static Optional<Slice> inflate(final Slice input, final InflateIndex index, final int windowSize) {
+        checkNotNull(input, "input");
+        checkNotNull(index, "index");
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Argument windowSize must be positive.");
+        }
+        if (!index.matches(input)) {
+            return Optional.empty();
+        }
+        return create(input, index, windowSize);
+    }
+
+    private static Optional<Slice> create(final Slice input, final InflateIndex index, final int windowSize) {
+        return Slice.createFromSource(new IndexedInflatedSource(input, index, windowSize), 0L, index.outputLength);
+    }
+
+    /**
+     * Builds an index for <code>input</code> with checkpoints every
+     * <code>spacing</code> bytes and returns a {@link Slice} covering all
+     * inflated data.
+     */
+    public static Optional<Slice> inflate(final Slice input, final long spacing, final long maxLength) {
+        return InflateIndex.build(input, spacing, maxLength).flatMap(index -> create(input, index, DEFAULT_WINDOW_SIZE));
+    }
+
+    /**
+     * Like {@link #inflate(Slice, long, long)}, but reads the index from
+     * <code>indexFile</code> if it exists and matches <code>input</code>.
+     * Otherwise, also if it cannot be read (for instance because it was
+     * written by an older version), the index is built and written to
+     * <code>indexFile</code>.
+     */
+    public static Optional<Slice> inflate(final Slice input, final long spacing, final long maxLength, final Path indexFile) throws IOException {
+        checkNotNull(indexFile, "indexFile");
+        if (Files.exists(indexFile)) {
+            final Optional<InflateIndex> index = load(indexFile);
+            if (index.isPresent() && index.get().outputLength <= maxLength) {
+                final Optional<Slice> result = inflate(input, index.get(), DEFAULT_WINDOW_SIZE);
+                if (result.isPresent()) {
+                    return result;
+                }
+            }
+        }
+        final Optional<InflateIndex> index = InflateIndex.build(input, spacing, maxLength);
+        if (!index.isPresent()) {
+            return Optional.empty();
+        }
+        index.get().save(indexFile);
+        return create(input, index.get(), DEFAULT_WINDOW_SIZE);
+    }
+
+    private static Optional<InflateIndex> load(final Path indexFile) {
+        try {
+            return Optional.of(InflateIndex.load(indexFile));
+        } catch (final IOException exception) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    protected byte[] getData(final BigInteger offset, final BigInteger length) {
+        if (!isAvailable(offset, length)) {
+            throw new IllegalStateException("Data to read is not available ([offset=" + offset + ";length=" + length + ";source=" + this + ").");
+        }
+        return getData(offset.longValueExact(), length.intValueExact());
+    }
+
+    @Override
+    protected boolean isAvailable(final BigInteger offset, final BigInteger length) {
+        return checkNotNegative(offset, "offset").add(checkNotNegative(length, "length")).compareTo(BigInteger.valueOf(index.outputLength)) <= 0;
+    }
+
+    @Override
+    protected synchronized byte[] getData(final long offset, final int length) {
+        if (!isAvailable(offset, length)) {
+            throw new IllegalStateException("Data to read is not available ([offset=" + offset + ";length=" + length + ";source=" + this + ").");
+        }
+        final byte[] outputData = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            final long position = offset + copied;
+            if (position >= windowStart && position < windowStart + windowFill) {
+                final int from = (int) (position - windowStart);
+                final int count = Math.min(length - copied, windowFill - from);
+                System.arraycopy(window, from, outputData, copied, count);
+                copied += count;
+            } else {
+                seek(position);
+                advance();
+            }
+        }
+        return outputData;
+    }
+
+    @Override
+    protected boolean isAvailable(final long offset, final long length) {
+        return checkNotNegative(offset, "offset") <= index.outputLength && checkNotNegative(length, "length") <= index.outputLength - offset;
+    }
+
+    private void seek(final long position) {
+        final int checkpoint = index.checkpointBefore(position);
+        final long decoded = windowStart + windowFill;
+        if (decoder != null && position >= decoded && index.outputOffset(checkpoint) <= decoded) {
+            return; // Inflating forward from the current position is at least as close.
+        }
+        decoder = index.decoderAt(input, checkpoint);
+        windowStart = index.outputOffset(checkpoint);
+        windowFill = 0;
+    }
+
+    private void advance() {
+        if (windowFill == window.length) {
+            if (window.length < windowSize) {
+                window = Arrays.copyOf(window, (int) Math.min(2L * window.length, windowSize));
+            } else {
+                // Keep the most recent half of the window for short backward reads.
+                final int keep = window.length / 2;
+                System.arraycopy(window, windowFill - keep, window, 0, keep);
+                windowStart += windowFill - keep;
+                windowFill = keep;
+            }
+        }
+        try {
+            if (decoder.isFinished()) {
+                throw new IllegalStateException("Inflated data is not available beyond offset " + (windowStart + windowFill) + " (source=" + this + ").");
+            }
+            windowFill += decoder.decode(window, windowFill, window.length - windowFill);
+        } catch (final DeflateDecoder.DeflateException exception) {
+            throw new IllegalStateException("Input of " + this + " can no longer be inflated.", exception);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + input + "," + index + ")";
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return Util.notNullAndSameClass(this, obj)
+            && Objects.equals(input, ((IndexedInflatedSource)obj).input)
+            && Objects.equals(index, ((IndexedInflatedSource)obj).index)
+            && windowSize == ((IndexedInflatedSource)obj).windowSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getClass(), input, index, windowSize);
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static io.parsingdata.metal.Util.checkNotNegative;
+import static io.parsingdata.metal.Util.checkNotNull;
+import static io.parsingdata.metal.Util.fitsInLong;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import io.parsingdata.metal.Util;
+
+/**
+ * An index of checkpoints into a raw deflate stream, used by
+ * {@link IndexedInflatedSource} to start inflating close to any offset.
+ * <p>
+ * An InflateIndex is built by inflating the input once. At the first block
+ * boundary after every <code>spacing</code> bytes of output, a checkpoint
+ * is recorded: the output offset, the bit offset in the input and the
+ * preceding 32 KiB of output that later blocks may refer to. The index also
+ * records the length of the input, a CRC-32 checksum of its first and last
+ * <code>CHECKSUM_SAMPLE_SIZE</code> bytes and the length of the inflated
+ * data, so that it can be checked against the input it is used with without
+ * reading all of it.
+ * <p>
+ * An index can be written to and read from a stream or a side file, so that
+ * re-opening the same input does not require inflating it again.
+ */
+public final class InflateIndex {
+
+    public static final long DEFAULT_SPACING = 4L * 1024 * 1024;
+
+    static final int CHECKSUM_SAMPLE_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x4d494458; // "MIDX"
+    private static final int VERSION = 3;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    public final long inputLength;
+    public final long inputChecksum;
+    public final long outputLength;
+
+    private final long[] outputOffsets; // Private because array content is mutable.
+    private final long[] bitOffsets;
+    private final byte[][] dictionaries;
+
+    private InflateIndex(final long inputLength, final long inputChecksum, final long outputLength, final long[] outputOffsets, final long[] bitOffsets, final byte[][] dictionaries) {
+        this.inputLength = inputLength;
+        this.inputChecksum = inputChecksum;
+        this.outputLength = outputLength;
+        this.outputOffsets = outputOffsets;
+        this.bitOffsets = bitOffsets;
+        this.dictionaries = dictionaries;
+    }
+
+    /**
+     * Inflates <code>input</code> once and records a checkpoint roughly
+     * every <code>spacing</code> bytes of output. Returns
+     * {@link Optional#empty()} if <code>input</code> cannot be inflated
+     * completely into at most <code>maxLength</code> bytes.
+     */
+    public static Optional<InflateIndex> build(final Slice input, final long spacing, final long maxLength) {
+        checkNotNull(input, "input");
+        if (spacing <= 0) {
+            throw new IllegalArgumentException("Argument spacing must be positive.");
+        }
+        checkNotNegative(maxLength, "maxLength");
+        if (!fitsInLong(input.offset.add(input.length))) {
+            return Optional.empty();
+        }
+        final List<Long> outputOffsets = new ArrayList<>();
+        final List<Long> bitOffsets = new ArrayList<>();
+        final List<byte[]> dictionaries = new ArrayList<>();
+        final byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+        final DeflateDecoder decoder = new DeflateDecoder(input, 0, new byte[0]);
+        long position = 0;
+        long nextCheckpoint = 0;
+        try {
+            while (!decoder.isFinished()) {
+                if (decoder.isAtBlockBoundary() && position >= nextCheckpoint) {
+                    outputOffsets.add(position);
+                    bitOffsets.add(decoder.getBitPosition());
+                    dictionaries.add(decoder.getDictionary());
+                    nextCheckpoint = position + spacing;
+                }
+                position += decoder.decode(buffer, 0, buffer.length);
+                if (position > maxLength) {
+                    return Optional.empty();
+                }
+            }
+        } catch (final DeflateDecoder.DeflateException exception) {
+            return Optional.empty();
+        }
+        return Optional.of(new InflateIndex(input.length.longValue(), checksum(input), position, toArray(outputOffsets), toArray(bitOffsets), dictionaries.toArray(new byte[0][])));
+    }
+
+    // Covers all of an input of up to twice the sample size, and otherwise its first and last sample.
+    static long checksum(final Slice input) {
+        final CRC32 checksum = new CRC32();
+        final long offset = input.offset.longValue();
+        final long length = input.length.longValue();
+        if (length <= 2L * CHECKSUM_SAMPLE_SIZE) {
+            checksum.update(input.source.getData(offset, (int) length));
+        } else {
+            checksum.update(input.source.getData(offset, CHECKSUM_SAMPLE_SIZE));
+            checksum.update(input.source.getData(offset + length - CHECKSUM_SAMPLE_SIZE, CHECKSUM_SAMPLE_SIZE));
+        }
+        return checksum.getValue();
+    }
+
+    /**
+     * Returns whether this index was built from input with the same length and
+     * checksum as <code>input</code>. Since the checksum only covers the start
+     * and end of a large input, a change in between is not detected.
+     */
+    public boolean matches(final Slice input) {
+        checkNotNull(input, "input");
+        return input.length.equals(BigInteger.valueOf(inputLength))
+            && fitsInLong(input.offset.add(input.length))
+            && checksum(input) == inputChecksum;
+    }
+
+    private static long[] toArray(final List<Long> list) {
+        final long[] array = new long[list.size()];
+        for (int index = 0; index < array.length; index++) {
+            array[index] = list.get(index);
+        }
+        return array;
+    }
+
+    public int size() {
+        return outputOffsets.length;
+    }
+
+    /**
+     * Returns the index of the last checkpoint at or before output offset
+     * <code>offset</code>.
+     */
+    int checkpointBefore(final long offset) {
+        int low = 0;
+        int high = outputOffsets.length - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (outputOffsets[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    long outputOffset(final int checkpoint) {
+        return outputOffsets[checkpoint];
+    }
+
+    DeflateDecoder decoderAt(final Slice input, final int checkpoint) {
+        return new DeflateDecoder(input, bitOffsets[checkpoint], dictionaries[checkpoint]);
+    }
+
+    public void writeTo(final OutputStream stream) throws IOException {
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(checkNotNull(stream, "stream")));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(inputLength);
+        output.writeLong(inputChecksum);
+        output.writeLong(outputLength);
+        output.writeInt(outputOffsets.length);
+        for (int index = 0; index < outputOffsets.length; index++) {
+            output.writeLong(outputOffsets[index]);
+            output.writeLong(bitOffsets[index]);
+            output.writeInt(dictionaries[index].length);
+            output.write(dictionaries[index]);
+        }
+        output.flush();
+    }
+
+    public static InflateIndex readFrom(final InputStream stream) throws IOException {
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(checkNotNull(stream, "stream")));
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Not an inflate index (or an unsupported version).");
+        }
+        final long inputLength = input.readLong();
+        final long inputChecksum = input.readLong();
+        final long outputLength = input.readLong();
+        final int size = input.readInt();
+        if (size <= 0) {
+            throw new IOException("Inflate index contains no checkpoints.");
+        }
+        final long[] outputOffsets = new long[size];
+        final long[] bitOffsets = new long[size];
+        final byte[][] dictionaries = new byte[size][];
+        for (int index = 0; index < size; index++) {
+            outputOffsets[index] = input.readLong();
+            bitOffsets[index] = input.readLong();
+            final int dictionaryLength = input.readInt();
+            if (dictionaryLength < 0 || dictionaryLength > DeflateDecoder.DICTIONARY_SIZE) {
+                throw new IOException("Invalid dictionary length in inflate index: " + dictionaryLength + ".");
+            }
+            dictionaries[index] = new byte[dictionaryLength];
+            input.readFully(dictionaries[index]);
+        }
+        return new InflateIndex(inputLength, inputChecksum, outputLength, outputOffsets, bitOffsets, dictionaries);
+    }
+
+    public void save(final Path path) throws IOException {
+        try (OutputStream stream = Files.newOutputStream(checkNotNull(path, "path"))) {
+            writeTo(stream);
+        }
+    }
+
+    public static InflateIndex load(final Path path) throws IOException {
+        try (InputStream stream = Files.newInputStream(checkNotNull(path, "path"))) {
+            return readFrom(stream);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(checkpoints:" + outputOffsets.length + ";input:" + inputLength + ";output:" + outputLength + ")";
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return Util.notNullAndSameClass(this, obj)
+            && inputLength == ((InflateIndex)obj).inputLength
+            && inputChecksum == ((InflateIndex)obj).inputChecksum
+            && outputLength == ((InflateIndex)obj).outputLength
+            && Arrays.equals(outputOffsets, ((InflateIndex)obj).outputOffsets)
+            && Arrays.equals(bitOffsets, ((InflateIndex)obj).bitOffsets)
+            && Arrays.deepEquals(dictionaries, ((InflateIndex)obj).dictionaries);
+    }
+
+    @Override
+    public int hashCode() {
+        // The dictionaries are left out, they are large and determined by the rest.
+        return Objects.hash(getClass(), inputLength, inputChecksum, outputLength, Arrays.hashCode(outputOffsets), Arrays.hashCode(bitOffsets));
+    }
+
+}
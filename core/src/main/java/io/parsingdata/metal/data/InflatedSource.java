@@ -0,0 +1,251 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static io.parsingdata.metal.Util.checkNotNegative;
+import static io.parsingdata.metal.Util.checkNotNull;
+import static io.parsingdata.metal.Util.fitsInLong;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import io.parsingdata.metal.Util;
+
+/**
+ * A {@link Source} that contains the inflated (raw deflate) contents of a
+ * {@link Slice}, decompressed on demand.
+ * <p>
+ * An InflatedSource consists of an <code>input</code> (a {@link Slice}
+ * containing the compressed data), a <code>windowSize</code> and a
+ * <code>maxLength</code>. On creation the input is inflated once to
+ * validate it and determine its length, without keeping more than
+ * <code>windowSize</code> bytes of output. Reads are then served from a
+ * window of at most <code>windowSize</code> bytes that moves forward
+ * through the inflated data. If the inflated data fits in the window, it is
+ * inflated only once.
+ * <p>
+ * A read before the current window restarts inflation from the beginning of
+ * the input, so its cost is proportional to its offset, without bound.
+ * Grammars that read forward, as most do, never restart. For random access
+ * into large inflated data, use {@link IndexedInflatedSource}, which starts
+ * from the nearest checkpoint instead.
+ * <p>
+ * Inflation fails if the input is invalid or truncated, or if it inflates
+ * to more than <code>maxLength</code> bytes. Inflation uses an
+ * {@link Inflater} taken from a bounded pool. The first pass returns it as
+ * soon as it ends. A read that misses the window takes one, which is
+ * returned when inflation reaches the end of the input or restarts.
+ */
+public class InflatedSource extends Source {
+
+    public static final int DEFAULT_WINDOW_SIZE = 1024 * 1024;
+    public static final long DEFAULT_MAX_LENGTH = 4L * 1024 * 1024 * 1024;
+
+    static final int INITIAL_WINDOW_SIZE = 8 * 1024;
+    static final int INPUT_BUFFER_SIZE = 8 * 1024;
+
+    public final Slice input;
+    public final int windowSize;
+    public final long maxLength;
+
+    private final long inputOffset;
+    private final long inputLength;
+    private final long length;
+
+    private Inflater inflater; // Guarded by this, as is all other mutable state. Null when not inflating.
+    private long inputPosition;
+    private byte[] window;
+    private long windowStart;
+    private int windowFill;
+
+    private InflatedSource(final Slice input, final int windowSize, final long maxLength) {
+        this.input = input;
+        this.windowSize = windowSize;
+        this.maxLength = maxLength;
+        inputOffset = input.offset.longValue();
+        inputLength = input.length.longValue();
+        window = new byte[Math.min(INITIAL_WINDOW_SIZE, windowSize)];
+        length = measure();
+    }
+
+    /**
+     * Inflates <code>input</code> and returns a {@link Slice} covering all of
+     * the inflated data, or {@link Optional#empty()} if <code>input</code>
+     * cannot be inflated completely into at most <code>maxLength</code> bytes.
+     */
+    public static Optional<Slice> inflate(final Slice input, final int windowSize, final long maxLength) {
+        checkNotNull(input, "input");
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Argument windowSize must be positive.");
+        }
+        checkNotNegative(maxLength, "maxLength");
+        if (!fitsInLong(input.offset.add(input.length))) {
+            return Optional.empty();
+        }
+        final InflatedSource source = new InflatedSource(input, windowSize, maxLength);
+        if (source.length < 0) {
+            return Optional.empty();
+        }
+        return Slice.createFromSource(source, 0L, source.length);
+    }
+
+    public static Optional<Slice> inflate(final Slice input) {
+        return inflate(input, DEFAULT_WINDOW_SIZE, DEFAULT_MAX_LENGTH);
+    }
+
+    private long measure() {
+        try {
+            do {
+                if (!inflate() || windowStart + windowFill > maxLength) {
+                    return -1;
+                }
+            } while (!inflater.finished());
+            return windowStart + windowFill;
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    protected byte[] getData(final BigInteger offset, final BigInteger length) {
+        if (!isAvailable(offset, length)) {
+            throw new IllegalStateException("Data to read is not available ([offset=" + offset + ";length=" + length + ";source=" + this + ").");
+        }
+        return getData(offset.longValueExact(), length.intValueExact());
+    }
+
+    @Override
+    protected boolean isAvailable(final BigInteger offset, final BigInteger length) {
+        return checkNotNegative(offset, "offset").add(checkNotNegative(length, "length")).compareTo(BigInteger.valueOf(this.length)) <= 0;
+    }
+
+    @Override
+    protected synchronized byte[] getData(final long offset, final int length) {
+        if (!isAvailable(offset, length)) {
+            throw new IllegalStateException("Data to read is not available ([offset=" + offset + ";length=" + length + ";source=" + this + ").");
+        }
+        final byte[] outputData = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            final long position = offset + copied;
+            if (position < windowStart) {
+                release();
+                windowStart = 0;
+                windowFill = 0;
+            }
+            if (position < windowStart + windowFill) {
+                final int from = (int) (position - windowStart);
+                final int count = Math.min(length - copied, windowFill - from);
+                System.arraycopy(window, from, outputData, copied, count);
+                copied += count;
+            } else {
+                advance();
+            }
+        }
+        return outputData;
+    }
+
+    @Override
+    protected boolean isAvailable(final long offset, final long length) {
+        return checkNotNegative(offset, "offset") <= this.length && checkNotNegative(length, "length") <= this.length - offset;
+    }
+
+    private void advance() {
+        if (windowStart + windowFill == length) {
+            throw new IllegalStateException("Inflated data is not available beyond offset " + length + " (source=" + this + ").");
+        }
+        if (!inflate()) {
+            release();
+            throw new IllegalStateException("Input of " + this + " can no longer be inflated.");
+        }
+        if (inflater.finished()) {
+            release();
+        }
+    }
+
+    // Inflates into the window, from the start of the input if no inflater is in use. Returns false if the input is invalid or truncated.
+    private boolean inflate() {
+        if (inflater == null) {
+            inflater = InflaterPool.acquire();
+            inputPosition = 0;
+        }
+        makeRoom();
+        try {
+            if (inflater.needsInput()) {
+                if (inputPosition == inputLength) {
+                    return false;
+                }
+                final int count = (int) Math.min(INPUT_BUFFER_SIZE, inputLength - inputPosition);
+                inflater.setInput(input.source.getData(inputOffset + inputPosition, count));
+                inputPosition += count;
+            }
+            windowFill += inflater.inflate(window, windowFill, window.length - windowFill);
+            return !inflater.needsDictionary();
+        } catch (final DataFormatException exception) {
+            return false;
+        }
+    }
+
+    private void release() {
+        if (inflater != null) {
+            InflaterPool.release(inflater);
+            inflater = null;
+        }
+    }
+
+    // Whether this source currently holds an inflater from the pool.
+    synchronized boolean isInflating() {
+        return inflater != null;
+    }
+
+    private void makeRoom() {
+        if (windowFill == window.length) {
+            if (window.length < windowSize) {
+                window = Arrays.copyOf(window, (int) Math.min(2L * window.length, windowSize));
+            } else {
+                // Keep the most recent half of the window for short backward reads.
+                final int keep = window.length / 2;
+                System.arraycopy(window, windowFill - keep, window, 0, keep);
+                windowStart += windowFill - keep;
+                windowFill = keep;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + input + ")";
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return Util.notNullAndSameClass(this, obj)
+            && Objects.equals(input, ((InflatedSource)obj).input)
+            && windowSize == ((InflatedSource)obj).windowSize
+            && maxLength == ((InflatedSource)obj).maxLength;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getClass(), input, windowSize, maxLength);
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of raw (<code>nowrap</code>) {@link Inflater}s.
+ * <p>
+ * Released inflaters are reset and kept for reuse. When the pool is full,
+ * a released inflater is ended immediately, so its native memory does not
+ * have to wait for garbage collection.
+ */
+final class InflaterPool {
+
+    static final int MAX_POOLED = 32;
+
+    private static final BlockingQueue<Inflater> POOL = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private InflaterPool() {}
+
+    static Inflater acquire() {
+        final Inflater inflater = POOL.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    static void release(final Inflater inflater) {
+        inflater.reset();
+        if (!POOL.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+}
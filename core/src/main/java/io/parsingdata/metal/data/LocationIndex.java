@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import java.math.BigInteger;
+
+import io.parsingdata.metal.token.Token;
+
+/**
+ * A persistent index of the locations of the {@link ParseItem}s in a
+ * {@link ParseGraph}, used to determine whether a root of a definition
+ * exists at a location (see {@link Selection#hasRootAtOffset}).
+ * <p>
+ * The location of a value is the offset and source of its slice. The
+ * location of a graph is that of its lowest offset value (see
+ * {@link ParseGraph#lowest}), which changes as the graph grows. Every
+ * located item is recorded together with its definition and the definition
+ * of its parent, since an item is only a root if the definition of its
+ * parent is different.
+ * <p>
+ * Since only some parses need it, an index is only created by the first
+ * lookup in a graph (see {@link ParseGraph#locations()}).
+ */
+final class LocationIndex {
+
+    static final LocationIndex EMPTY = new LocationIndex(ImmutableHashMap.empty());
+
+    private final ImmutableHashMap<BigInteger, ImmutableList<Entry>> entries;
+
+    private LocationIndex(final ImmutableHashMap<BigInteger, ImmutableList<Entry>> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * @return An index of all items in <code>graph</code>
+     */
+    static LocationIndex create(final ParseGraph graph) {
+        return EMPTY.addAll(graph);
+    }
+
+    /**
+     * Returns an index with entries added for <code>graph</code>, located at
+     * its lowest offset value, and for all items in it.
+     */
+    LocationIndex add(final ParseGraph graph, final Token parent) {
+        return add(graph.lowest, graph.definition, parent).addAll(graph);
+    }
+
+    private LocationIndex addAll(final ParseGraph graph) {
+        LocationIndex result = this;
+        for (ImmutableList<ParseGraph> graphs = ImmutableList.create(graph); !graphs.isEmpty(); ) {
+            final ParseGraph parent = graphs.head;
+            graphs = graphs.tail;
+            for (ParseGraph items = parent; !items.isEmpty(); items = items.tail) {
+                if (items.head.isValue()) {
+                    result = result.add(items.head.asValue(), items.head.getDefinition(), parent.definition);
+                } else if (items.head.isGraph()) {
+                    result = result.add(items.head.asGraph().lowest, items.head.getDefinition(), parent.definition);
+                    graphs = graphs.add(items.head.asGraph());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns an index with an entry added for an item with
+     * <code>definition</code> located at <code>value</code>, in a graph with
+     * <code>parent</code> as its definition.
+     */
+    LocationIndex add(final ParseValue value, final Token definition, final Token parent) {
+        if (isNeverRoot(value, definition, parent)) {
+            return this;
+        }
+        final BigInteger offset = value.slice.offset;
+        final ImmutableList<Entry> current = entries.get(offset);
+        return new LocationIndex(entries.put(offset, (current == null ? new ImmutableList<Entry>() : current).add(new Entry(value, definition, parent))));
+    }
+
+    /**
+     * Returns an index in which the entry for a graph with
+     * <code>definition</code> is moved from <code>oldValue</code> to
+     * <code>newValue</code>.
+     */
+    LocationIndex move(final ParseValue oldValue, final ParseValue newValue, final Token definition, final Token parent) {
+        if (isNeverRoot(oldValue, definition, parent)) {
+            return add(newValue, definition, parent);
+        }
+        final BigInteger offset = oldValue.slice.offset;
+        return new LocationIndex(entries.put(offset, without(entries.get(offset), new Entry(oldValue, definition, parent)))).add(newValue, definition, parent);
+    }
+
+    // An item that has no location or that has the same definition as its parent is never a root.
+    private static boolean isNeverRoot(final ParseValue value, final Token definition, final Token parent) {
+        return value == null || definition == parent;
+    }
+
+    private static ImmutableList<Entry> without(final ImmutableList<Entry> list, final Entry entry) {
+        ImmutableList<Entry> skipped = new ImmutableList<>();
+        ImmutableList<Entry> rest = list;
+        while (!rest.head.sameAs(entry)) {
+            skipped = skipped.add(rest.head);
+            rest = rest.tail;
+        }
+        ImmutableList<Entry> result = rest.tail;
+        for (; !skipped.isEmpty(); skipped = skipped.tail) {
+            result = result.add(skipped.head);
+        }
+        return result;
+    }
+
+    /**
+     * @return Whether the graph contains a root of <code>definition</code> at
+     * <code>offset</code> in <code>source</code>
+     */
+    boolean hasRoot(final Token definition, final BigInteger offset, final Source source) {
+        for (ImmutableList<Entry> list = entries.get(offset); list != null && !list.isEmpty(); list = list.tail) {
+            LookupStatistics.VISITS.increment();
+            final Entry entry = list.head;
+            if (matches(entry.definition, definition) && !matches(entry.parent, definition) && entry.value.slice.source.equals(source)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(final Token token, final Token definition) {
+        return token == definition || token.equals(definition);
+    }
+
+    private static final class Entry {
+
+        final ParseValue value;
+        final Token definition;
+        final Token parent;
+
+        Entry(final ParseValue value, final Token definition, final Token parent) {
+            this.value = value;
+            this.definition = definition;
+            this.parent = parent;
+        }
+
+        boolean sameAs(final Entry other) {
+            return value == other.value && definition == other.definition && parent == other.parent;
+        }
+
+    }
+
+}
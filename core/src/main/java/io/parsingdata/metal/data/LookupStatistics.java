@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the work done to look up items in parse graphs and parts of
+ * concatenated sources.
+ * <p>
+ * <code>VISITS</code> counts the items visited by traversals of a graph,
+ * including the traversals that build an index. <code>INDEX_BUILDS</code>
+ * counts the indexes of root graphs that are built by such a traversal.
+ * <code>PART_LOOKUPS</code> counts the parts a {@link ConcatenatedValueSource}
+ * compares an offset with to find the part that holds it.
+ * Tests use them to check that lookups use the indexes instead of
+ * traversing the graph, so that the work of a parse does not grow faster
+ * than its size.
+ */
+final class LookupStatistics {
+
+    static final LongAdder VISITS = new LongAdder();
+    static final LongAdder INDEX_BUILDS = new LongAdder();
+    static final LongAdder PART_LOOKUPS = new LongAdder();
+
+    private LookupStatistics() {}
+
+    static void reset() {
+        VISITS.reset();
+        INDEX_BUILDS.reset();
+        PART_LOOKUPS.reset();
+    }
+
+}
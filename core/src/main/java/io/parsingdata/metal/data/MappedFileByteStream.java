@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static io.parsingdata.metal.Util.checkNotNull;
+import static io.parsingdata.metal.Util.fitsInLong;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import io.parsingdata.metal.Util;
+
+/**
+ * A {@link ByteStream} backed by a file that is accessed through memory
+ * mapped windows.
+ * <p>
+ * A MappedFileByteStream consists of a <code>path</code>, a
+ * <code>windowSize</code> and a <code>windowCount</code>. The file is
+ * divided into aligned windows of <code>windowSize</code> bytes, which are
+ * mapped read-only on first access. At most <code>windowCount</code> windows
+ * are kept, the least recently used window is dropped when a new one is
+ * required. Because a single mapping is limited to 2 GB, this allows files
+ * of any size to be read. Reads that cross a window boundary are assembled
+ * from multiple windows.
+ * <p>
+ * Instances are safe for use by concurrent readers. The file is opened when
+ * the stream is constructed and must be released by calling
+ * {@link #close()}.
+ */
+public class MappedFileByteStream implements ByteStream, Closeable {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_WINDOW_COUNT = 16;
+
+    public final Path path;
+    public final int windowSize;
+    public final int windowCount;
+    public final long size;
+
+    private final FileChannel channel;
+    private final Map<Long, ByteBuffer> windows; // Guarded by this.
+
+    public MappedFileByteStream(final Path path, final int windowSize, final int windowCount) throws IOException {
+        this.path = checkNotNull(path, "path");
+        this.windowSize = checkPositive(windowSize, "windowSize");
+        this.windowCount = checkPositive(windowCount, "windowCount");
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        windows = new LinkedHashMap<Long, ByteBuffer>(windowCount, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, ByteBuffer> eldest) {
+                return size() > MappedFileByteStream.this.windowCount;
+            }
+        };
+    }
+
+    public MappedFileByteStream(final Path path) throws IOException {
+        this(path, DEFAULT_WINDOW_SIZE, DEFAULT_WINDOW_COUNT);
+    }
+
+    private static int checkPositive(final int argument, final String name) {
+        if (argument <= 0) {
+            throw new IllegalArgumentException("Argument " + name + " must be positive.");
+        }
+        return argument;
+    }
+
+    @Override
+    public byte[] read(final BigInteger offset, final int length) throws IOException {
+        if (!isAvailable(offset, length)) { throw new IOException("Data to read is not available."); }
+        return read(offset.longValueExact(), length);
+    }
+
+    @Override
+    public byte[] read(final long offset, final int length) throws IOException {
+        if (!isAvailable(offset, length)) { throw new IOException("Data to read is not available."); }
+        final byte[] data = new byte[length];
+        long position = offset;
+        int copied = 0;
+        while (copied < length) {
+            final long windowIndex = position / windowSize;
+            final int windowOffset = (int) (position % windowSize);
+            final ByteBuffer window = getWindow(windowIndex);
+            final int toCopy = Math.min(length - copied, window.capacity() - windowOffset);
+            ((Buffer) window).position(windowOffset);
+            window.get(data, copied, toCopy);
+            copied += toCopy;
+            position += toCopy;
+        }
+        return data;
+    }
+
+    @Override
+    public ByteBuffer readByteBuffer(final long offset, final int length) throws IOException {
+        if (!isAvailable(offset, length)) { throw new IOException("Data to read is not available."); }
+        final int windowOffset = (int) (offset % windowSize);
+        if (length == 0 || windowOffset + length > windowSize) {
+            return ByteBuffer.wrap(read(offset, length));
+        }
+        final ByteBuffer window = getWindow(offset / windowSize);
+        ((Buffer) window).position(windowOffset);
+        ((Buffer) window).limit(windowOffset + length);
+        return window.slice();
+    }
+
+    private ByteBuffer getWindow(final long windowIndex) throws IOException {
+        synchronized (this) {
+            final ByteBuffer window = windows.get(windowIndex);
+            if (window != null) {
+                return window.duplicate();
+            }
+            if (!channel.isOpen()) {
+                throw new IOException("Stream is closed.");
+            }
+            final long windowStart = windowIndex * windowSize;
+            final ByteBuffer newWindow = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowSize, size - windowStart));
+            windows.put(windowIndex, newWindow);
+            return newWindow.duplicate();
+        }
+    }
+
+    @Override
+    public boolean isAvailable(final BigInteger offset, final int length) {
+        return fitsInLong(offset) && isAvailable(offset.longValue(), length);
+    }
+
+    @Override
+    public boolean isAvailable(final long offset, final int length) {
+        return offset >= 0 && length >= 0 && offset <= size - length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            windows.clear();
+            channel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + path + "(" + size + "))";
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return Util.notNullAndSameClass(this, obj)
+            && Objects.equals(path, ((MappedFileByteStream)obj).path);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getClass(), path);
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static io.parsingdata.metal.token.Token.SEPARATOR;
+
+import java.util.Optional;
+
+import io.parsingdata.metal.expression.value.Value;
+
+/**
+ * A persistent index of the {@link ParseValue}s in a {@link ParseGraph} by
+ * name.
+ * <p>
+ * Every value is stored under the last part of its name, following the last
+ * {@link io.parsingdata.metal.token.Token#SEPARATOR}. Since
+ * {@link ParseValue#matches(String)} only holds if the name of the value
+ * ends with the name that is looked up, a lookup only needs to consider the
+ * values stored under the last part of that name. Per name, values are kept
+ * most recently added first, already wrapped for use as the result of a
+ * {@link io.parsingdata.metal.expression.value.ValueExpression}.
+ */
+final class NameIndex {
+
+    static final NameIndex EMPTY = new NameIndex(ImmutableHashMap.empty());
+
+    private static final ImmutableList<Optional<Value>> NO_VALUES = new ImmutableList<>();
+
+    private final ImmutableHashMap<String, Entry> entries;
+
+    private NameIndex(final ImmutableHashMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * @return An index of all values in <code>graph</code>
+     */
+    static NameIndex create(final ParseGraph graph) {
+        return EMPTY.addAll(graph);
+    }
+
+    /**
+     * @return An index with all values in <code>graph</code> added, as if
+     * they were added one at a time
+     */
+    NameIndex addAll(final ParseGraph graph) {
+        NameIndex result = this;
+        // The values are returned least recently added first.
+        for (ImmutableList<ParseValue> values = Selection.getAllValues(graph, value -> true); !values.isEmpty(); values = values.tail) {
+            result = result.add(values.head);
+        }
+        return result;
+    }
+
+    NameIndex add(final ParseValue value) {
+        final Optional<Value> wrapped = Optional.of(value);
+        final String key = key(value.name);
+        final Entry entry = entries.get(key);
+        return new NameIndex(entries.put(key, entry == null ? new Entry(NO_VALUES.add(wrapped), wrapped) : new Entry(entry.values.add(wrapped), entry.first)));
+    }
+
+    private static String key(final String name) {
+        return name.substring(name.lastIndexOf(SEPARATOR) + SEPARATOR.length());
+    }
+
+    /**
+     * @return All values matching <code>name</code>, most recently added first
+     */
+    ImmutableList<Optional<Value>> get(final String name) {
+        final Entry entry = entries.get(key(name));
+        if (entry == null) {
+            return NO_VALUES;
+        }
+        return name.contains(SEPARATOR) ? Selection.reverse(filter(entry.values, name)) : entry.values;
+    }
+
+    /**
+     * @return The least recently added value matching <code>name</code>
+     */
+    Optional<Value> getFirst(final String name) {
+        final Entry entry = entries.get(key(name));
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (!name.contains(SEPARATOR)) {
+            return entry.first;
+        }
+        final ImmutableList<Optional<Value>> values = filter(entry.values, name);
+        return values.isEmpty() ? Optional.empty() : values.head;
+    }
+
+    // Returns the values that match name, least recently added first.
+    private static ImmutableList<Optional<Value>> filter(final ImmutableList<Optional<Value>> values, final String name) {
+        ImmutableList<Optional<Value>> result = NO_VALUES;
+        for (ImmutableList<Optional<Value>> list = values; !list.isEmpty(); list = list.tail) {
+            if (((ParseValue) list.head.get()).matches(name)) {
+                result = result.add(list.head);
+            }
+        }
+        return result;
+    }
+
+    private static final class Entry {
+
+        final ImmutableList<Optional<Value>> values;
+        final Optional<Value> first;
+
+        Entry(final ImmutableList<Optional<Value>> values, final Optional<Value> first) {
+            this.values = values;
+            this.first = first;
+        }
+
+    }
+
+}
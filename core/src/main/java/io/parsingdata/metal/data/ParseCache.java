@@ -0,0 +1,592 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static io.parsingdata.metal.Util.checkNotNull;
+import static io.parsingdata.metal.token.Token.SEPARATOR;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.expression.Expression;
+import io.parsingdata.metal.expression.True;
+import io.parsingdata.metal.expression.comparison.ComparisonExpression;
+import io.parsingdata.metal.expression.comparison.Eq;
+import io.parsingdata.metal.expression.comparison.EqNum;
+import io.parsingdata.metal.expression.comparison.EqStr;
+import io.parsingdata.metal.expression.comparison.GtEqNum;
+import io.parsingdata.metal.expression.comparison.GtNum;
+import io.parsingdata.metal.expression.comparison.LtEqNum;
+import io.parsingdata.metal.expression.comparison.LtNum;
+import io.parsingdata.metal.expression.logical.BinaryLogicalExpression;
+import io.parsingdata.metal.expression.logical.UnaryLogicalExpression;
+import io.parsingdata.metal.expression.value.BinaryValueExpression;
+import io.parsingdata.metal.expression.value.Bytes;
+import io.parsingdata.metal.expression.value.Cat;
+import io.parsingdata.metal.expression.value.Const;
+import io.parsingdata.metal.expression.value.Elvis;
+import io.parsingdata.metal.expression.value.Expand;
+import io.parsingdata.metal.expression.value.FoldCat;
+import io.parsingdata.metal.expression.value.Reverse;
+import io.parsingdata.metal.expression.value.UnaryValueExpression;
+import io.parsingdata.metal.expression.value.ValueExpression;
+import io.parsingdata.metal.expression.value.arithmetic.Add;
+import io.parsingdata.metal.expression.value.arithmetic.Div;
+import io.parsingdata.metal.expression.value.arithmetic.Mod;
+import io.parsingdata.metal.expression.value.arithmetic.Mul;
+import io.parsingdata.metal.expression.value.arithmetic.Neg;
+import io.parsingdata.metal.expression.value.bitwise.ShiftLeft;
+import io.parsingdata.metal.expression.value.bitwise.ShiftRight;
+import io.parsingdata.metal.expression.value.reference.Count;
+import io.parsingdata.metal.expression.value.reference.CurrentOffset;
+import io.parsingdata.metal.expression.value.reference.First;
+import io.parsingdata.metal.expression.value.reference.Last;
+import io.parsingdata.metal.expression.value.reference.Len;
+import io.parsingdata.metal.expression.value.reference.Nth;
+import io.parsingdata.metal.expression.value.reference.Offset;
+import io.parsingdata.metal.expression.value.reference.Self;
+import io.parsingdata.metal.token.Cho;
+import io.parsingdata.metal.token.Def;
+import io.parsingdata.metal.token.Post;
+import io.parsingdata.metal.token.Pre;
+import io.parsingdata.metal.token.Rep;
+import io.parsingdata.metal.token.RepN;
+import io.parsingdata.metal.token.Seq;
+import io.parsingdata.metal.token.Token;
+import io.parsingdata.metal.token.While;
+
+/**
+ * A bounded table of parse results that is used to avoid parsing the same
+ * token at the same location more than once, for instance when several
+ * alternatives of a {@link Cho} start with the same tokens.
+ * <p>
+ * Only results of tokens that are context free are stored. A token is
+ * context free if the result of parsing it only depends on the
+ * {@link Source}, offset and {@link Encoding} it is parsed with, meaning
+ * that none of its expressions refer to values that were parsed before it.
+ * Tokens that are equal (see {@link Token#equals(Object)}) share their
+ * results, so a result is also reused by an equal token in a different
+ * scope. In that case the names of the reused values are adapted to the new
+ * scope.
+ * <p>
+ * When a result is reused, the callbacks of the tokens nested in the reused
+ * token are not called. When the table is full, the least recently used
+ * result is evicted. A cache is enabled by passing it to an
+ * {@link Environment}. {@link #NONE} disables caching.
+ * <p>
+ * A cache created by
+ * {@link #createIncremental(int, ParseState, ImmutableList, Environment)}
+ * also contains the results of a previous parse of an input of which some
+ * bytes have since been changed. Parsing the changed input with it only
+ * parses the tokens that are affected by the changes.
+ */
+public class ParseCache {
+
+    public static final ParseCache NONE = new ParseCache(0, Collections.emptyMap());
+
+    // Operations that only use the values of their operands, so that they are context free if their operands are.
+    private static final Set<Class<?>> UNARY_OPERATIONS = new HashSet<>(Arrays.asList(
+        Neg.class, io.parsingdata.metal.expression.value.bitwise.Not.class, Len.class, Offset.class));
+    private static final Set<Class<?>> BINARY_OPERATIONS = new HashSet<>(Arrays.asList(
+        Add.class, Div.class, Mod.class, Mul.class, io.parsingdata.metal.expression.value.arithmetic.Sub.class,
+        io.parsingdata.metal.expression.value.bitwise.And.class, io.parsingdata.metal.expression.value.bitwise.Or.class,
+        ShiftLeft.class, ShiftRight.class, Cat.class));
+    private static final Set<Class<?>> COMPARISONS = new HashSet<>(Arrays.asList(
+        Eq.class, EqNum.class, EqStr.class, GtEqNum.class, GtNum.class, LtEqNum.class, LtNum.class));
+
+    public final int maxEntries;
+
+    private final Map<Long, Token> canonical = new HashMap<>();
+    private final Map<Token, Token> equalTokens = new HashMap<>();
+    private final Map<Key, Result> entries;
+    private final Map<Key, Result> previousEntries;
+    private long hits;
+    private long misses;
+
+    private ParseCache(final int maxEntries, final Map<Key, Result> previousEntries) {
+        this.maxEntries = maxEntries;
+        this.previousEntries = previousEntries;
+        entries = new LinkedHashMap<Key, Result>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, Result> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static ParseCache create(final int maxEntries) {
+        return new ParseCache(checkMaxEntries(maxEntries), Collections.emptyMap());
+    }
+
+    /**
+     * Creates a cache for parsing the input of <code>environment</code>,
+     * which is the input of <code>previous</code> with the bytes in
+     * <code>changes</code> replaced. Bytes may only be replaced, not inserted
+     * or removed.
+     * <p>
+     * The cache contains the result of every token in <code>previous</code>
+     * that is context free, that has not read any bytes beyond the values it
+     * has added (so it contains no {@link Cho}, {@link Rep}, {@link While} or
+     * token that is not context free) and whose values do not overlap any of
+     * the <code>changes</code>. These results are kept in addition to
+     * <code>maxEntries</code> new results. Parsing a token with the cache
+     * then only parses the tokens that cover changed bytes or that refer to
+     * values parsed before them, reusing the results of their nested tokens
+     * that are unaffected. The values of reused results refer to the
+     * {@link Source} of <code>environment</code>.
+     * <p>
+     * This saves reading and evaluating the input of reused results, not
+     * building the graph. Every reused value is added to the new
+     * {@link ParseGraph} separately, so an incremental parse still takes time
+     * proportional to the size of the resulting graph. Creating the cache
+     * walks the whole previous graph. The time of an update therefore grows
+     * with the size of the input, and sub-second updates of inputs of
+     * gigabytes are not a goal of this cache.
+     *
+     * @param maxEntries The maximum number of new results
+     * @param previous The result of parsing the input before the changes
+     * @param changes The bytes that have changed, as slices of the input of
+     *                <code>environment</code>
+     * @param environment The environment that will be used to parse the
+     *                    changed input, without the cache
+     * @throws IllegalArgumentException If a slice in <code>changes</code> is
+     *                                  not a slice of the input of
+     *                                  <code>environment</code>
+     */
+    public static ParseCache createIncremental(final int maxEntries, final ParseState previous, final ImmutableList<Slice> changes, final Environment environment) {
+        final ParseCache cache = new ParseCache(checkMaxEntries(maxEntries), new HashMap<>());
+        checkNotNull(environment, "environment");
+        for (ImmutableList<Slice> list = checkNotNull(changes, "changes"); !list.isEmpty(); list = list.tail) {
+            if (list.head.source != environment.parseState.source) {
+                throw new IllegalArgumentException("Argument changes may only contain slices of the input of environment: " + list.head + ".");
+            }
+        }
+        cache.addPrevious(checkNotNull(previous, "previous").order, previous.source, changes, environment, environment.scope, environment.encoding);
+        return cache;
+    }
+
+    private static int checkMaxEntries(final int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Argument maxEntries must be positive.");
+        }
+        return maxEntries;
+    }
+
+    // Adds the results of the unaffected tokens in graph, using the scope and encoding tokens would be parsed with.
+    private void addPrevious(final ParseGraph graph, final Source oldSource, final ImmutableList<Slice> changes, final Environment environment, final String scope, final Encoding encoding) {
+        for (ImmutableList<ParseItem> list = items(graph); !list.isEmpty(); list = list.tail) {
+            final ParseItem item = list.head;
+            if (item.isReference()) {
+                continue;
+            }
+            final Token token = item.isValue() ? item.asValue().definition : item.getDefinition();
+            final String tokenScope = extendScope(scope, token.name);
+            final Encoding tokenEncoding = token.encoding != null ? token.encoding : encoding;
+            final Extent extent = readsOnlyValues(token) ? Extent.of(item, oldSource, tokenScope, tokenEncoding) : null;
+            if (extent != null && !extent.overlaps(changes)) {
+                final Token canonicalToken = getCanonical(token);
+                if (canonicalToken != null) {
+                    previousEntries.put(new Key(canonicalToken.id, environment.parseState.source, extent.offset, tokenEncoding),
+                                        new Result(tokenScope, new ImmutableList<ParseItem>().add(item), extent.end, oldSource == environment.parseState.source ? null : environment.parseState.source));
+                    continue;
+                }
+            }
+            if (item.isGraph()) {
+                addPrevious(item.asGraph(), oldSource, changes, environment, tokenScope, tokenEncoding);
+            }
+        }
+    }
+
+    // Does what Environment.extendScope() does.
+    private static String extendScope(final String scope, final String name) {
+        return scope + (scope.isEmpty() || name.isEmpty() ? Token.NO_NAME : SEPARATOR) + name;
+    }
+
+    // Returns whether a successful parse of token only reads the bytes of the values it adds.
+    private static boolean readsOnlyValues(final Token token) {
+        if (token.getClass() == Def.class) {
+            return true;
+        }
+        if (token.getClass() == Post.class) {
+            return readsOnlyValues(((Post) token).token);
+        }
+        if (token.getClass() == Pre.class) {
+            return readsOnlyValues(((Pre) token).token);
+        }
+        if (token.getClass() == Seq.class) {
+            for (ImmutableList<Token> list = ((Seq) token).tokens; !list.isEmpty(); list = list.tail) {
+                if (!readsOnlyValues(list.head)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (token.getClass() == RepN.class) {
+            return readsOnlyValues(((RepN) token).token);
+        }
+        return false;
+    }
+
+    /**
+     * Parses <code>token</code> by calling <code>parser</code> with
+     * <code>environment</code>, unless the result of parsing an equal token
+     * at the same location is available.
+     */
+    public Optional<ParseState> parse(final Token token, final Environment environment, final Function<Environment, Optional<ParseState>> parser) {
+        if (this == NONE) {
+            return parser.apply(environment);
+        }
+        final Token canonicalToken = getCanonical(token);
+        if (canonicalToken == null) {
+            return parser.apply(environment);
+        }
+        final ParseState before = environment.parseState;
+        final Key key = new Key(canonicalToken.id, before.source, before.offset, environment.encoding);
+        final Result cached = get(key);
+        if (cached != null) {
+            return cached.replay(environment);
+        }
+        final Optional<ParseState> result = parser.apply(environment);
+        put(key, result.map(after -> new Result(environment.scope, added(before.order, after.order), after.offset)).orElse(Result.FAILED));
+        return result;
+    }
+
+    private synchronized Result get(final Key key) {
+        final Result result = entries.getOrDefault(key, previousEntries.get(key));
+        if (result == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+    private synchronized void put(final Key key, final Result result) {
+        entries.put(key, result);
+    }
+
+    // Returns the token that is used to store the results of all tokens equal to token, or null if it is not context free.
+    private synchronized Token getCanonical(final Token token) {
+        if (canonical.containsKey(token.id)) {
+            return canonical.get(token.id);
+        }
+        final Token result = isContextFree(token) ? equalTokens.computeIfAbsent(token, t -> t) : null;
+        canonical.put(token.id, result);
+        return result;
+    }
+
+    // Returns the items that were added to the innermost open graph of before, least recently added first.
+    private static ImmutableList<ParseItem> added(final ParseGraph before, final ParseGraph after) {
+        ParseGraph oldGraph = before;
+        ParseGraph newGraph = after;
+        while (oldGraph.branched) {
+            oldGraph = oldGraph.head.asGraph();
+            newGraph = newGraph.head.asGraph();
+        }
+        ImmutableList<ParseItem> items = new ImmutableList<>();
+        for (ParseGraph graph = newGraph; graph.size > oldGraph.size; graph = graph.tail) {
+            items = items.add(graph.head);
+        }
+        return items;
+    }
+
+    private static ImmutableList<ParseItem> items(final ParseGraph graph) {
+        ImmutableList<ParseItem> items = new ImmutableList<>();
+        for (ParseGraph current = graph; !current.isEmpty(); current = current.tail) {
+            items = items.add(current.head);
+        }
+        return items;
+    }
+
+    /**
+     * Returns whether the result of parsing <code>token</code> only depends
+     * on the {@link Source}, offset and {@link Encoding} it is parsed with.
+     */
+    public static boolean isContextFree(final Token token) {
+        if (token.getClass() == Def.class) {
+            return isContextFree(((Def) token).size, false);
+        }
+        if (token.getClass() == Post.class) {
+            // The predicate of a Post may refer to the value its nested token has just added.
+            final Token nested = ((Post) token).token;
+            return isContextFree(nested) && isContextFreePredicate(((Post) token).predicate, nested.getClass() == Def.class && isPositiveConstant(((Def) nested).size));
+        }
+        if (token.getClass() == Pre.class) {
+            return isContextFree(((Pre) token).token) && isContextFreePredicate(((Pre) token).predicate, false);
+        }
+        if (token.getClass() == Seq.class) {
+            return isContextFree(((Seq) token).tokens);
+        }
+        if (token.getClass() == Cho.class) {
+            return isContextFree(((Cho) token).tokens);
+        }
+        if (token.getClass() == Rep.class) {
+            return isContextFree(((Rep) token).token);
+        }
+        if (token.getClass() == RepN.class) {
+            return isContextFree(((RepN) token).token) && isContextFree(((RepN) token).n, false);
+        }
+        if (token.getClass() == While.class) {
+            return isContextFree(((While) token).token) && isContextFreePredicate(((While) token).predicate, false);
+        }
+        return false;
+    }
+
+    private static boolean isContextFree(final ImmutableList<Token> tokens) {
+        for (ImmutableList<Token> list = tokens; !list.isEmpty(); list = list.tail) {
+            if (!isContextFree(list.head)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPositiveConstant(final ValueExpression expression) {
+        return expression instanceof Const && ((Const) expression).value.asNumeric().signum() > 0;
+    }
+
+    private static boolean isContextFreePredicate(final Expression expression, final boolean allowSelf) {
+        if (expression.getClass() == True.class) {
+            return true;
+        }
+        if (COMPARISONS.contains(expression.getClass())) {
+            final ComparisonExpression comparison = (ComparisonExpression) expression;
+            return (comparison.value == null ? allowSelf : isContextFree(comparison.value, allowSelf)) && isContextFree(comparison.predicate, allowSelf);
+        }
+        if (expression.getClass() == io.parsingdata.metal.expression.logical.And.class || expression.getClass() == io.parsingdata.metal.expression.logical.Or.class) {
+            return isContextFreePredicate(((BinaryLogicalExpression) expression).left, allowSelf) && isContextFreePredicate(((BinaryLogicalExpression) expression).right, allowSelf);
+        }
+        if (expression.getClass() == io.parsingdata.metal.expression.logical.Not.class) {
+            return isContextFreePredicate(((UnaryLogicalExpression) expression).operand, allowSelf);
+        }
+        return false;
+    }
+
+    private static boolean isContextFree(final ValueExpression expression, final boolean allowSelf) {
+        if (expression.getClass() == Const.class || expression.getClass() == CurrentOffset.class) {
+            return true;
+        }
+        if (expression.getClass() == Self.class) {
+            return allowSelf;
+        }
+        if (UNARY_OPERATIONS.contains(expression.getClass())) {
+            return isContextFree(((UnaryValueExpression) expression).operand, allowSelf);
+        }
+        if (BINARY_OPERATIONS.contains(expression.getClass())) {
+            return isContextFree(((BinaryValueExpression) expression).left, allowSelf) && isContextFree(((BinaryValueExpression) expression).right, allowSelf);
+        }
+        if (expression.getClass() == Elvis.class) {
+            return isContextFree(((Elvis) expression).left, allowSelf) && isContextFree(((Elvis) expression).right, allowSelf);
+        }
+        if (expression.getClass() == Expand.class) {
+            return isContextFree(((Expand) expression).base, allowSelf) && isContextFree(((Expand) expression).count, allowSelf);
+        }
+        if (expression.getClass() == Nth.class) {
+            return isContextFree(((Nth) expression).values, allowSelf) && isContextFree(((Nth) expression).indices, allowSelf);
+        }
+        if (expression.getClass() == Bytes.class) {
+            return isContextFree(((Bytes) expression).operand, allowSelf);
+        }
+        if (expression.getClass() == FoldCat.class) {
+            return isContextFree(((FoldCat) expression).operand, allowSelf);
+        }
+        if (expression.getClass() == Reverse.class) {
+            return isContextFree(((Reverse) expression).values, allowSelf);
+        }
+        if (expression.getClass() == Count.class) {
+            return isContextFree(((Count) expression).operand, allowSelf);
+        }
+        if (expression.getClass() == First.class) {
+            return isContextFree(((First) expression).operand, allowSelf);
+        }
+        if (expression.getClass() == Last.class) {
+            return isContextFree(((Last) expression).operand, allowSelf);
+        }
+        return false;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public synchronized int size() {
+        return entries.size() + previousEntries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "(size:" + size() + ";maxEntries:" + maxEntries + ";hits:" + hits + ";misses:" + misses + ")";
+    }
+
+    private static final class Key {
+
+        final long token;
+        final Source source;
+        final BigInteger offset;
+        final Encoding encoding;
+
+        Key(final long token, final Source source, final BigInteger offset, final Encoding encoding) {
+            this.token = token;
+            this.source = source;
+            this.offset = offset;
+            this.encoding = encoding;
+        }
+
+        // Sources are compared by identity, since comparing their contents can be expensive.
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof Key
+                && token == ((Key)obj).token
+                && source == ((Key)obj).source
+                && offset.equals(((Key)obj).offset)
+                && encoding.equals(((Key)obj).encoding);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(token, System.identityHashCode(source), offset, encoding);
+        }
+
+    }
+
+    private static final class Extent {
+
+        static final Extent INVALID = new Extent(null, null);
+
+        final BigInteger offset;
+        final BigInteger end;
+
+        Extent(final BigInteger offset, final BigInteger end) {
+            this.offset = offset;
+            this.end = end;
+        }
+
+        /**
+         * Returns the bytes of the values in <code>item</code>, or
+         * <code>null</code> if they are not adjacent, not in
+         * <code>source</code>, or not named and encoded as when parsed with
+         * <code>scope</code> and <code>encoding</code>.
+         */
+        static Extent of(final ParseItem item, final Source source, final String scope, final Encoding encoding) {
+            final Extent extent = add(null, item, source, scope, encoding);
+            return extent == INVALID ? null : extent;
+        }
+
+        private static Extent add(final Extent extent, final ParseItem item, final Source source, final String scope, final Encoding encoding) {
+            if (item.isValue()) {
+                final ParseValue value = item.asValue();
+                if (value.slice.source != source || !value.name.equals(scope) || !value.encoding.equals(encoding) || (extent != null && !extent.end.equals(value.slice.offset))) {
+                    return INVALID;
+                }
+                return new Extent(extent == null ? value.slice.offset : extent.offset, value.slice.offset.add(value.slice.length));
+            }
+            if (item.isReference()) {
+                return INVALID;
+            }
+            Extent result = extent;
+            for (ImmutableList<ParseItem> list = items(item.asGraph()); !list.isEmpty() && result != INVALID; list = list.tail) {
+                final Token token = list.head.isValue() ? list.head.asValue().definition : list.head.isGraph() ? list.head.getDefinition() : null;
+                result = token == null ? INVALID : add(result, list.head, source, extendScope(scope, token.name), token.encoding != null ? token.encoding : encoding);
+            }
+            return result;
+        }
+
+        boolean overlaps(final ImmutableList<Slice> changes) {
+            for (ImmutableList<Slice> list = changes; !list.isEmpty(); list = list.tail) {
+                if (list.head.offset.compareTo(end) < 0 && offset.compareTo(list.head.offset.add(list.head.length)) < 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    private static final class Result {
+
+        static final Result FAILED = new Result(null, null, null);
+
+        final String scope;
+        final ImmutableList<ParseItem> items;
+        final BigInteger offset;
+        final Source source; // The source the values are moved to when replayed, or null to keep their source.
+
+        Result(final String scope, final ImmutableList<ParseItem> items, final BigInteger offset, final Source source) {
+            this.scope = scope;
+            this.items = items;
+            this.offset = offset;
+            this.source = source;
+        }
+
+        Result(final String scope, final ImmutableList<ParseItem> items, final BigInteger offset) {
+            this(scope, items, offset, null);
+        }
+
+        Optional<ParseState> replay(final Environment environment) {
+            if (this == FAILED) {
+                return Optional.empty();
+            }
+            final ParseState parseState = environment.parseState;
+            return Optional.of(new ParseState(replay(parseState.order, items, environment.scope), parseState.source, offset));
+        }
+
+        private ParseGraph replay(final ParseGraph graph, final ImmutableList<ParseItem> items, final String newScope) {
+            ParseGraph result = graph;
+            for (ImmutableList<ParseItem> list = items; !list.isEmpty(); list = list.tail) {
+                final ParseItem item = list.head;
+                if (item.isValue()) {
+                    result = result.add(adapt(item.asValue(), newScope));
+                } else if (item.isReference()) {
+                    result = result.add(item.asReference());
+                } else {
+                    result = replay(result.addBranch(item.getDefinition()), items(item.asGraph()), newScope).closeBranch();
+                }
+            }
+            return result;
+        }
+
+        // The scope the result was stored with is a prefix of the names of all values in it.
+        private ParseValue adapt(final ParseValue value, final String newScope) {
+            if (scope.equals(newScope) && source == null) {
+                return value;
+            }
+            final String name = scope.isEmpty() ? value.name : value.name.substring(Math.min(value.name.length(), scope.length() + SEPARATOR.length()));
+            final Slice slice = source == null ? value.slice : Slice.createFromSource(source, value.slice.offset, value.slice.length).get();
+            return new ParseValue(scope.equals(newScope) ? value.name : newScope.isEmpty() || name.isEmpty() ? newScope + name : newScope + SEPARATOR + name, value.definition, slice, value.encoding);
+        }
+
+    }
+
+}
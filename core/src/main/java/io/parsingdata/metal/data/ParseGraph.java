@@ -35,62 +35,285 @@ public class ParseGraph implements ParseItem {
     public final Token definition;
     public final long size;
 
+    private volatile DefinitionIndex definitions; // Built by the first lookup that needs it, see definitions().
+    final ParseValue lowest; // The value with the lowest offset in this graph, or null if this graph is not local.
+
+    final boolean root; // Whether this is the root of a parse (a graph derived from EMPTY).
+
+    // Only kept for the root of a parse, null for all nested graphs.
+    private volatile NameIndex names; // Built by the first lookup that needs it (see names()), then updated by every add.
+    private volatile LocationIndex locations; // Likewise, see locations().
+    private volatile ImmutableHashMap<String, Token> tokens; // Likewise, see tokens().
+
     public static final Token NONE = new Token("NONE", null) {
         @Override protected Optional<ParseState> parseImpl(final Environment environment) { throw new IllegalStateException("This placeholder may not be invoked."); }
         @Override public String toString() { return "None"; }
     };
 
-    public static final ParseGraph EMPTY = new ParseGraph(NONE);
+    public static final ParseGraph EMPTY = new ParseGraph(NONE, true);
 
-    private ParseGraph(final Token definition) {
+    private ParseGraph(final Token definition, final boolean root) {
         head = null;
         tail = null;
         branched = false;
         this.definition = checkNotNull(definition, "definition");
         size = 0;
+        definitions = DefinitionIndex.EMPTY;
+        lowest = null;
+        this.root = root;
+        names = null;
+        locations = null;
+        tokens = null;
     }
 
-    private ParseGraph(final ParseItem head, final ParseGraph tail, final Token definition, final boolean branched) {
+    private ParseGraph(final ParseItem head, final ParseGraph tail, final Token definition, final boolean branched, final DefinitionIndex definitions, final boolean root, final NameIndex names, final LocationIndex locations, final ImmutableHashMap<String, Token> tokens) {
         this.head = checkNotNull(head, "head");
         this.tail = checkNotNull(tail, "tail");
         this.branched = branched;
         this.definition = checkNotNull(definition, "definition");
         size = tail.size + 1;
+        this.definitions = definitions;
+        lowest = definition.isLocal() ? getLowest(head, tail.lowest) : null;
+        this.root = root;
+        this.names = names;
+        this.locations = locations;
+        this.tokens = tokens;
+    }
+
+    // Prefers the head on equal offsets, as it is the most recently added.
+    private static ParseValue getLowest(final ParseItem head, final ParseValue lowest) {
+        final ParseValue value = head.isValue() ? head.asValue() : head.isGraph() ? head.asGraph().lowest : null;
+        return value == null || (lowest != null && lowest.slice.compareOffset(value.slice) < 0) ? lowest : value;
+    }
+
+    boolean isRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the index of the values in this root graph by name. It is only
+     * built when it is first needed, by traversing the graph, since many
+     * parses never look up a value by name in a way that requires it. From
+     * then on, it is updated by every value that is added.
+     */
+    NameIndex names() {
+        final NameIndex current = names;
+        if (current != null) {
+            return current;
+        }
+        final NameIndex created = NameIndex.create(this);
+        LookupStatistics.INDEX_BUILDS.increment();
+        if (!isEmpty()) { // EMPTY is shared by all parses, so it must not start updating an index for all of them.
+            names = created;
+        }
+        return created;
+    }
+
+    /**
+     * Returns the index of the definitions of the items in this graph. It is
+     * only built when it is first needed, from the index of the tail and
+     * that of the head, and then kept.
+     */
+    DefinitionIndex definitions() {
+        final DefinitionIndex current = definitions;
+        if (current != null) {
+            return current;
+        }
+        // The tails without an index are collected first, so that the index is built without recursion.
+        ImmutableList<ParseGraph> pending = new ImmutableList<>();
+        ParseGraph graph = this;
+        for (; !graph.isEmpty() && graph.definitions == null; graph = graph.tail) {
+            pending = pending.add(graph);
+        }
+        DefinitionIndex result = graph.isEmpty() ? DefinitionIndex.EMPTY : graph.definitions;
+        for (; !pending.isEmpty(); pending = pending.tail) {
+            final ParseGraph next = pending.head;
+            LookupStatistics.VISITS.increment();
+            result = result.push(next.tail).add(next.head.getDefinition());
+            if (next.head.isGraph()) {
+                result = result.addAll(next.head.asGraph().definitions());
+            }
+            next.definitions = result;
+        }
+        return result;
+    }
+
+    boolean hasNames() {
+        return names != null;
+    }
+
+    /**
+     * Returns the index of the locations of the items in this root graph,
+     * which is only needed to find roots at an offset (for instance by a
+     * {@link io.parsingdata.metal.token.Sub}). Like {@link #names()}, it is
+     * built by the first lookup and from then on updated by every add.
+     */
+    LocationIndex locations() {
+        final LocationIndex current = locations;
+        if (current != null) {
+            return current;
+        }
+        final LocationIndex created = LocationIndex.create(this);
+        LookupStatistics.INDEX_BUILDS.increment();
+        if (!isEmpty()) {
+            locations = created;
+        }
+        return created;
     }
 
-    private ParseGraph(final ParseItem head, final ParseGraph tail, final Token definition) {
-        this(head, tail, definition, false);
+    boolean hasLocations() {
+        return locations != null;
+    }
+
+    /**
+     * Returns, by name, the definition a {@link io.parsingdata.metal.token.TokenRef}
+     * resolves to within the items of this root graph. Like {@link #names()},
+     * it is built by the first lookup and from then on updated by every add.
+     */
+    ImmutableHashMap<String, Token> tokens() {
+        final ImmutableHashMap<String, Token> current = tokens;
+        if (current != null) {
+            return current;
+        }
+        final ImmutableHashMap<String, Token> created = collectTokens(this);
+        LookupStatistics.INDEX_BUILDS.increment();
+        if (!isEmpty()) {
+            tokens = created;
+        }
+        return created;
+    }
+
+    // Visits the items in the order of Selection.findDefinition(), keeping the first definition found for every name.
+    private static ImmutableHashMap<String, Token> collectTokens(final ParseGraph graph) {
+        ImmutableHashMap<String, Token> result = ImmutableHashMap.empty();
+        ImmutableList<ParseItem> items = ImmutableList.create(graph);
+        while (!items.isEmpty()) {
+            LookupStatistics.VISITS.increment();
+            final ParseItem item = items.head;
+            items = items.tail;
+            if (result.get(item.getDefinition().name) == null) {
+                result = result.put(item.getDefinition().name, item.getDefinition());
+            }
+            if (item.isGraph() && !item.asGraph().isEmpty()) {
+                items = items.add(item.asGraph().tail).add(item.asGraph().head);
+            }
+        }
+        return result;
+    }
+
+    boolean hasTokens() {
+        return tokens != null;
     }
 
     ParseGraph add(final ParseValue head) {
+        final NameIndex currentNames = names;
+        final LocationIndex currentLocations = locations;
+        final ImmutableHashMap<String, Token> currentTokens = tokens;
+        if (branched) {
+            final ParseGraph newBranch = this.head.asGraph().add(head);
+            return new ParseGraph(newBranch, tail, definition, true, null, root,
+                                  currentNames == null ? null : currentNames.add(head),
+                                  currentLocations == null ? null : updateLocations(currentLocations, newBranch, head),
+                                  currentTokens == null ? null : updateTokens(currentTokens, head.definition));
+        }
+        return new ParseGraph(head, this, definition, false, null, root,
+                              currentNames == null ? null : currentNames.add(head),
+                              currentLocations == null ? null : currentLocations.add(head, head.definition, definition),
+                              currentTokens == null ? null : updateTokens(currentTokens, head.definition));
+    }
+
+    /**
+     * Adds a complete graph as a single item, which is much faster than
+     * adding all of its items one at a time. The indexes kept by a root graph
+     * are updated as if they were.
+     */
+    ParseGraph add(final ParseGraph graph) {
+        if (graph.branched) {
+            throw new IllegalArgumentException("Cannot add graph with an open branch.");
+        }
+        if (graph.isRoot()) {
+            throw new IllegalArgumentException("Cannot add the root of a parse.");
+        }
+        final NameIndex currentNames = names;
+        final LocationIndex currentLocations = locations;
+        final ImmutableHashMap<String, Token> currentTokens = tokens;
         if (branched) {
-            return new ParseGraph(this.head.asGraph().add(head), tail, definition, true);
+            final ParseGraph newBranch = this.head.asGraph().add(graph);
+            return new ParseGraph(newBranch, tail, definition, true, null, root,
+                                  currentNames == null ? null : currentNames.addAll(graph),
+                                  currentLocations == null ? null : updateLocations(currentLocations, newBranch, graph),
+                                  currentTokens == null ? null : updateTokens(currentTokens, graph));
         }
-        return new ParseGraph(head, this, definition);
+        return new ParseGraph(graph, this, definition, false, null, root,
+                              currentNames == null ? null : currentNames.addAll(graph),
+                              currentLocations == null ? null : currentLocations.add(graph, definition),
+                              currentTokens == null ? null : updateTokens(currentTokens, graph));
     }
 
     ParseGraph add(final ParseReference parseReference) {
+        final ImmutableHashMap<String, Token> currentTokens = tokens;
         if (branched) {
-            return new ParseGraph(head.asGraph().add(parseReference), tail, definition, true);
+            return new ParseGraph(head.asGraph().add(parseReference), tail, definition, true, null, root, names, locations, currentTokens == null ? null : updateTokens(currentTokens, parseReference.definition));
         }
-        return new ParseGraph(parseReference, this, definition);
+        return new ParseGraph(parseReference, this, definition, false, null, root, names, locations, currentTokens == null ? null : updateTokens(currentTokens, parseReference.definition));
     }
 
     ParseGraph addBranch(final Token definition) {
+        final ImmutableHashMap<String, Token> currentTokens = tokens;
         if (branched) {
-            return new ParseGraph(head.asGraph().addBranch(definition), tail, this.definition, true);
+            return new ParseGraph(head.asGraph().addBranch(definition), tail, this.definition, true, null, root, names, locations, currentTokens == null ? null : updateTokens(currentTokens, definition));
+        }
+        return new ParseGraph(new ParseGraph(definition, false), this, this.definition, true, null, root, names, locations, currentTokens == null ? null : updateTokens(currentTokens, definition));
+    }
+
+    // Adds the new value or graph and moves the graphs on the open branch whose lowest offset value has changed.
+    private LocationIndex updateLocations(final LocationIndex locations, final ParseGraph newBranch, final ParseItem item) {
+        LocationIndex result = locations;
+        Token parent = definition;
+        ParseGraph oldGraph = head.asGraph();
+        ParseGraph newGraph = newBranch;
+        while (true) {
+            if (oldGraph.lowest != newGraph.lowest) {
+                result = result.move(oldGraph.lowest, newGraph.lowest, oldGraph.definition, parent);
+            }
+            if (!oldGraph.branched) {
+                return item.isValue() ? result.add(item.asValue(), item.getDefinition(), oldGraph.definition) : result.add(item.asGraph(), oldGraph.definition);
+            }
+            parent = oldGraph.definition;
+            oldGraph = oldGraph.head.asGraph();
+            newGraph = newGraph.head.asGraph();
+        }
+    }
+
+    // The new item is the most recently added, but the definitions of the graphs on the open branch are found before it.
+    private ImmutableHashMap<String, Token> updateTokens(final ImmutableHashMap<String, Token> tokens, final Token definition) {
+        Token result = definition;
+        for (ParseGraph graph = this; graph.branched; graph = graph.head.asGraph()) {
+            if (graph.head.asGraph().definition.name.equals(definition.name)) {
+                result = graph.head.asGraph().definition;
+                break;
+            }
+        }
+        return tokens.get(definition.name) == result ? tokens : tokens.put(definition.name, result);
+    }
+
+    private ImmutableHashMap<String, Token> updateTokens(final ImmutableHashMap<String, Token> tokens, final ParseGraph graph) {
+        ImmutableHashMap<String, Token> result = tokens;
+        for (ImmutableList<Token> definitions = collectTokens(graph).values(); !definitions.isEmpty(); definitions = definitions.tail) {
+            result = updateTokens(result, definitions.head);
         }
-        return new ParseGraph(new ParseGraph(definition), this, this.definition, true);
+        return result;
     }
 
     ParseGraph closeBranch() {
         if (!branched) {
             throw new IllegalStateException("Cannot close branch that is not open.");
         }
+        // Closing a branch does not change the items in the graph, so an index of their definitions still applies.
         if (head.asGraph().branched) {
-            return new ParseGraph(head.asGraph().closeBranch(), tail, definition, true);
+            return new ParseGraph(head.asGraph().closeBranch(), tail, definition, true, definitions, root, names, locations, tokens);
         }
-        return new ParseGraph(head, tail, definition, false);
+        return new ParseGraph(head, tail, definition, false, definitions, root, names, locations, tokens);
     }
 
     public boolean isEmpty() { return size == 0; }
@@ -139,7 +362,7 @@ public class ParseGraph implements ParseItem {
             && Objects.equals(tail, ((ParseGraph)obj).tail)
             && Objects.equals(branched, ((ParseGraph)obj).branched)
             && Objects.equals(definition, ((ParseGraph)obj).definition);
-            // The size field is excluded from equals() and hashCode() because it is cached data.
+            // The size, names, definitions, locations, tokens and lowest fields are excluded from equals() and hashCode() because they are cached data.
     }
 
     @Override
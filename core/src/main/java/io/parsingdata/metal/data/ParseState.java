@@ -20,6 +20,7 @@ import static java.math.BigInteger.ZERO;
 
 import static io.parsingdata.metal.Util.checkNotNegative;
 import static io.parsingdata.metal.Util.checkNotNull;
+import static io.parsingdata.metal.Util.fitsInLong;
 import static io.parsingdata.metal.data.Slice.createFromSource;
 
 import java.math.BigInteger;
@@ -36,11 +37,13 @@ public class ParseState {
     public final ParseGraph order;
     public final BigInteger offset;
     public final Source source;
+    private final long longOffset; // The offset as a long, or -1 if it does not fit in one.
 
     public ParseState(final ParseGraph order, final Source source, final BigInteger offset) {
         this.order = checkNotNull(order, "order");
         this.source = checkNotNull(source, "source");
         this.offset = checkNotNegative(offset, "offset");
+        longOffset = fitsInLong(offset) ? offset.longValue() : -1;
     }
 
     public static ParseState createFromByteStream(final ByteStream input, final BigInteger offset) {
@@ -63,6 +66,11 @@ public class ParseState {
         return new ParseState(order.add(parseValue), source, offset);
     }
 
+    // Adds a complete graph, that is not the root of a parse, as a single item.
+    public ParseState add(final ParseGraph graph) {
+        return new ParseState(order.add(graph), source, offset);
+    }
+
     public ParseState add(final ParseReference parseReference) {
         return new ParseState(order.add(parseReference), source, offset);
     }
@@ -71,6 +79,17 @@ public class ParseState {
         return newOffset.compareTo(ZERO) >= 0 ? Optional.of(new ParseState(order, source, newOffset)) : Optional.empty();
     }
 
+    /**
+     * @param length The number of bytes to move forward
+     * @return This parse state with its offset moved <code>length</code> bytes forward
+     */
+    public ParseState skip(final BigInteger length) {
+        if (longOffset >= 0 && fitsInLong(checkNotNegative(length, "length")) && length.longValue() <= Long.MAX_VALUE - longOffset) {
+            return new ParseState(order, source, BigInteger.valueOf(longOffset + length.longValue()));
+        }
+        return new ParseState(order, source, offset.add(length));
+    }
+
     public ParseState source(final ValueExpression dataExpression, final int index, final ParseState parseState, final Encoding encoding) {
         return new ParseState(order, new DataExpressionSource(dataExpression, index, parseState, encoding), ZERO);
     }
@@ -84,6 +103,7 @@ public class ParseState {
         return getClass().getSimpleName() + "(source:" + source + ";offset:" + offset + ";order:" + order + ")";
     }
 
+    // The longOffset is derived from the offset, so it is excluded.
     @Override
     public boolean equals(final Object obj) {
         return Util.notNullAndSameClass(this, obj)
@@ -25,6 +25,7 @@ import java.util.Optional;
 import java.util.function.Predicate;
 
 import io.parsingdata.metal.Trampoline;
+import io.parsingdata.metal.expression.value.Value;
 import io.parsingdata.metal.token.Token;
 
 public final class Selection {
@@ -33,8 +34,23 @@ public final class Selection {
 
     private Selection() {}
 
+    /**
+     * Returns whether <code>graph</code> contains a root (see
+     * {@link #getAllRoots(ParseGraph, Token)}) of <code>definition</code>
+     * that is located at <code>offset</code> in <code>source</code>. For the
+     * root of a parse, uses the index kept by the graph, which is built by the
+     * first lookup, so the graph is only traversed once.
+     */
     public static boolean hasRootAtOffset(final ParseGraph graph, final Token definition, final BigInteger offset, final Source source) {
-        return findItemAtOffset(getAllRoots(graph, definition), offset, source).computeResult().isPresent();
+        checkNotNull(graph, "graph");
+        checkNotNull(definition, "definition");
+        checkNotNull(offset, "offset");
+        checkNotNull(source, "source");
+        if (!graph.isRoot()) {
+            return findItemAtOffset(getAllRoots(graph, definition), offset, source).computeResult().isPresent();
+        }
+        return graph.locations().hasRoot(definition, offset, source)
+            || (graph.lowest != null && graph.definition.equals(definition) && matchesLocation(graph.lowest, offset, source));
     }
 
     public static Trampoline<Optional<ParseItem>> findItemAtOffset(final ImmutableList<ParseItem> items, final BigInteger offset, final Source source) {
@@ -43,12 +59,13 @@ public final class Selection {
         if (items.isEmpty()) {
             return complete(Optional::empty);
         }
+        LookupStatistics.VISITS.increment();
         final ParseItem head = items.head;
         if (head.isValue() && matchesLocation(head.asValue(), offset, source)) {
             return complete(() -> Optional.of(head));
         }
         if (head.isGraph()) {
-            final ParseValue value = getLowestOffsetValue(ImmutableList.create(head.asGraph()), null).computeResult();
+            final ParseValue value = head.asGraph().lowest;
             if (value != null && matchesLocation(value, offset, source)) {
                 return complete(() -> Optional.of(head));
             }
@@ -60,26 +77,6 @@ public final class Selection {
         return value.slice.offset.compareTo(offset) == 0 && value.slice.source.equals(source);
     }
 
-    private static Trampoline<ParseValue> getLowestOffsetValue(final ImmutableList<ParseGraph> graphList, final ParseValue lowest) {
-        if (graphList.isEmpty()) {
-            return complete(() -> lowest);
-        }
-        final ParseGraph graph = graphList.head;
-        if (graph.isEmpty() || !graph.getDefinition().isLocal()) {
-            return intermediate(() -> getLowestOffsetValue(graphList.tail, lowest));
-        }
-        return intermediate(() -> getLowestOffsetValue(addIfGraph(graphList.tail.add(graph.tail), graph.head),
-                                                       compareIfValue(lowest, graph.head)));
-    }
-
-    private static ParseValue compareIfValue(final ParseValue lowest, final ParseItem head) {
-        return head.isValue() ? getLowest(lowest, head.asValue()) : lowest;
-    }
-
-    private static ParseValue getLowest(final ParseValue lowest, final ParseValue value) {
-        return lowest == null || lowest.slice.offset.compareTo(value.slice.offset) > 0 ? value : lowest;
-    }
-
     private static ImmutableList<ParseGraph> addIfGraph(final ImmutableList<ParseGraph> graphList, final ParseItem head) {
         return head.isGraph() ? graphList.add(head.asGraph()) : graphList;
     }
@@ -92,11 +89,58 @@ public final class Selection {
         return getAllValues(graph, predicate, NO_LIMIT);
     }
 
+    /**
+     * Returns the values in <code>graph</code> that match <code>name</code>
+     * (see {@link ParseValue#matches(String)}), most recently added first and
+     * at most <code>limit</code> of them. For the root of a parse, uses the
+     * index kept by the graph, so the graph is not traversed. A lookup with a
+     * limit only uses the index if the graph already has one, since it
+     * usually finds its values among the most recently added.
+     */
+    public static ImmutableList<Optional<Value>> getValuesByName(final ParseGraph graph, final String name, final int limit) {
+        checkNotNull(graph, "graph");
+        checkNotNull(name, "name");
+        if (!graph.isRoot() || (limit != NO_LIMIT && !graph.hasNames())) {
+            return toValues(getAllValues(graph, (value) -> value.matches(name), limit), new ImmutableList<>()).computeResult();
+        }
+        final ImmutableList<Optional<Value>> values = graph.names().get(name);
+        if (limit == NO_LIMIT || values.size <= limit) {
+            return values;
+        }
+        return reverse(take(values, limit, new ImmutableList<>()).computeResult());
+    }
+
+    public static ImmutableList<Optional<Value>> getValuesByName(final ParseGraph graph, final String name) {
+        return getValuesByName(graph, name, NO_LIMIT);
+    }
+
+    /**
+     * Returns the least recently added value in <code>graph</code> that
+     * matches <code>name</code>, or {@link Optional#empty()} if there is none.
+     */
+    public static Optional<Value> getFirstValueByName(final ParseGraph graph, final String name) {
+        checkNotNull(graph, "graph");
+        checkNotNull(name, "name");
+        if (!graph.isRoot()) {
+            final ImmutableList<ParseValue> values = getAllValues(graph, (value) -> value.matches(name));
+            return values.isEmpty() ? Optional.empty() : Optional.of(values.head);
+        }
+        return graph.names().getFirst(name);
+    }
+
+    private static <T> Trampoline<ImmutableList<T>> take(final ImmutableList<T> input, final int count, final ImmutableList<T> output) {
+        if (output.size == count) {
+            return complete(() -> output);
+        }
+        return intermediate(() -> take(input.tail, count, output.add(input.head)));
+    }
+
     private static Trampoline<ImmutableList<ParseValue>> getAllValues(final ImmutableList<ParseGraph> graphList, final ImmutableList<ParseValue> valueList, final Predicate<ParseValue> predicate, final int limit) {
         if (graphList.isEmpty() || valueList.size == limit) {
             return complete(() -> valueList);
         }
         final ParseGraph graph = graphList.head;
+        LookupStatistics.VISITS.increment();
         if (graph.isEmpty()) {
             return intermediate(() -> getAllValues(graphList.tail, valueList, predicate, limit));
         }
@@ -127,34 +171,122 @@ public final class Selection {
         return intermediate(() -> reverse(oldList.tail, newList.add(oldList.head)));
     }
 
-    public static ImmutableList<ParseItem> getAllRoots(final ParseGraph graph, final Token definition) {
-        return getAllRootsRecursive(ImmutableList.create(new Pair(checkNotNull(graph, "graph"), null)), checkNotNull(definition, "definition"), new ImmutableList<>()).computeResult();
+    /**
+     * Returns the values in <code>graph</code> with a definition equal to
+     * <code>definition</code>, most recently added first and at most
+     * <code>limit</code> of them. Uses the index kept by the graph to visit
+     * only those parts of the graph that contain matching values.
+     */
+    public static ImmutableList<Optional<Value>> getValuesByDefinition(final ParseGraph graph, final Token definition, final int limit) {
+        final ImmutableList<Token> definitions = checkNotNull(graph, "graph").definitions().matching(checkNotNull(definition, "definition"));
+        if (definitions.isEmpty()) {
+            return new ImmutableList<>();
+        }
+        return toValues(findByDefinition(ImmutableList.create(new Visit(graph, false)), definitions, false, new ImmutableList<>(), limit).computeResult(), new ImmutableList<>()).computeResult();
     }
 
-    private static Trampoline<ImmutableList<ParseItem>> getAllRootsRecursive(final ImmutableList<Pair> backlog, final Token definition, final ImmutableList<ParseItem> rootList) {
-        if (backlog.isEmpty()) {
-            return complete(() -> rootList);
+    public static ImmutableList<Optional<Value>> getValuesByDefinition(final ParseGraph graph, final Token definition) {
+        return getValuesByDefinition(graph, definition, NO_LIMIT);
+    }
+
+    private static <T extends ParseItem> Trampoline<ImmutableList<Optional<Value>>> toValues(final ImmutableList<T> input, final ImmutableList<Optional<Value>> output) {
+        if (input.isEmpty()) {
+            return complete(() -> output);
+        }
+        return intermediate(() -> toValues(input.tail, output.add(Optional.of(input.head.asValue()))));
+    }
+
+    /**
+     * Returns the definition with name <code>name</code> that is found first
+     * when traversing <code>graph</code> depth-first, starting with the
+     * definition of <code>graph</code> itself and then visiting the most
+     * recently added items first. For the root of a parse, uses the index kept
+     * by the graph, which is built by the first lookup, so the graph is only
+     * traversed once.
+     */
+    public static Optional<Token> findDefinition(final ParseGraph graph, final String name) {
+        checkNotNull(graph, "graph");
+        checkNotNull(name, "name");
+        if (graph.definition.name.equals(name)) {
+            return Optional.of(graph.definition);
+        }
+        if (!graph.isRoot()) {
+            return findDefinition(ImmutableList.create(graph), name).computeResult();
+        }
+        return Optional.ofNullable(graph.tokens().get(name));
+    }
+
+    private static Trampoline<Optional<Token>> findDefinition(final ImmutableList<ParseItem> items, final String name) {
+        if (items.isEmpty()) {
+            return complete(Optional::empty);
+        }
+        LookupStatistics.VISITS.increment();
+        final ParseItem item = items.head;
+        if (item.getDefinition().name.equals(name)) {
+            return complete(() -> Optional.of(item.getDefinition()));
         }
-        final ParseItem item = backlog.head.item;
-        final ParseGraph parent = backlog.head.parent;
-        final ImmutableList<ParseItem> nextResult = item.getDefinition().equals(definition) && (parent == null || !parent.getDefinition().equals(definition)) ? rootList.add(item) : rootList;
         if (item.isGraph() && !item.asGraph().isEmpty()) {
-            final ParseGraph itemGraph = item.asGraph();
-            return intermediate(() -> getAllRootsRecursive(backlog.tail.add(new Pair(itemGraph.head, itemGraph))
-                                                                       .add(new Pair(itemGraph.tail, itemGraph)),
-                                                           definition,
-                                                           nextResult));
+            return intermediate(() -> findDefinition(items.tail.add(item.asGraph().tail).add(item.asGraph().head), name));
+        }
+        return intermediate(() -> findDefinition(items.tail, name));
+    }
+
+    public static ImmutableList<ParseItem> getAllRoots(final ParseGraph graph, final Token definition) {
+        checkNotNull(graph, "graph");
+        checkNotNull(definition, "definition");
+        final ImmutableList<Token> matching = graph.definitions().matching(definition);
+        final boolean graphMatches = graph.definition.equals(definition);
+        final ImmutableList<Token> definitions = graphMatches ? matching.add(graph.definition) : matching;
+        final ImmutableList<ParseItem> roots = matching.isEmpty() ? new ImmutableList<>() : findByDefinition(ImmutableList.create(new Visit(graph, false)), definitions, true, new ImmutableList<>(), NO_LIMIT).computeResult();
+        return reverse(graphMatches ? roots.add(graph) : roots);
+    }
+
+    /*
+     * Visits the items in the graphs on the backlog most recently added
+     * first, skipping every tail that does not contain an item with one of
+     * the definitions. Graphs are visited after their contents, so the
+     * resulting list is in order of creation.
+     */
+    private static Trampoline<ImmutableList<ParseItem>> findByDefinition(final ImmutableList<Visit> backlog, final ImmutableList<Token> definitions, final boolean rootsOnly, final ImmutableList<ParseItem> itemList, final int limit) {
+        if (backlog.isEmpty() || itemList.size == limit) {
+            return complete(() -> itemList);
+        }
+        final ParseGraph graph = backlog.head.graph;
+        LookupStatistics.VISITS.increment();
+        if (backlog.head.emit) {
+            return intermediate(() -> findByDefinition(backlog.tail, definitions, rootsOnly, itemList.add(graph), limit));
+        }
+        if (graph.isEmpty()) {
+            return intermediate(() -> findByDefinition(backlog.tail, definitions, rootsOnly, itemList, limit));
+        }
+        final ParseGraph nearest = graph.definitions().nearest(definitions);
+        final ImmutableList<Visit> remaining = nearest == null ? backlog.tail : backlog.tail.add(new Visit(nearest, false));
+        final boolean matches = contains(definitions, graph.head.getDefinition())
+                             && (rootsOnly ? !contains(definitions, graph.definition) : graph.head.isValue());
+        if (graph.head.isGraph()) {
+            final ImmutableList<Visit> withRoot = matches ? remaining.add(new Visit(graph.head.asGraph(), true)) : remaining;
+            final ImmutableList<Visit> nextBacklog = graph.head.asGraph().definitions().containsAny(definitions) ? withRoot.add(new Visit(graph.head.asGraph(), false)) : withRoot;
+            return intermediate(() -> findByDefinition(nextBacklog, definitions, rootsOnly, itemList, limit));
+        }
+        return intermediate(() -> findByDefinition(remaining, definitions, rootsOnly, matches ? itemList.add(graph.head) : itemList, limit));
+    }
+
+    private static boolean contains(final ImmutableList<Token> definitions, final Token definition) {
+        for (ImmutableList<Token> tokens = definitions; !tokens.isEmpty(); tokens = tokens.tail) {
+            if (tokens.head.id == definition.id) {
+                return true;
+            }
         }
-        return intermediate(() -> getAllRootsRecursive(backlog.tail, definition, nextResult));
+        return false;
     }
 
-    static class Pair {
-        public final ParseItem item;
-        public final ParseGraph parent;
+    private static class Visit {
+        public final ParseGraph graph;
+        public final boolean emit;
 
-        Pair(final ParseItem item, final ParseGraph parent) {
-            this.item = checkNotNull(item, "item");
-            this.parent = parent;
+        Visit(final ParseGraph graph, final boolean emit) {
+            this.graph = checkNotNull(graph, "graph");
+            this.emit = emit;
         }
     }
 }
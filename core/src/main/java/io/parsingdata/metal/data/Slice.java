@@ -20,8 +20,10 @@ import static java.math.BigInteger.ZERO;
 
 import static io.parsingdata.metal.Util.checkNotNegative;
 import static io.parsingdata.metal.Util.checkNotNull;
+import static io.parsingdata.metal.Util.fitsInLong;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -32,40 +34,97 @@ public class Slice {
     public final Source source;
     public final BigInteger offset;
     public final BigInteger length;
+    // The offset and length as longs, or -1 if the end of the slice does not fit in a long.
+    private final long longOffset;
+    private final long longLength;
 
     private Slice(final Source source, final BigInteger offset, final BigInteger length) {
         this.source = checkNotNull(source, "source");
         this.offset = checkNotNull(offset, "offset");
         this.length = checkNotNull(length, "length");
+        final boolean fitsInLong = fitsInLong(offset) && fitsInLong(length) && length.longValue() <= Long.MAX_VALUE - offset.longValue();
+        longOffset = fitsInLong ? offset.longValue() : -1;
+        longLength = fitsInLong ? length.longValue() : -1;
     }
 
     public static Optional<Slice> createFromSource(final Source source, final BigInteger offset, final BigInteger length) {
         if (checkNotNull(offset, "offset").compareTo(ZERO) < 0 ||
             checkNotNull(length, "length").compareTo(ZERO) < 0 ||
-            !checkNotNull(source, "source").isAvailable(offset, length)) {
+            !isAvailable(checkNotNull(source, "source"), offset, length)) {
             return Optional.empty();
         }
         return Optional.of(new Slice(source, offset, length));
     }
 
+    public static Optional<Slice> createFromSource(final Source source, final long offset, final long length) {
+        if (offset < 0 || length < 0 || !checkNotNull(source, "source").isAvailable(offset, length)) {
+            return Optional.empty();
+        }
+        return Optional.of(new Slice(source, BigInteger.valueOf(offset), BigInteger.valueOf(length)));
+    }
+
+    private static boolean isAvailable(final Source source, final BigInteger offset, final BigInteger length) {
+        if (fitsInLong(offset) && fitsInLong(length)) {
+            return source.isAvailable(offset.longValue(), length.longValue());
+        }
+        return source.isAvailable(offset, length);
+    }
+
     public static Slice createFromBytes(final byte[] data) {
         return new Slice(new ConstantSource(checkNotNull(data, "data")), ZERO, BigInteger.valueOf(data.length));
     }
 
+    private boolean isLong() {
+        return longOffset >= 0;
+    }
+
+    // Compares the offsets of both slices without BigInteger arithmetic if they fit in a long.
+    int compareOffset(final Slice other) {
+        return isLong() && other.isLong() ? Long.compare(longOffset, other.longOffset) : offset.compareTo(other.offset);
+    }
+
+    /**
+     * @param offset The offset of the part, relative to the start of this slice
+     * @param length The length of the part
+     * @return The part of this slice of <code>length</code> bytes at <code>offset</code>
+     * @throws IllegalArgumentException If the part is not within this slice
+     */
+    public Slice slice(final BigInteger offset, final BigInteger length) {
+        if (checkNotNegative(offset, "offset").add(checkNotNegative(length, "length")).compareTo(this.length) > 0) {
+            throw new IllegalArgumentException("Part at offset " + offset + " with length " + length + " exceeds " + this + ".");
+        }
+        return new Slice(source, this.offset.add(offset), length);
+    }
+
     public byte[] getData() {
         return getData(length);
     }
 
     public byte[] getData(final BigInteger limit) {
-        final BigInteger calculatedLength = checkNotNegative(limit, "limit").compareTo(length) > 0 ? length : limit;
+        checkNotNegative(limit, "limit");
+        if (isLong() && limit.bitLength() < Integer.SIZE) {
+            return source.getData(longOffset, (int) Math.min(longLength, limit.intValue()));
+        }
+        final BigInteger calculatedLength = limit.compareTo(length) > 0 ? length : limit;
+        if (fitsInLong(offset) && calculatedLength.bitLength() < Integer.SIZE) {
+            return source.getData(offset.longValue(), calculatedLength.intValue());
+        }
         return source.getData(offset, calculatedLength);
     }
 
+    public ByteBuffer asByteBuffer() {
+        if (isLong() && longLength <= Integer.MAX_VALUE) {
+            return source.getByteBuffer(longOffset, (int) longLength).asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(getData()).asReadOnlyBuffer();
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "(" + source + "@" + offset + ":" + length.add(offset) + ")";
     }
 
+    // The longOffset and longLength are derived from the offset and length, so they are excluded.
     @Override
     public boolean equals(final Object obj) {
         return Util.notNullAndSameClass(this, obj)
@@ -17,6 +17,7 @@
 package io.parsingdata.metal.data;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 public abstract class Source {
 
@@ -24,4 +25,16 @@ public abstract class Source {
 
     protected abstract boolean isAvailable(BigInteger offset, BigInteger length);
 
+    protected byte[] getData(final long offset, final int length) {
+        return getData(BigInteger.valueOf(offset), BigInteger.valueOf(length));
+    }
+
+    protected boolean isAvailable(final long offset, final long length) {
+        return isAvailable(BigInteger.valueOf(offset), BigInteger.valueOf(length));
+    }
+
+    protected ByteBuffer getByteBuffer(final long offset, final int length) {
+        return ByteBuffer.wrap(getData(offset, length));
+    }
+
 }
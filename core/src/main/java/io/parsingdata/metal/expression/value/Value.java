@@ -50,8 +50,10 @@ public class Value {
     }
 
     public BigInteger asNumeric() {
-        return encoding.sign == Sign.SIGNED ? new BigInteger(encoding.byteOrder.apply(getValue()))
-                                            : new BigInteger(1, encoding.byteOrder.apply(getValue()));
+        // getValue() already returns a copy, so only little endian data needs another array.
+        final byte[] data = encoding.byteOrder == ByteOrder.BIG_ENDIAN ? getValue() : encoding.byteOrder.apply(getValue());
+        return encoding.sign == Sign.SIGNED ? new BigInteger(data)
+                                            : new BigInteger(1, data);
     }
 
     public String asString() {
@@ -19,6 +19,7 @@ package io.parsingdata.metal.expression.value.reference;
 import static io.parsingdata.metal.Trampoline.complete;
 import static io.parsingdata.metal.Trampoline.intermediate;
 import static io.parsingdata.metal.Util.checkNotNull;
+import static io.parsingdata.metal.data.Selection.getFirstValueByName;
 
 import java.util.Objects;
 import java.util.Optional;
@@ -45,6 +46,10 @@ public class First implements ValueExpression {
 
     @Override
     public ImmutableList<Optional<Value>> eval(final ParseState parseState, final Encoding encoding) {
+        if (operand instanceof Ref.NameRef && ((Ref.NameRef) operand).limit == null) {
+            final Optional<Value> first = getFirstValueByName(parseState.order, ((Ref.NameRef) operand).reference);
+            return first.isPresent() ? ImmutableList.create(first) : new ImmutableList<>();
+        }
         final ImmutableList<Optional<Value>> list = operand.eval(parseState, encoding);
         return list.isEmpty() ? list : ImmutableList.create(getFirst(list).computeResult());
     }
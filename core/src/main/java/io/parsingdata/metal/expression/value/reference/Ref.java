@@ -21,6 +21,8 @@ import static io.parsingdata.metal.Trampoline.intermediate;
 import static io.parsingdata.metal.Util.checkNotNull;
 import static io.parsingdata.metal.data.Selection.NO_LIMIT;
 import static io.parsingdata.metal.data.Selection.getAllValues;
+import static io.parsingdata.metal.data.Selection.getValuesByDefinition;
+import static io.parsingdata.metal.data.Selection.getValuesByName;
 
 import java.util.Objects;
 import java.util.Optional;
@@ -60,11 +62,21 @@ public class Ref<T> implements ValueExpression {
     public static class NameRef extends Ref<String> {
         public NameRef(final String reference) { this(reference, null); }
         public NameRef(final String reference, final ValueExpression limit) { super(reference, (value) -> value.matches(reference), limit); }
+
+        @Override
+        ImmutableList<Optional<Value>> evalImpl(final ParseState parseState, final int limit) {
+            return getValuesByName(parseState.order, reference, limit);
+        }
     }
 
     public static class DefinitionRef extends Ref<Token> {
         public DefinitionRef(final Token reference) { this(reference, null); }
         public DefinitionRef(final Token reference, final ValueExpression limit) { super(reference, (value) -> value.definition.equals(reference), limit); }
+
+        @Override
+        ImmutableList<Optional<Value>> evalImpl(final ParseState parseState, final int limit) {
+            return getValuesByDefinition(parseState.order, reference, limit);
+        }
     }
 
     @Override
@@ -79,7 +91,7 @@ public class Ref<T> implements ValueExpression {
         return evalImpl(parseState, evaluatedLimit.head.get().asNumeric().intValueExact());
     }
 
-    private ImmutableList<Optional<Value>> evalImpl(final ParseState parseState, final int limit) {
+    ImmutableList<Optional<Value>> evalImpl(final ParseState parseState, final int limit) {
         return wrap(getAllValues(parseState.order, predicate, limit), new ImmutableList<Optional<Value>>()).computeResult();
     }
 
@@ -16,13 +16,19 @@
 
 package io.parsingdata.metal.token;
 
+import static java.math.BigInteger.ONE;
+
 import static io.parsingdata.metal.Trampoline.complete;
 import static io.parsingdata.metal.Trampoline.intermediate;
 import static io.parsingdata.metal.Util.checkContainsNoNulls;
 import static io.parsingdata.metal.Util.checkNotNull;
 import static io.parsingdata.metal.Util.success;
 import static io.parsingdata.metal.data.ImmutableList.create;
+import static io.parsingdata.metal.data.Selection.reverse;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -31,6 +37,7 @@ import io.parsingdata.metal.Util;
 import io.parsingdata.metal.data.Environment;
 import io.parsingdata.metal.data.ImmutableList;
 import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.callback.Callbacks;
 import io.parsingdata.metal.encoding.Encoding;
 
 /**
@@ -39,10 +46,16 @@ import io.parsingdata.metal.encoding.Encoding;
  * A Cho consists of a list of <code>tokens</code>. If none of the tokens
  * succeed, the Cho fails. If any token succeeds, the Cho succeeds. Precedence
  * is from left to right.
+ * <p>
+ * Tokens that cannot start with the byte at the current offset (see
+ * {@link FirstBytes}) are skipped, since parsing them would fail. When
+ * callbacks are present, all tokens are parsed so that every failure is
+ * reported.
  */
 public class Cho extends Token {
 
     public final ImmutableList<Token> tokens;
+    private volatile Dispatch dispatch; // Lazily computed, excluded from equals() and hashCode().
 
     public Cho(final String name, final Encoding encoding, final Token token1, final Token token2, final Token... additionalTokens) {
         super(name, encoding);
@@ -53,7 +66,43 @@ public class Cho extends Token {
 
     @Override
     protected Optional<ParseState> parseImpl(final Environment environment) {
-        return iterate(environment.addBranch(this), tokens).computeResult();
+        return iterate(environment.addBranch(this), candidates(environment)).computeResult();
+    }
+
+    ImmutableList<Token> candidates(final Environment environment) {
+        final List<ImmutableList<Token>> candidates = getDispatch().candidates;
+        if (candidates == null || environment.callbacks != Callbacks.NONE) {
+            return tokens;
+        }
+        return environment.parseState
+            .slice(ONE)
+            .map(slice -> candidates.get(slice.getData()[0] & 0xff))
+            .orElse(candidates.get(FirstBytes.BYTES));
+    }
+
+    private Dispatch getDispatch() {
+        if (dispatch == null) {
+            dispatch = new Dispatch(createCandidates());
+        }
+        return dispatch;
+    }
+
+    // Returns the tokens that may start with each byte value and, at the end, those that may succeed at the end of the input.
+    // Returns null if all tokens may start with any byte value.
+    private List<ImmutableList<Token>> createCandidates() {
+        final List<ImmutableList<Token>> result = new ArrayList<>(Collections.nCopies(FirstBytes.BYTES + 1, new ImmutableList<Token>()));
+        boolean selective = false;
+        for (ImmutableList<Token> list = reverse(tokens); !list.isEmpty(); list = list.tail) {
+            final FirstBytes first = FirstBytes.of(list.head);
+            for (int value = 0; value <= FirstBytes.BYTES; value++) {
+                if (first.mayStartWith(value)) {
+                    result.set(value, result.get(value).add(list.head));
+                } else {
+                    selective = true;
+                }
+            }
+        }
+        return selective ? result : null;
     }
 
     private Trampoline<Optional<ParseState>> iterate(final Environment environment, final ImmutableList<Token> list) {
@@ -82,4 +131,14 @@ public class Cho extends Token {
         return Objects.hash(super.hashCode(), tokens);
     }
 
+    private static final class Dispatch {
+
+        final List<ImmutableList<Token>> candidates;
+
+        Dispatch(final List<ImmutableList<Token>> candidates) {
+            this.candidates = candidates;
+        }
+
+    }
+
 }
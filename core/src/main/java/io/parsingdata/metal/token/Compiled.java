@@ -0,0 +1,614 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static java.math.BigInteger.ONE;
+import static java.math.BigInteger.ZERO;
+
+import static io.parsingdata.metal.Util.checkNotNull;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import io.parsingdata.metal.Util;
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ImmutableList;
+import io.parsingdata.metal.data.ParseCache;
+import io.parsingdata.metal.data.ParseGraph;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.ParseValue;
+import io.parsingdata.metal.data.Slice;
+import io.parsingdata.metal.data.callback.Callbacks;
+import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.expression.Expression;
+import io.parsingdata.metal.expression.comparison.Eq;
+import io.parsingdata.metal.expression.value.Const;
+import io.parsingdata.metal.expression.value.Value;
+import io.parsingdata.metal.expression.value.ValueExpression;
+import io.parsingdata.metal.expression.value.reference.Self;
+
+/**
+ * A {@link Token} that parses a <code>token</code> with a parser that is
+ * compiled from its structure once, on construction.
+ * <p>
+ * The compiled parser consists of one specialized node per token, which
+ * parses without the {@link Optional} results, {@link Environment} copies and
+ * trampolines of the interpreter. Sizes of {@link Def} tokens and counts of
+ * {@link RepN} tokens that only consist of constants are folded, and the
+ * constants a {@link Def} is compared to are evaluated once, when the
+ * parser is built. The tokens themselves are not rewritten, since the
+ * {@link ParseGraph} refers to them. The availability of the data of consecutive {@link Def} tokens
+ * of constant size in a {@link Seq} is checked once, for a single slice
+ * that is split into a slice per value. Like in the interpreter, the data
+ * itself is only read from the source when a value is used, which a
+ * {@link io.parsingdata.metal.data.CachingByteStream} can make a single
+ * read for the whole run. A {@link Cho} only tries the
+ * alternatives that may start with the next byte. Tokens that depend on
+ * their context while parsing ({@link Sub}, {@link Tie}, {@link TokenRef},
+ * {@link Until} and {@link Scan}) are parsed by the interpreter. All
+ * nodes, including their scopes and folded constants, are computed when the
+ * parser is built and never change, so a Compiled can be shared between
+ * threads.
+ * <p>
+ * Parsing a Compiled has the same result as parsing <code>token</code>
+ * itself. If callbacks or a {@link ParseCache} are present in the
+ * environment, <code>token</code> is parsed by the interpreter so that both
+ * see every token.
+ */
+public class Compiled extends Token {
+
+    public final Token token;
+    private final Node node; // Derived from token.
+
+    public Compiled(final Token token) {
+        super(NO_NAME, null);
+        this.token = checkNotNull(token, "token");
+        node = compile(token, NO_NAME, null, new HashMap<>());
+    }
+
+    @Override
+    public Optional<ParseState> parse(final Environment environment) {
+        if (environment.callbacks != Callbacks.NONE || environment.cache != ParseCache.NONE) {
+            return token.parse(environment);
+        }
+        return Optional.ofNullable(node.parse(environment.scope, environment.parseState, environment.encoding));
+    }
+
+    @Override
+    protected Optional<ParseState> parseImpl(final Environment environment) {
+        return token.parse(environment);
+    }
+
+    // Tokens that occur more than once in the tree share a single node if they are in the same scope and encoding.
+    private static Node compile(final Token token, final String outerScope, final Encoding outerEncoding, final Map<Position, Node> nodes) {
+        final Position position = new Position(token, outerScope, outerEncoding);
+        final Node existing = nodes.get(position);
+        if (existing != null) {
+            return existing;
+        }
+        final Node node = create(token, outerScope, outerEncoding, nodes);
+        nodes.put(position, node);
+        return node;
+    }
+
+    // The scope and encoding of the nested tokens are those of the token, which are known before parsing, relative to the Compiled token.
+    private static Node create(final Token token, final String outerScope, final Encoding outerEncoding, final Map<Position, Node> nodes) {
+        final String scope = extendScope(outerScope, token.name);
+        final Encoding encoding = token.encoding != null ? token.encoding : outerEncoding;
+        if (token.getClass() == Def.class) {
+            return new DefNode((Def) token, outerScope, encoding);
+        }
+        if (token.getClass() == Post.class) {
+            final Post post = (Post) token;
+            final byte[] constant = getConstant(post);
+            if (constant != null) {
+                return new ConstantNode(post, outerScope, (Def) post.token, constant);
+            }
+            return new PostNode(post, outerScope, compile(post.token, scope, encoding, nodes));
+        }
+        if (token.getClass() == Pre.class) {
+            return new PreNode((Pre) token, outerScope, compile(((Pre) token).token, scope, encoding, nodes));
+        }
+        if (token.getClass() == Seq.class) {
+            return new SeqNode((Seq) token, outerScope, compileAll(((Seq) token).tokens, scope, encoding, nodes));
+        }
+        if (token.getClass() == Cho.class) {
+            return new ChoNode((Cho) token, outerScope, compileAll(((Cho) token).tokens, scope, encoding, nodes));
+        }
+        if (token.getClass() == Rep.class) {
+            return new RepNode((Rep) token, outerScope, compile(((Rep) token).token, scope, encoding, nodes));
+        }
+        if (token.getClass() == RepN.class) {
+            return new RepNNode((RepN) token, outerScope, encoding, compile(((RepN) token).token, scope, encoding, nodes));
+        }
+        if (token.getClass() == While.class) {
+            return new WhileNode((While) token, outerScope, compile(((While) token).token, scope, encoding, nodes));
+        }
+        return new InterpretedNode(token, outerScope);
+    }
+
+    private static Node[] compileAll(final ImmutableList<Token> tokens, final String outerScope, final Encoding outerEncoding, final Map<Position, Node> nodes) {
+        final List<Node> result = new ArrayList<>();
+        for (ImmutableList<Token> list = tokens; !list.isEmpty(); list = list.tail) {
+            result.add(compile(list.head, outerScope, outerEncoding, nodes));
+        }
+        return result.toArray(new Node[result.size()]);
+    }
+
+    /**
+     * @param post The token to inspect
+     * @return The constant that a <code>Post(Def(name, con(n)), eq(con(...)))</code>
+     * compares its value to, if it is <code>n</code> bytes long, or
+     * <code>null</code> otherwise
+     */
+    public static byte[] getConstant(final Post post) {
+        if (post.token.getClass() != Def.class || !(((Def) post.token).size instanceof Const) || post.predicate.getClass() != Eq.class) {
+            return null;
+        }
+        final Eq predicate = (Eq) post.predicate;
+        if ((predicate.value != null && !(predicate.value instanceof Self)) || !(predicate.predicate instanceof Const)) {
+            return null;
+        }
+        final byte[] constant = ((Const) predicate.predicate).value.getValue();
+        final BigInteger size = ((Const) ((Def) post.token).size).value.asNumeric();
+        return constant.length > 0 && size.equals(BigInteger.valueOf(constant.length)) ? constant : null;
+    }
+
+    private static String extendScope(final String outerScope, final String name) {
+        return outerScope + (outerScope.isEmpty() || name.isEmpty() ? NO_NAME : SEPARATOR) + name;
+    }
+
+    // Returns the scope of a node when the Compiled token is parsed in rootScope, given its scope relative to the Compiled token.
+    private static String getScope(final String rootScope, final String scope) {
+        return rootScope.isEmpty() ? scope : extendScope(rootScope, scope);
+    }
+
+    /**
+     * A compiled token. Returns <code>null</code> instead of an empty
+     * {@link Optional} when parsing fails.
+     */
+    private interface Node {
+
+        ParseState parse(String rootScope, ParseState parseState, Encoding outerEncoding);
+
+    }
+
+    // A node that parses its token itself, in the scope and encoding of the token.
+    private abstract static class TokenNode implements Node {
+
+        final Token token;
+        private final String scope; // Relative to the scope of the Compiled token.
+
+        TokenNode(final Token token, final String outerScope) {
+            this.token = token;
+            scope = extendScope(outerScope, token.name);
+        }
+
+        @Override
+        public ParseState parse(final String rootScope, final ParseState parseState, final Encoding outerEncoding) {
+            return parseImpl(rootScope, parseState, token.encoding != null ? token.encoding : outerEncoding);
+        }
+
+        abstract ParseState parseImpl(String rootScope, ParseState parseState, Encoding encoding);
+
+        String getScope(final String rootScope) {
+            return Compiled.getScope(rootScope, scope);
+        }
+
+    }
+
+    private static ParseState addValue(final String scope, final ParseState parseState, final Token definition, final BigInteger size, final Encoding encoding) {
+        final Optional<Slice> slice = parseState.slice(size);
+        if (!slice.isPresent()) {
+            return null;
+        }
+        return new ParseState(parseState.add(new ParseValue(scope, definition, slice.get(), encoding)).order, parseState.source, parseState.offset.add(size));
+    }
+
+    private static class DefNode extends TokenNode {
+
+        final NumericExpression size;
+
+        DefNode(final Def def, final String outerScope, final Encoding encoding) {
+            super(def, outerScope);
+            size = new NumericExpression(def.size, encoding);
+        }
+
+        @Override
+        ParseState parseImpl(final String rootScope, final ParseState parseState, final Encoding encoding) {
+            final BigInteger dataSize = size.eval(parseState, encoding);
+            if (dataSize == null) {
+                return null;
+            }
+            if (dataSize.signum() == 0) {
+                return parseState;
+            }
+            return addValue(getScope(rootScope), parseState, token, dataSize, encoding);
+        }
+
+    }
+
+    /**
+     * A {@link ValueExpression} that evaluates to a single number. If it
+     * only consists of constants and operations on them, it is evaluated when
+     * the node is built, with the encoding that its token is known to have
+     * then. It is evaluated again when parsed with another encoding.
+     */
+    private static class NumericExpression {
+
+        final ValueExpression expression;
+        final boolean constant;
+        private final Encoding foldedEncoding; // Null if the expression is not constant.
+        private final BigInteger folded;
+
+        NumericExpression(final ValueExpression expression, final Encoding encoding) {
+            this.expression = expression;
+            constant = ConstantFolding.isConstant(expression);
+            foldedEncoding = constant ? (encoding != null ? encoding : new Encoding()) : null;
+            folded = constant ? ConstantFolding.fold(expression, foldedEncoding) : null;
+        }
+
+        // Returns null if the expression does not evaluate to a single value.
+        BigInteger eval(final ParseState parseState, final Encoding encoding) {
+            if (constant && foldedEncoding.equals(encoding)) {
+                return folded;
+            }
+            return evalNumber(parseState, encoding);
+        }
+
+        private BigInteger evalNumber(final ParseState parseState, final Encoding encoding) {
+            final ImmutableList<Optional<Value>> values = expression.eval(parseState, encoding);
+            if (values.size != 1 || !values.head.isPresent()) {
+                return null;
+            }
+            return values.head.get().asNumeric();
+        }
+
+    }
+
+    private static class ConstantNode extends TokenNode {
+
+        private final Def def;
+        private final byte[] constant;
+        private final BigInteger size;
+        private final String defScope; // Relative to the scope of the Compiled token.
+
+        ConstantNode(final Post post, final String outerScope, final Def def, final byte[] constant) {
+            super(post, outerScope);
+            this.def = def;
+            this.constant = constant;
+            size = BigInteger.valueOf(constant.length);
+            defScope = extendScope(extendScope(outerScope, post.name), def.name);
+        }
+
+        @Override
+        ParseState parseImpl(final String rootScope, final ParseState parseState, final Encoding encoding) {
+            final Optional<Slice> slice = parseState.slice(size);
+            if (!slice.isPresent() || !Arrays.equals(slice.get().getData(), constant)) {
+                return null;
+            }
+            final ParseValue value = new ParseValue(Compiled.getScope(rootScope, defScope), def, slice.get(), def.encoding != null ? def.encoding : encoding);
+            return new ParseState(parseState.addBranch(token).add(value).closeBranch().order, parseState.source, parseState.offset.add(size));
+        }
+
+    }
+
+    private static class PostNode extends TokenNode {
+
+        private final Node node;
+        private final Expression predicate;
+
+        PostNode(final Post post, final String outerScope, final Node node) {
+            super(post, outerScope);
+            this.node = node;
+            predicate = post.predicate;
+        }
+
+        @Override
+        ParseState parseImpl(final String rootScope, final ParseState parseState, final Encoding encoding) {
+            final ParseState result = node.parse(rootScope, parseState.addBranch(token), encoding);
+            if (result == null || !predicate.eval(result, encoding)) {
+                return null;
+            }
+            return result.closeBranch();
+        }
+
+    }
+
+    private static class PreNode extends TokenNode {
+
+        private final Node node;
+        private final Expression predicate;
+
+        PreNode(final Pre pre, final String outerScope, final Node node) {
+            super(pre, outerScope);
+            this.node = node;
+            predicate = pre.predicate;
+        }
+
+        @Override
+        ParseState parseImpl(final String rootScope, final ParseState parseState, final Encoding encoding) {
+            if (!predicate.eval(parseState, encoding)) {
+                return null;
+            }
+            final ParseState result = node.parse(rootScope, parseState.addBranch(token), encoding);
+            return result == null ? null : result.closeBranch();
+        }
+
+    }
+
+    private static class SeqNode extends TokenNode {
+
+        private final Node[] nodes;
+        private final int[] runs; // The number of Def nodes with a constant size that start at each index.
+
+        SeqNode(final Seq seq, final String outerScope, final Node[] nodes) {
+            super(seq, outerScope);
+            this.nodes = nodes;
+            runs = new int[nodes.length];
+            for (int index = nodes.length - 1; index >= 0; index--) {
+                if (nodes[index] instanceof DefNode && ((DefNode) nodes[index]).size.constant) {
+                    runs[index] = index + 1 < nodes.length ? runs[index + 1] + 1 : 1;
+                }
+            }
+        }
+
+        @Override
+        ParseState parseImpl(final String rootScope, final ParseState parseState, final Encoding encoding) {
+            ParseState result = parseState.addBranch(token);
+            for (int index = 0; index < nodes.length && result != null; ) {
+                if (runs[index] > 1) {
+                    result = parseRun(rootScope, result, encoding, index, runs[index]);
+                    index += runs[index];
+                } else {
+                    result = nodes[index++].parse(rootScope, result, encoding);
+                }
+            }
+            return result == null ? null : result.closeBranch();
+        }
+
+        // Checks the availability of the data of all Def nodes in a run at once and splits it into a slice per value.
+        private ParseState parseRun(final String rootScope, final ParseState parseState, final Encoding encoding, final int start, final int count) {
+            final BigInteger[] sizes = new BigInteger[count];
+            BigInteger total = ZERO;
+            for (int index = 0; index < count; index++) {
+                final DefNode node = (DefNode) nodes[start + index];
+                sizes[index] = node.size.eval(parseState, node.token.encoding != null ? node.token.encoding : encoding);
+                if (sizes[index] == null || sizes[index].signum() < 0) {
+                    return null;
+                }
+                total = total.add(sizes[index]);
+            }
+            final Optional<Slice> run = parseState.slice(total);
+            if (!run.isPresent()) {
+                return null;
+            }
+            ParseState result = parseState;
+            BigInteger offset = ZERO;
+            for (int index = 0; index < count; index++) {
+                if (sizes[index].signum() == 0) {
+                    continue;
+                }
+                final DefNode node = (DefNode) nodes[start + index];
+                final Encoding valueEncoding = node.token.encoding != null ? node.token.encoding : encoding;
+                result = result.add(new ParseValue(node.getScope(rootScope), node.token, run.get().slice(offset, sizes[index]), valueEncoding));
+                offset = offset.add(sizes[index]);
+            }
+            return new ParseState(result.order, parseState.source, parseState.offset.add(total));
+        }
+
+    }
+
+    private static class ChoNode extends TokenNode {
+
+        private final Node[] nodes;
+        private final Node[][] dispatch; // Null if all alternatives may start with any byte value.
+
+        ChoNode(final Cho cho, final String outerScope, final Node[] nodes) {
+            super(cho, outerScope);
+            this.nodes = nodes;
+            dispatch = createDispatch(cho.tokens, nodes);
+        }
+
+        // Returns the alternatives that may start with each byte value and, at the end, those that may succeed at the end of the input.
+        private static Node[][] createDispatch(final ImmutableList<Token> tokens, final Node[] nodes) {
+            final FirstBytes[] first = new FirstBytes[nodes.length];
+            int index = 0;
+            for (ImmutableList<Token> list = tokens; !list.isEmpty(); list = list.tail) {
+                first[index++] = FirstBytes.of(list.head);
+            }
+            final Node[][] result = new Node[FirstBytes.BYTES + 1][];
+            boolean selective = false;
+            for (int value = 0; value <= FirstBytes.BYTES; value++) {
+                final List<Node> candidates = new ArrayList<>();
+                for (int i = 0; i < nodes.length; i++) {
+                    if (first[i].mayStartWith(value)) {
+                        candidates.add(nodes[i]);
+                    }
+                }
+                selective |= candidates.size() < nodes.length;
+                result[value] = candidates.toArray(new Node[candidates.size()]);
+            }
+            return selective ? result : null;
+        }
+
+        @Override
+        ParseState parseImpl(final String rootScope, final ParseState parseState, final Encoding encoding) {
+            final ParseState branched = parseState.addBranch(token);
+            for (final Node node : candidates(parseState)) {
+                final ParseState result = node.parse(rootScope, branched, encoding);
+                if (result != null) {
+                    return result.closeBranch();
+                }
+            }
+            return null;
+        }
+
+        private Node[] candidates(final ParseState parseState) {
+            if (dispatch == null) {
+                return nodes;
+            }
+            final Optional<Slice> slice = parseState.slice(ONE);
+            return slice.isPresent() ? dispatch[slice.get().getData()[0] & 0xff] : dispatch[FirstBytes.BYTES];
+        }
+
+    }
+
+    private static class RepNode extends TokenNode {
+
+        private final Node node;
+
+        RepNode(final Rep rep, final String outerScope, final Node node) {
+            super(rep, outerScope);
+            this.node = node;
+        }
+
+        @Override
+        ParseState parseImpl(final String rootScope, final ParseState parseState, final Encoding encoding) {
+            ParseState result = parseState.addBranch(token);
+            for (ParseState next = node.parse(rootScope, result, encoding); next != null; next = node.parse(rootScope, result, encoding)) {
+                result = next;
+            }
+            return result.closeBranch();
+        }
+
+    }
+
+    private static class RepNNode extends TokenNode {
+
+        private final Node node;
+        private final NumericExpression n;
+
+        RepNNode(final RepN repN, final String outerScope, final Encoding encoding, final Node node) {
+            super(repN, outerScope);
+            this.node = node;
+            n = new NumericExpression(repN.n, encoding);
+        }
+
+        @Override
+        ParseState parseImpl(final String rootScope, final ParseState parseState, final Encoding encoding) {
+            final BigInteger counts = n.eval(parseState, encoding);
+            if (counts == null) {
+                return null;
+            }
+            ParseState result = parseState.addBranch(token);
+            for (long count = counts.longValueExact(); count > 0; count--) {
+                result = node.parse(rootScope, result, encoding);
+                if (result == null) {
+                    return null;
+                }
+            }
+            return result.closeBranch();
+        }
+
+    }
+
+    private static class WhileNode extends TokenNode {
+
+        private final Node node;
+        private final Expression predicate;
+
+        WhileNode(final While whileToken, final String outerScope, final Node node) {
+            super(whileToken, outerScope);
+            this.node = node;
+            predicate = whileToken.predicate;
+        }
+
+        @Override
+        ParseState parseImpl(final String rootScope, final ParseState parseState, final Encoding encoding) {
+            ParseState result = parseState.addBranch(token);
+            while (predicate.eval(result, encoding)) {
+                result = node.parse(rootScope, result, encoding);
+                if (result == null) {
+                    return null;
+                }
+            }
+            return result.closeBranch();
+        }
+
+    }
+
+    // A node that delegates to the interpreter, which extends the scope and applies the encoding of the token itself.
+    private static class InterpretedNode implements Node {
+
+        private final Token token;
+        private final String outerScope; // Relative to the scope of the Compiled token.
+
+        InterpretedNode(final Token token, final String outerScope) {
+            this.token = token;
+            this.outerScope = outerScope;
+        }
+
+        @Override
+        public ParseState parse(final String rootScope, final ParseState parseState, final Encoding outerEncoding) {
+            return token.parse(new Environment(getScope(rootScope, outerScope), parseState, outerEncoding)).orElse(null);
+        }
+
+    }
+
+    // The key of a node: the token, by identity, in the scope and with the encoding that it is compiled for.
+    private static class Position {
+
+        private final Token token;
+        private final String outerScope;
+        private final Encoding outerEncoding;
+
+        Position(final Token token, final String outerScope, final Encoding outerEncoding) {
+            this.token = token;
+            this.outerScope = outerScope;
+            this.outerEncoding = outerEncoding;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return Util.notNullAndSameClass(this, obj)
+                && token == ((Position)obj).token
+                && outerScope.equals(((Position)obj).outerScope)
+                && Objects.equals(outerEncoding, ((Position)obj).outerEncoding);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(getClass(), System.identityHashCode(token), outerScope, outerEncoding);
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + token + ")";
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return super.equals(obj)
+            && Objects.equals(token, ((Compiled)obj).token);
+            // The node field is excluded from equals() and hashCode() because it is derived from token.
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), token);
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static java.math.BigInteger.ZERO;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+import io.parsingdata.metal.data.ImmutableList;
+import io.parsingdata.metal.data.ParseGraph;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.Slice;
+import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.expression.value.BinaryValueExpression;
+import io.parsingdata.metal.expression.value.Cat;
+import io.parsingdata.metal.expression.value.Const;
+import io.parsingdata.metal.expression.value.UnaryValueExpression;
+import io.parsingdata.metal.expression.value.Value;
+import io.parsingdata.metal.expression.value.ValueExpression;
+import io.parsingdata.metal.expression.value.arithmetic.Add;
+import io.parsingdata.metal.expression.value.arithmetic.Div;
+import io.parsingdata.metal.expression.value.arithmetic.Mod;
+import io.parsingdata.metal.expression.value.arithmetic.Mul;
+import io.parsingdata.metal.expression.value.arithmetic.Neg;
+import io.parsingdata.metal.expression.value.bitwise.ShiftLeft;
+import io.parsingdata.metal.expression.value.bitwise.ShiftRight;
+import io.parsingdata.metal.expression.value.reference.Len;
+import io.parsingdata.metal.expression.value.reference.Offset;
+
+/**
+ * Finds and evaluates {@link ValueExpression}s that evaluate to the same
+ * values for every parse state, so that tokens such as {@link Compiled} and
+ * {@link ParallelRepN} can evaluate them before parsing.
+ */
+final class ConstantFolding {
+
+    // Operations that do not use the parse state, so that they are constant if their operands are.
+    private static final Set<Class<?>> CONSTANT_OPERATIONS = new HashSet<>(Arrays.asList(
+        Add.class, Div.class, Mod.class, Mul.class, Neg.class, io.parsingdata.metal.expression.value.arithmetic.Sub.class,
+        io.parsingdata.metal.expression.value.bitwise.And.class, io.parsingdata.metal.expression.value.bitwise.Not.class,
+        io.parsingdata.metal.expression.value.bitwise.Or.class, ShiftLeft.class, ShiftRight.class, Cat.class, Len.class, Offset.class));
+
+    // Constant expressions are evaluated in this parse state, since they do not use it.
+    private static final ParseState EMPTY = new ParseState(ParseGraph.EMPTY, Slice.createFromBytes(new byte[0]).source, ZERO);
+
+    private ConstantFolding() {}
+
+    // Returns whether the expression evaluates to the same values for every parse state.
+    static boolean isConstant(final ValueExpression expression) {
+        if (expression instanceof Const) {
+            return true;
+        }
+        if (CONSTANT_OPERATIONS.contains(expression.getClass())) {
+            return expression instanceof UnaryValueExpression
+                ? isConstant(((UnaryValueExpression) expression).operand)
+                : isConstant(((BinaryValueExpression) expression).left) && isConstant(((BinaryValueExpression) expression).right);
+        }
+        return false;
+    }
+
+    /**
+     * @return The number <code>expression</code> evaluates to with
+     * <code>encoding</code>, or <code>null</code> if it is not constant or
+     * does not evaluate to a single value
+     */
+    static BigInteger fold(final ValueExpression expression, final Encoding encoding) {
+        if (!isConstant(expression)) {
+            return null;
+        }
+        final ImmutableList<Optional<Value>> values = expression.eval(EMPTY, encoding);
+        if (values.size != 1 || !values.head.isPresent()) {
+            return null;
+        }
+        return values.head.get().asNumeric();
+    }
+
+}
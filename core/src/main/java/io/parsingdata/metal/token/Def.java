@@ -16,8 +16,6 @@
 
 package io.parsingdata.metal.token;
 
-import static java.math.BigInteger.ZERO;
-
 import static io.parsingdata.metal.Util.checkNotEmpty;
 import static io.parsingdata.metal.Util.checkNotNull;
 import static io.parsingdata.metal.Util.failure;
@@ -27,7 +25,6 @@ import java.math.BigInteger;
 import java.util.Objects;
 import java.util.Optional;
 
-import io.parsingdata.metal.Util;
 import io.parsingdata.metal.data.Environment;
 import io.parsingdata.metal.data.ImmutableList;
 import io.parsingdata.metal.data.ParseState;
@@ -62,17 +59,17 @@ public class Def extends Token {
         if (sizes.size != 1 || !sizes.head.isPresent()) {
             return failure();
         }
-        return sizes.head
-            .filter(dataSize -> dataSize.asNumeric().compareTo(ZERO) != 0)
-            .map(dataSize -> slice(environment, dataSize.asNumeric()))
-            .orElseGet(() -> success(environment.parseState));
+        final BigInteger dataSize = sizes.head.get().asNumeric();
+        if (dataSize.signum() == 0) {
+            return success(environment.parseState);
+        }
+        return slice(environment, dataSize);
     }
 
     private Optional<ParseState> slice(final Environment environment, final BigInteger dataSize) {
         return environment.parseState
             .slice(dataSize)
-            .map(slice -> environment.parseState.add(new ParseValue(environment.scope, this, slice, environment.encoding)).seek(dataSize.add(environment.parseState.offset)))
-            .orElseGet(Util::failure);
+            .map(slice -> environment.parseState.add(new ParseValue(environment.scope, this, slice, environment.encoding)).skip(dataSize));
     }
 
     @Override
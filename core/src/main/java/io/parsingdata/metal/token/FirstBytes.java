@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static java.math.BigInteger.ONE;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+
+import io.parsingdata.metal.data.ImmutableList;
+import io.parsingdata.metal.expression.Expression;
+import io.parsingdata.metal.expression.True;
+import io.parsingdata.metal.expression.comparison.Eq;
+import io.parsingdata.metal.expression.logical.And;
+import io.parsingdata.metal.expression.logical.Not;
+import io.parsingdata.metal.expression.logical.Or;
+import io.parsingdata.metal.expression.value.Const;
+import io.parsingdata.metal.expression.value.ValueExpression;
+import io.parsingdata.metal.expression.value.reference.Self;
+
+/**
+ * The set of bytes that a successful parse of a {@link Token} may start
+ * with (its FIRST set).
+ * <p>
+ * The set is derived from the constants that the first value of a token is
+ * compared to, as in <code>def(name, con(1), eq(con(0xff)))</code>. If
+ * nothing is known about the first value or if a token may succeed without
+ * reading any input at its offset, every byte is included.
+ */
+public final class FirstBytes {
+
+    public static final int BYTES = 256;
+
+    private static final FirstBytes ANY = new FirstBytes(all(), true, true);
+    private static final FirstBytes ANY_INEXACT = new FirstBytes(all(), false, false);
+
+    final BitSet bytes;
+    final boolean empty; // Whether a parse may succeed without reading the byte at its offset.
+    private final boolean exact; // Whether a predicate holds for every value starting with one of the bytes.
+
+    private FirstBytes(final BitSet bytes, final boolean empty, final boolean exact) {
+        this.bytes = bytes;
+        this.empty = empty;
+        this.exact = exact;
+    }
+
+    private static BitSet all() {
+        final BitSet bytes = new BitSet(BYTES);
+        bytes.set(0, BYTES);
+        return bytes;
+    }
+
+    /**
+     * @return Whether a parse of the token may succeed at an offset that
+     * holds <code>value</code>, where {@link #BYTES} denotes the end of the
+     * input
+     */
+    public boolean mayStartWith(final int value) {
+        return empty || bytes.get(value);
+    }
+
+    public static FirstBytes of(final Token token) {
+        if (token instanceof Def) {
+            return isPositiveConstant(((Def) token).size) ? new FirstBytes(all(), false, true) : ANY;
+        }
+        if (token instanceof Post) {
+            final FirstBytes nested = of(((Post) token).token);
+            if (nested.empty || !(((Post) token).token instanceof Def)) {
+                return nested;
+            }
+            return new FirstBytes(of(((Post) token).predicate, ((Const) ((Def) ((Post) token).token).size).value.asNumeric()).bytes, false, true);
+        }
+        if (token instanceof Pre) {
+            return of(((Pre) token).token);
+        }
+        if (token instanceof Seq) {
+            return ofSeq(((Seq) token).tokens);
+        }
+        if (token instanceof Cho) {
+            return ofCho(((Cho) token).tokens);
+        }
+        if (token instanceof Rep) {
+            return new FirstBytes(of(((Rep) token).token).bytes, true, true);
+        }
+        if (token instanceof RepN) {
+            return new FirstBytes(of(((RepN) token).token).bytes, true, true);
+        }
+        if (token instanceof While) {
+            return new FirstBytes(of(((While) token).token).bytes, true, true);
+        }
+        return ANY;
+    }
+
+    // The first token that always reads its first byte determines where a Seq starts.
+    private static FirstBytes ofSeq(final ImmutableList<Token> tokens) {
+        final BitSet bytes = new BitSet(BYTES);
+        for (ImmutableList<Token> list = tokens; !list.isEmpty(); list = list.tail) {
+            final FirstBytes first = of(list.head);
+            bytes.or(first.bytes);
+            if (!first.empty) {
+                return new FirstBytes(bytes, false, true);
+            }
+        }
+        return ANY;
+    }
+
+    private static FirstBytes ofCho(final ImmutableList<Token> tokens) {
+        final BitSet bytes = new BitSet(BYTES);
+        for (ImmutableList<Token> list = tokens; !list.isEmpty(); list = list.tail) {
+            final FirstBytes first = of(list.head);
+            if (first.empty) {
+                return ANY;
+            }
+            bytes.or(first.bytes);
+        }
+        return new FirstBytes(bytes, false, true);
+    }
+
+    // Returns the first bytes of values of size bytes for which the predicate may hold.
+    private static FirstBytes of(final Expression predicate, final BigInteger size) {
+        if (predicate instanceof True) {
+            return ANY;
+        }
+        if (predicate instanceof Eq && isSelf(((Eq) predicate).value) && ((Eq) predicate).predicate instanceof Const) {
+            final byte[] constant = ((Const) ((Eq) predicate).predicate).value.getValue();
+            if (!size.equals(BigInteger.valueOf(constant.length))) {
+                return new FirstBytes(new BitSet(BYTES), false, true);
+            }
+            final BitSet bytes = new BitSet(BYTES);
+            bytes.set(constant[0] & 0xff);
+            return new FirstBytes(bytes, false, size.equals(ONE));
+        }
+        if (predicate instanceof Not) {
+            final FirstBytes operand = of(((Not) predicate).operand, size);
+            if (!operand.exact) {
+                return ANY_INEXACT;
+            }
+            final BitSet bytes = all();
+            bytes.andNot(operand.bytes);
+            return new FirstBytes(bytes, false, true);
+        }
+        if (predicate instanceof And) {
+            final FirstBytes left = of(((And) predicate).left, size);
+            final FirstBytes right = of(((And) predicate).right, size);
+            final BitSet bytes = (BitSet) left.bytes.clone();
+            bytes.and(right.bytes);
+            return new FirstBytes(bytes, false, left.exact && right.exact);
+        }
+        if (predicate instanceof Or) {
+            final FirstBytes left = of(((Or) predicate).left, size);
+            final FirstBytes right = of(((Or) predicate).right, size);
+            final BitSet bytes = (BitSet) left.bytes.clone();
+            bytes.or(right.bytes);
+            return new FirstBytes(bytes, false, left.exact && right.exact);
+        }
+        return ANY_INEXACT;
+    }
+
+    private static boolean isSelf(final ValueExpression value) {
+        return value == null || value instanceof Self;
+    }
+
+    private static boolean isPositiveConstant(final ValueExpression size) {
+        return size instanceof Const && ((Const) size).value.asNumeric().signum() > 0;
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static java.math.BigInteger.ZERO;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ImmutableList;
+import io.parsingdata.metal.data.ParseCache;
+import io.parsingdata.metal.data.ParseGraph;
+import io.parsingdata.metal.data.ParseItem;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.callback.Callbacks;
+import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.expression.value.ValueExpression;
+
+/**
+ * Parses parts of a {@link ParseGraph} in parallel and adds them to it in
+ * order.
+ * <p>
+ * Repetitions of a token that is context free (see
+ * {@link ParseCache#isContextFree(Token)}) and that always consumes the same
+ * number of bytes (its stride) are split in chunks of {@link #CHUNK_SIZE}
+ * parses by a {@link ParallelRep} or {@link ParallelRepN}. The start of every
+ * chunk is known in advance, so the chunks are parsed in parallel and their
+ * results are added one after another, every nested graph as a whole.
+ * Parsing runs on the {@link ForkJoinPool} of the current thread, or on the
+ * common pool. It is only used for at least {@link #MIN_PARALLEL_COUNT}
+ * repetitions, without callbacks and {@link ParseCache}, and if the pool has a
+ * parallelism of more than one.
+ */
+final class Parallel {
+
+    static final int CHUNK_SIZE = 256;
+    static final int MIN_PARALLEL_COUNT = 4 * CHUNK_SIZE;
+
+    private Parallel() {}
+
+    /**
+     * @return The stride of <code>token</code> if it can be repeated in
+     * parallel in <code>environment</code>, <code>null</code> otherwise
+     */
+    static BigInteger getStride(final Token token, final Environment environment) {
+        if (environment.callbacks != Callbacks.NONE || environment.cache != ParseCache.NONE || pool().getParallelism() < 2) {
+            return null;
+        }
+        // The stride is determined first, since it fails fast for most tokens.
+        final BigInteger stride = getStride(token, environment.encoding);
+        return stride != null && stride.signum() > 0 && ParseCache.isContextFree(token) ? stride : null;
+    }
+
+    private static BigInteger getStride(final Token token, final Encoding outerEncoding) {
+        final Encoding encoding = token.encoding != null ? token.encoding : outerEncoding;
+        if (token instanceof Def) {
+            return evalConstant(((Def) token).size, encoding);
+        }
+        if (token instanceof Post) {
+            return getStride(((Post) token).token, encoding);
+        }
+        if (token instanceof Seq) {
+            BigInteger stride = ZERO;
+            for (ImmutableList<Token> tokens = ((Seq) token).tokens; !tokens.isEmpty(); tokens = tokens.tail) {
+                final BigInteger size = getStride(tokens.head, encoding);
+                if (size == null) {
+                    return null;
+                }
+                stride = stride.add(size);
+            }
+            return stride;
+        }
+        if (token instanceof RepN) {
+            final BigInteger count = evalConstant(((RepN) token).n, encoding);
+            final BigInteger size = getStride(((RepN) token).token, encoding);
+            return count == null || size == null ? null : count.multiply(size);
+        }
+        return null;
+    }
+
+    private static BigInteger evalConstant(final ValueExpression expression, final Encoding encoding) {
+        final BigInteger value = ConstantFolding.fold(expression, encoding);
+        return value == null || value.signum() < 0 ? null : value;
+    }
+
+    /**
+     * Parses <code>token</code> <code>count</code> times, with parses
+     * starting <code>stride</code> bytes apart.
+     *
+     * @return The result of the last parse, or an empty {@link Optional} if
+     * any of the parses fails
+     */
+    static Optional<ParseState> repeat(final Environment environment, final Token token, final BigInteger stride, final long count) {
+        final List<Chunk> chunks = parseChunks(environment, token, stride, count);
+        ParseState result = environment.parseState;
+        for (final Chunk chunk : chunks) {
+            if (chunk.parsed < chunk.count) {
+                return Optional.empty();
+            }
+            result = append(result, chunk.graph, chunk.size);
+        }
+        return result.seek(environment.parseState.offset.add(stride.multiply(BigInteger.valueOf(count))));
+    }
+
+    /**
+     * Parses <code>token</code> in batches of chunks, for as long as the
+     * input is available for a complete batch and all parses succeed.
+     *
+     * @return The result of the last successful parse
+     */
+    static ParseState repeatAvailable(final Environment environment, final Token token, final BigInteger stride) {
+        final long batchCount = (long) pool().getParallelism() * CHUNK_SIZE;
+        final BigInteger batchSize = stride.multiply(BigInteger.valueOf(batchCount));
+        ParseState result = environment.parseState;
+        while (result.slice(batchSize).isPresent()) {
+            final BigInteger offset = result.offset;
+            long parsed = 0;
+            for (final Chunk chunk : parseChunks(environment.withParseState(result), token, stride, batchCount)) {
+                result = append(result, chunk.graph, chunk.size);
+                parsed += chunk.parsed;
+                if (chunk.parsed < chunk.count) {
+                    return result.seek(offset.add(stride.multiply(BigInteger.valueOf(parsed)))).get();
+                }
+            }
+            result = result.seek(offset.add(batchSize)).get();
+        }
+        return result;
+    }
+
+    private static List<Chunk> parseChunks(final Environment environment, final Token token, final BigInteger stride, final long count) {
+        final BigInteger chunkSize = stride.multiply(BigInteger.valueOf(CHUNK_SIZE));
+        final BigInteger offset = environment.parseState.offset;
+        return LongStream.range(0, (count + CHUNK_SIZE - 1) / CHUNK_SIZE)
+            .parallel()
+            .mapToObj(index -> parseChunk(environment.withParseState(environment.parseState.seek(offset.add(chunkSize.multiply(BigInteger.valueOf(index)))).get()),
+                                          token,
+                                          Math.min(CHUNK_SIZE, count - index * CHUNK_SIZE)))
+            .collect(Collectors.toList());
+    }
+
+    // Parses token up to count times in sequence, stopping at the first failure.
+    private static Chunk parseChunk(final Environment environment, final Token token, final long count) {
+        Environment current = environment;
+        long parsed = 0;
+        while (parsed < count) {
+            final Optional<ParseState> result = token.parse(current);
+            if (!result.isPresent()) {
+                break;
+            }
+            current = current.withParseState(result.get());
+            parsed++;
+        }
+        // Only the graph of the chunk is kept, so that the indexes of its root can be collected.
+        return new Chunk(innermost(current.parseState.order), innermost(environment.parseState.order).size, count, parsed);
+    }
+
+    // Parallel streams run on the pool of the current thread, or on the common pool.
+    static ForkJoinPool pool() {
+        return ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+    }
+
+    static ParseGraph innermost(final ParseGraph graph) {
+        ParseGraph result = graph;
+        while (result.branched) {
+            result = result.head.asGraph();
+        }
+        return result;
+    }
+
+    /**
+     * Adds the items of <code>graph</code> beyond its first
+     * <code>size</code> items to <code>parseState</code>, least recently
+     * added first. Nested graphs are added as a whole (see
+     * {@link ParseState#add(ParseGraph)}), so only the items directly in
+     * <code>graph</code> are added one at a time.
+     */
+    static ParseState append(final ParseState parseState, final ParseGraph graph, final long size) {
+        ImmutableList<ParseItem> items = new ImmutableList<>();
+        for (ParseGraph current = graph; current.size > size; current = current.tail) {
+            items = items.add(current.head);
+        }
+        ParseState result = parseState;
+        for (ImmutableList<ParseItem> list = items; !list.isEmpty(); list = list.tail) {
+            final ParseItem item = list.head;
+            if (item.isValue()) {
+                result = result.add(item.asValue());
+            } else if (item.isReference()) {
+                result = result.add(item.asReference());
+            } else {
+                result = result.add(item.asGraph());
+            }
+        }
+        return result;
+    }
+
+    private static final class Chunk {
+
+        final ParseGraph graph;
+        final long size; // The size of graph before the chunk was parsed.
+        final long count;
+        final long parsed;
+
+        Chunk(final ParseGraph graph, final long size, final long count, final long parsed) {
+            this.graph = graph;
+            this.size = size;
+            this.count = count;
+            this.parsed = parsed;
+        }
+
+    }
+
+}
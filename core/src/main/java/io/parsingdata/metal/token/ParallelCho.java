@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static io.parsingdata.metal.Util.failure;
+import static io.parsingdata.metal.Util.success;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ImmutableList;
+import io.parsingdata.metal.data.ParseCache;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.callback.Callbacks;
+import io.parsingdata.metal.encoding.Encoding;
+
+/**
+ * A {@link Cho} that parses its tokens in parallel.
+ * <p>
+ * All tokens that may succeed (see {@link FirstBytes}) are parsed
+ * concurrently on the fork-join pool of the current thread, or on the common
+ * pool. The result of the leftmost token that succeeds is used, so the result
+ * is the same as that of a {@link Cho}. Tokens that have not started when a
+ * token to their left succeeds are skipped. Tokens that are already running
+ * complete, but their results are discarded.
+ * <p>
+ * Since every token is parsed from the same {@link ParseState}, parsing in
+ * parallel is only worth its overhead if the tokens are expensive to parse,
+ * for instance because they decompress or verify data. The tokens are parsed
+ * sequentially if fewer than two of them may succeed, if the pool has a
+ * parallelism of one, or if callbacks or a {@link ParseCache} are present.
+ * <p>
+ * A ParallelCho keeps statistics on its parallel parses: the number of
+ * {@link #parses()}, the number of tokens that were {@link #started()} and
+ * the number of those that a {@link Cho} would not have parsed, the
+ * {@link #wasted()} tokens.
+ *
+ * @see Cho
+ */
+public class ParallelCho extends Cho {
+
+    // Statistics, excluded from equals() and hashCode().
+    private final AtomicLong parses = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong needed = new AtomicLong();
+
+    public ParallelCho(final String name, final Encoding encoding, final Token token1, final Token token2, final Token... additionalTokens) {
+        super(name, encoding, token1, token2, additionalTokens);
+    }
+
+    @Override
+    protected Optional<ParseState> parseImpl(final Environment environment) {
+        if (environment.callbacks != Callbacks.NONE || environment.cache != ParseCache.NONE || Parallel.pool().getParallelism() < 2) {
+            return super.parseImpl(environment);
+        }
+        final ImmutableList<Token> candidates = candidates(environment);
+        if (candidates.size < 2) {
+            return super.parseImpl(environment);
+        }
+        parses.incrementAndGet();
+        final Environment branch = environment.addBranch(this);
+        final AtomicInteger winner = new AtomicInteger(Integer.MAX_VALUE);
+        final List<ForkJoinTask<Optional<ParseState>>> tasks = new ArrayList<>();
+        int index = 0;
+        for (ImmutableList<Token> list = candidates; !list.isEmpty(); list = list.tail, index++) {
+            tasks.add(ForkJoinTask.adapt(new Alternative(list.head, branch, index, winner)).fork());
+        }
+        for (index = 0; index < tasks.size(); index++) {
+            final Optional<ParseState> result = tasks.get(index).join();
+            if (result.isPresent()) {
+                needed.addAndGet(index + 1);
+                return success(result.get().closeBranch());
+            }
+        }
+        needed.addAndGet(tasks.size());
+        return failure();
+    }
+
+    public long parses() {
+        return parses.get();
+    }
+
+    public long started() {
+        return started.get();
+    }
+
+    // Tokens that are still running when the parse completes are counted once they start.
+    public long wasted() {
+        return started.get() - needed.get();
+    }
+
+    private final class Alternative implements Callable<Optional<ParseState>> {
+
+        final Token token;
+        final Environment environment;
+        final int index;
+        final AtomicInteger winner; // The index of the leftmost token that has succeeded so far.
+
+        Alternative(final Token token, final Environment environment, final int index, final AtomicInteger winner) {
+            this.token = token;
+            this.environment = environment;
+            this.index = index;
+            this.winner = winner;
+        }
+
+        @Override
+        public Optional<ParseState> call() {
+            if (winner.get() < index) {
+                return Optional.empty();
+            }
+            started.incrementAndGet();
+            final Optional<ParseState> result = token.parse(environment);
+            if (result.isPresent()) {
+                winner.accumulateAndGet(index, Math::min);
+            }
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import java.math.BigInteger;
+import java.util.Optional;
+
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.encoding.Encoding;
+
+/**
+ * A {@link Rep} that parses its repetitions in parallel.
+ * <p>
+ * If <code>token</code> always consumes the same number of bytes and is
+ * context free, the repetitions are parsed in parallel in batches, for as
+ * long as the input is available for a complete batch and all of them
+ * succeed. The remaining repetitions are parsed sequentially. See
+ * {@link Parallel}. The result is the same as that of a {@link Rep}.
+ * <p>
+ * Since the repetitions must be split and their results added to the
+ * {@link io.parsingdata.metal.data.ParseGraph}, a ParallelRep is only faster
+ * than a {@link Rep} if there are many repetitions and more than one
+ * processor to parse them.
+ *
+ * @see Rep
+ */
+public class ParallelRep extends Rep {
+
+    public ParallelRep(final String name, final Token token, final Encoding encoding) {
+        super(name, token, encoding);
+    }
+
+    @Override
+    protected Optional<ParseState> parseImpl(final Environment environment) {
+        final BigInteger stride = Parallel.getStride(token, environment);
+        if (stride == null) {
+            return super.parseImpl(environment);
+        }
+        final Environment branch = environment.addBranch(this);
+        return iterate(branch.withParseState(Parallel.repeatAvailable(branch, token, stride))).computeResult();
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static io.parsingdata.metal.Util.failure;
+
+import java.math.BigInteger;
+import java.util.Optional;
+
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ImmutableList;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.expression.value.Value;
+import io.parsingdata.metal.expression.value.ValueExpression;
+
+/**
+ * A {@link RepN} that parses its repetitions in parallel.
+ * <p>
+ * If there are at least {@link Parallel#MIN_PARALLEL_COUNT} repetitions and
+ * <code>token</code> always consumes the same number of bytes and is context
+ * free, the repetitions are parsed in parallel. See {@link Parallel}. The
+ * result is the same as that of a {@link RepN}.
+ * <p>
+ * Since the repetitions must be split and their results added to the
+ * {@link io.parsingdata.metal.data.ParseGraph}, a ParallelRepN is only
+ * faster than a {@link RepN} if there are many repetitions and more than one
+ * processor to parse them.
+ *
+ * @see RepN
+ */
+public class ParallelRepN extends RepN {
+
+    public ParallelRepN(final String name, final Token token, final ValueExpression n, final Encoding encoding) {
+        super(name, token, n, encoding);
+    }
+
+    @Override
+    protected Optional<ParseState> parseImpl(final Environment environment) {
+        final ImmutableList<Optional<Value>> counts = n.eval(environment.parseState, environment.encoding);
+        if (counts.size != 1 || !counts.head.isPresent()) {
+            return failure();
+        }
+        final long count = counts.head.get().asNumeric().longValueExact();
+        final BigInteger stride = count >= Parallel.MIN_PARALLEL_COUNT ? Parallel.getStride(token, environment) : null;
+        if (stride != null && environment.parseState.slice(stride.multiply(BigInteger.valueOf(count))).isPresent()) {
+            return Parallel.repeat(environment.addBranch(this), token, stride, count).map(ParseState::closeBranch);
+        }
+        return iterate(environment.addBranch(this), count).computeResult();
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static io.parsingdata.metal.Util.failure;
+import static io.parsingdata.metal.Util.success;
+import static io.parsingdata.metal.data.Selection.hasRootAtOffset;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ImmutableList;
+import io.parsingdata.metal.data.ParseCache;
+import io.parsingdata.metal.data.ParseGraph;
+import io.parsingdata.metal.data.ParseReference;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.callback.Callbacks;
+import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.expression.value.Value;
+import io.parsingdata.metal.expression.value.ValueExpression;
+
+/**
+ * A {@link Sub} that parses <code>token</code> at all locations in parallel.
+ * <p>
+ * A ParallelSub has the same result as a {@link Sub}, provided that the
+ * parses at the locations are independent: parsing <code>token</code> at a
+ * location may refer to values parsed before the ParallelSub and to values
+ * it has parsed itself, but not to values parsed at the other locations.
+ * This includes the locations of nested {@link Sub}s, which are only parsed
+ * once in a {@link Sub}.
+ * <p>
+ * First <code>token</code> is parsed at every location on the fork-join pool
+ * of the current thread, or on the common pool, each starting from the
+ * {@link ParseState} before the first location. Then the resulting graphs are
+ * added as a whole (see {@link ParseState#add(ParseGraph)}), in the order of
+ * the locations. A location at which <code>token</code> has already been
+ * parsed is added as a {@link ParseReference}, just like in a {@link Sub}.
+ * <p>
+ * If the pool has a parallelism of one, or if callbacks or a
+ * {@link ParseCache} are present, the locations are parsed sequentially, so
+ * that the latter observe the same order of parses as with a {@link Sub}.
+ *
+ * @see Sub
+ */
+public class ParallelSub extends Sub {
+
+    public ParallelSub(final String name, final Token token, final ValueExpression address, final Encoding encoding) {
+        super(name, token, address, encoding);
+    }
+
+    @Override
+    protected Optional<ParseState> parseImpl(final Environment environment) {
+        if (environment.callbacks != Callbacks.NONE || environment.cache != ParseCache.NONE || Parallel.pool().getParallelism() < 2) {
+            return super.parseImpl(environment);
+        }
+        final ImmutableList<Optional<Value>> addresses = address.eval(environment.parseState, environment.encoding);
+        if (addresses.isEmpty()) {
+            return failure();
+        }
+        final Environment branch = environment.addBranch(this);
+        final List<Optional<BigInteger>> offsets = toList(addresses);
+        // Locations at which token has been parsed before the first location are added as a reference, so they are not parsed.
+        final boolean[] referenced = new boolean[offsets.size()];
+        for (int index = 0; index < offsets.size(); index++) {
+            referenced[index] = offsets.get(index).isPresent() && hasRootAtOffset(branch.parseState.order, token.getCanonical(branch.parseState), offsets.get(index).get(), branch.parseState.source);
+        }
+        // Only the graphs of the parses are kept, so that they can be added as a whole.
+        final List<Optional<ParseGraph>> results = IntStream.range(0, offsets.size())
+            .parallel()
+            .mapToObj(index -> referenced[index] ? Optional.<ParseGraph>empty() : offsets.get(index).flatMap(offset -> parse(branch, offset)).map(result -> Parallel.innermost(result.order)))
+            .collect(Collectors.toList());
+        final long size = Parallel.innermost(branch.parseState.order).size;
+        ParseState parseState = branch.parseState;
+        for (int index = 0; index < offsets.size(); index++) {
+            if (!offsets.get(index).isPresent()) {
+                return failure();
+            }
+            final BigInteger offset = offsets.get(index).get();
+            if (hasRootAtOffset(parseState.order, token.getCanonical(parseState), offset, parseState.source)) {
+                parseState = parseState.add(new ParseReference(offset, parseState.source, token.getCanonical(parseState)));
+            } else if (results.get(index).isPresent()) {
+                parseState = Parallel.append(parseState, results.get(index).get(), size);
+            } else {
+                return failure();
+            }
+        }
+        return success(parseState.closeBranch())
+            .flatMap(nextParseState -> nextParseState.seek(environment.parseState.offset));
+    }
+
+    private Optional<ParseState> parse(final Environment environment, final BigInteger offset) {
+        return environment.parseState
+            .seek(offset)
+            .flatMap(newParseState -> token.parse(environment.withParseState(newParseState)));
+    }
+
+    private static List<Optional<BigInteger>> toList(final ImmutableList<Optional<Value>> addresses) {
+        final List<Optional<BigInteger>> offsets = new ArrayList<>();
+        for (ImmutableList<Optional<Value>> list = addresses; !list.isEmpty(); list = list.tail) {
+            offsets.add(list.head.map(Value::asNumeric));
+        }
+        return offsets;
+    }
+
+}
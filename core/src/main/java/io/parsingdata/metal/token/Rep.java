@@ -52,7 +52,7 @@ public class Rep extends Token {
         return iterate(environment.addBranch(this)).computeResult();
     }
 
-    private Trampoline<Optional<ParseState>> iterate(final Environment environment) {
+    Trampoline<Optional<ParseState>> iterate(final Environment environment) {
         return token
             .parse(environment)
             .map(nextParseState -> intermediate(() -> iterate(environment.withParseState(nextParseState))))
@@ -66,7 +66,7 @@ public class RepN extends Token {
         return iterate(environment.addBranch(this), counts.head.get().asNumeric().longValueExact()).computeResult();
     }
 
-    private Trampoline<Optional<ParseState>> iterate(final Environment environment, final long count) {
+    Trampoline<Optional<ParseState>> iterate(final Environment environment, final long count) {
         if (count <= 0) {
             return complete(() -> success(environment.parseState.closeBranch()));
         }
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static io.parsingdata.metal.Trampoline.complete;
+import static io.parsingdata.metal.Trampoline.intermediate;
+import static io.parsingdata.metal.Util.checkNotNull;
+import static io.parsingdata.metal.Util.failure;
+import static io.parsingdata.metal.Util.success;
+import static io.parsingdata.metal.data.ParseState.createFromByteStream;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import io.parsingdata.metal.Trampoline;
+import io.parsingdata.metal.data.ByteStream;
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ImmutableList;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.callback.Callback;
+import io.parsingdata.metal.data.callback.Callbacks;
+import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.expression.value.Value;
+
+/**
+ * A parse of a {@link Token} that can be suspended when its input runs out
+ * and resumed when more input has arrived.
+ * <p>
+ * A {@link Seq}, {@link Rep} or {@link RepN} is parsed one nested token at a
+ * time, keeping track of the tokens that enclose the current one. All other
+ * tokens are parsed at once. If any of them requests data that is not
+ * available, whether it succeeds or fails, the parse is suspended before that
+ * token. It is parsed again by {@link #resume()}, starting from the
+ * {@link ParseState} after the tokens that have already been parsed, which
+ * are not parsed again.
+ * <p>
+ * Since any token that requests unavailable data is parsed again, the result
+ * is the same as that of parsing the token once all input has arrived.
+ * Because a token may also fail or stop a repetition when it reaches the end
+ * of the input, the parse only completes once {@link #finish()} is called,
+ * which resumes the parse treating the available input as all there is. The
+ * input must only grow: data that is available must not change.
+ * <p>
+ * {@link Callbacks} are called as they would be by {@link Token#parse}. The
+ * callbacks of a token that is parsed again because it requested unavailable
+ * data are only called for the parse that is not suspended.
+ * <p>
+ * A ResumableParse is immutable. Its input keeps track of requests for
+ * unavailable data, so a suspended parse must not be resumed more than once at
+ * the same time.
+ */
+public class ResumableParse {
+
+    private final TrackingByteStream input;
+    private final ImmutableList<Frame> frames;
+    private final Environment environment;
+    private final Token pending;
+    private final Optional<ParseState> result;
+
+    private ResumableParse(final TrackingByteStream input, final ImmutableList<Frame> frames, final Environment environment, final Token pending, final Optional<ParseState> result) {
+        this.input = input;
+        this.frames = frames;
+        this.environment = environment;
+        this.pending = pending;
+        this.result = result;
+    }
+
+    public static ResumableParse parse(final Token token, final ByteStream input, final Encoding encoding) {
+        return parse(token, input, Callbacks.NONE, encoding);
+    }
+
+    public static ResumableParse parse(final Token token, final ByteStream input, final Callbacks callbacks, final Encoding encoding) {
+        checkNotNull(token, "token");
+        final TrackingByteStream trackingInput = new TrackingByteStream(checkNotNull(input, "input"));
+        return step(trackingInput, new ImmutableList<>(), new Environment(createFromByteStream(trackingInput), checkNotNull(callbacks, "callbacks"), checkNotNull(encoding, "encoding")), token, false).computeResult();
+    }
+
+    public boolean isSuspended() {
+        return result == null;
+    }
+
+    /**
+     * @return The result of the parse
+     * @throws IllegalStateException If the parse is suspended
+     */
+    public Optional<ParseState> getResult() {
+        if (isSuspended()) {
+            throw new IllegalStateException("Parse is suspended.");
+        }
+        return result;
+    }
+
+    /**
+     * @return The offset up to which the input has been parsed
+     */
+    public BigInteger getOffset() {
+        return environment.parseState.offset;
+    }
+
+    /**
+     * Resumes a suspended parse, after more input has arrived.
+     *
+     * @throws IllegalStateException If the parse is not suspended
+     */
+    public ResumableParse resume() {
+        return resume(false);
+    }
+
+    /**
+     * Resumes a suspended parse for the last time, once all input has
+     * arrived. The returned parse is not suspended.
+     *
+     * @throws IllegalStateException If the parse is not suspended
+     */
+    public ResumableParse finish() {
+        return resume(true);
+    }
+
+    private ResumableParse resume(final boolean complete) {
+        if (!isSuspended()) {
+            throw new IllegalStateException("Parse is not suspended.");
+        }
+        return step(input, frames, environment, pending, complete).computeResult();
+    }
+
+    private static boolean isComposite(final Token token) {
+        return token.getClass() == Seq.class || token.getClass() == Rep.class || token.getClass() == RepN.class;
+    }
+
+    private static Trampoline<ResumableParse> step(final TrackingByteStream input, final ImmutableList<Frame> frames, final Environment environment, final Token pending, final boolean complete) {
+        if (pending == null) {
+            return next(input, frames, environment, complete);
+        }
+        if (isComposite(pending)) {
+            return enter(input, frames, environment, pending, complete);
+        }
+        input.exhausted.set(false);
+        final RecordingCallback recording = new RecordingCallback();
+        final Optional<ParseState> result = pending.parse(environment.callbacks == Callbacks.NONE ? environment : new Environment(environment.scope, environment.parseState, Callbacks.create().add(recording), environment.encoding, environment.cache));
+        if (input.exhausted.get() && !complete) {
+            return complete(() -> new ResumableParse(input, frames, environment, pending, null));
+        }
+        recording.replay(environment.callbacks);
+        return result
+            .map(nextParseState -> intermediate(() -> step(input, frames, environment.withParseState(nextParseState), null, complete)))
+            .orElseGet(() -> intermediate(() -> fail(input, frames, environment, complete)));
+    }
+
+    // Does what Token.parse() and the parseImpl() of the composite token do before parsing the first nested token.
+    private static Trampoline<ResumableParse> enter(final TrackingByteStream input, final ImmutableList<Frame> frames, final Environment environment, final Token token, final boolean complete) {
+        final Environment scopedEnvironment = (token.encoding != null ? environment.withEncoding(token.encoding) : environment).extendScope(token.name);
+        long count = 0;
+        if (token instanceof RepN) {
+            final ImmutableList<Optional<Value>> counts = ((RepN) token).n.eval(scopedEnvironment.parseState, scopedEnvironment.encoding);
+            if (counts.size != 1 || !counts.head.isPresent()) {
+                environment.callbacks.handle(token, Callbacks.failure(token, environment.parseState));
+                return intermediate(() -> fail(input, frames, environment, complete));
+            }
+            count = counts.head.get().asNumeric().longValueExact();
+        }
+        final Frame frame = new Frame(token, environment, token instanceof Seq ? ((Seq) token).tokens : new ImmutableList<>(), count);
+        return intermediate(() -> step(input, frames.add(frame), scopedEnvironment.addBranch(token), null, complete));
+    }
+
+    private static Trampoline<ResumableParse> next(final TrackingByteStream input, final ImmutableList<Frame> frames, final Environment environment, final boolean complete) {
+        if (frames.isEmpty()) {
+            return complete(() -> new ResumableParse(input, frames, environment, null, success(environment.parseState)));
+        }
+        final Frame frame = frames.head;
+        if (frame.token instanceof Rep) {
+            return intermediate(() -> step(input, frames, environment, ((Rep) frame.token).token, complete));
+        }
+        if (frame.token instanceof RepN && frame.count > 0) {
+            return intermediate(() -> step(input, frames.tail.add(new Frame(frame.token, frame.outer, frame.remaining, frame.count - 1)), environment, ((RepN) frame.token).token, complete));
+        }
+        if (!frame.remaining.isEmpty()) {
+            return intermediate(() -> step(input, frames.tail.add(new Frame(frame.token, frame.outer, frame.remaining.tail, 0)), environment, frame.remaining.head, complete));
+        }
+        return intermediate(() -> close(input, frames, environment, complete));
+    }
+
+    private static Trampoline<ResumableParse> close(final TrackingByteStream input, final ImmutableList<Frame> frames, final Environment environment, final boolean complete) {
+        final Frame frame = frames.head;
+        final ParseState after = environment.parseState.closeBranch();
+        environment.callbacks.handle(frame.token, Callbacks.success(frame.token, frame.outer.parseState, after));
+        return intermediate(() -> step(input, frames.tail, frame.outer.withParseState(after), null, complete));
+    }
+
+    // A failure ends the innermost enclosing Rep successfully and fails all tokens in between.
+    private static Trampoline<ResumableParse> fail(final TrackingByteStream input, final ImmutableList<Frame> frames, final Environment before, final boolean complete) {
+        if (frames.isEmpty()) {
+            return complete(() -> new ResumableParse(input, frames, before, null, failure()));
+        }
+        final Frame frame = frames.head;
+        if (frame.token instanceof Rep) {
+            return intermediate(() -> close(input, frames, before, complete));
+        }
+        before.callbacks.handle(frame.token, Callbacks.failure(frame.token, frame.outer.parseState));
+        return intermediate(() -> fail(input, frames.tail, frame.outer, complete));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + (isSuspended() ? "suspended:" + pending + "@" + getOffset() : "result:" + result) + ")";
+    }
+
+    private static final class Frame {
+
+        final Token token;
+        final Environment outer; // The environment before token was parsed.
+        final ImmutableList<Token> remaining; // The nested tokens of a Seq that have not been parsed.
+        final long count; // The repetitions of a RepN that have not been parsed.
+
+        Frame(final Token token, final Environment outer, final ImmutableList<Token> remaining, final long count) {
+            this.token = token;
+            this.outer = outer;
+            this.remaining = remaining;
+            this.count = count;
+        }
+
+    }
+
+    // Records the callbacks of a parse, so that they can be called once it is known that it is not suspended.
+    private static final class RecordingCallback implements Callback {
+
+        private final List<Token> tokens = new ArrayList<>();
+        private final List<Consumer<Callback>> handlers = new ArrayList<>();
+
+        @Override
+        public void handleSuccess(final Token token, final ParseState before, final ParseState after) {
+            tokens.add(token);
+            handlers.add(Callbacks.success(token, before, after));
+        }
+
+        @Override
+        public void handleFailure(final Token token, final ParseState before) {
+            tokens.add(token);
+            handlers.add(Callbacks.failure(token, before));
+        }
+
+        void replay(final Callbacks callbacks) {
+            for (int index = 0; index < tokens.size(); index++) {
+                callbacks.handle(tokens.get(index), handlers.get(index));
+            }
+        }
+
+    }
+
+    private static final class TrackingByteStream implements ByteStream {
+
+        final ByteStream input;
+        final AtomicBoolean exhausted = new AtomicBoolean(); // Set when unavailable data is requested.
+
+        TrackingByteStream(final ByteStream input) {
+            this.input = input;
+        }
+
+        @Override
+        public byte[] read(final BigInteger offset, final int length) throws IOException {
+            return input.read(offset, length);
+        }
+
+        @Override
+        public byte[] read(final long offset, final int length) throws IOException {
+            return input.read(offset, length);
+        }
+
+        @Override
+        public ByteBuffer readByteBuffer(final long offset, final int length) throws IOException {
+            return input.readByteBuffer(offset, length);
+        }
+
+        @Override
+        public boolean isAvailable(final BigInteger offset, final int length) {
+            return track(input.isAvailable(offset, length));
+        }
+
+        @Override
+        public boolean isAvailable(final long offset, final int length) {
+            return track(input.isAvailable(offset, length));
+        }
+
+        private boolean track(final boolean available) {
+            if (!available) {
+                exhausted.set(true);
+            }
+            return available;
+        }
+
+        @Override
+        public String toString() {
+            return input.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static java.math.BigInteger.ZERO;
+
+import static io.parsingdata.metal.Util.checkNotEmpty;
+import static io.parsingdata.metal.Util.checkNotNull;
+import static io.parsingdata.metal.Util.failure;
+import static io.parsingdata.metal.Util.success;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+import java.util.Optional;
+
+import io.parsingdata.metal.Util;
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ImmutableList;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.ParseValue;
+import io.parsingdata.metal.data.Slice;
+import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.expression.value.Value;
+import io.parsingdata.metal.expression.value.ValueExpression;
+
+/**
+ * A {@link Token} that specifies a value to parse in the input, consisting
+ * of all bytes up to the first byte that is (or is not) in a class of bytes.
+ * <p>
+ * A Scan consists of <code>bytes</code> (a {@link ValueExpression}) and
+ * <code>include</code> (a boolean). First <code>bytes</code> is evaluated.
+ * The bytes of all resulting values form the class. If <code>include</code>
+ * is <code>true</code>, bytes are consumed as long as they are in the class,
+ * otherwise as long as they are not. All consumed bytes are added as a
+ * single value. Parsing fails if <code>bytes</code> evaluates to an empty
+ * list or to a list that contains an empty value. If no bytes are consumed,
+ * parsing succeeds without adding a value.
+ * <p>
+ * Scanning has the same result as repeating a one byte {@link Def} with a
+ * predicate on the class, but reads the input in large chunks and compares
+ * eight bytes at a time for classes of up to {@link #MAX_WORD_CLASS_SIZE}
+ * bytes.
+ *
+ * @see ValueExpression
+ */
+public class Scan extends Token {
+
+    public static final int MAX_WORD_CLASS_SIZE = 8;
+
+    private static final int MIN_CHUNK_SIZE = 4096;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long ALL_BYTES = 0x0101010101010101L;
+
+    public final ValueExpression bytes;
+    public final boolean include;
+
+    public Scan(final String name, final ValueExpression bytes, final boolean include, final Encoding encoding) {
+        super(checkNotEmpty(name, "name"), encoding);
+        this.bytes = checkNotNull(bytes, "bytes");
+        this.include = include;
+    }
+
+    @Override
+    protected Optional<ParseState> parseImpl(final Environment environment) {
+        final ImmutableList<Optional<Value>> values = bytes.eval(environment.parseState, environment.encoding);
+        if (values.isEmpty()) {
+            return failure();
+        }
+        final boolean[] members = new boolean[256];
+        for (ImmutableList<Optional<Value>> list = values; !list.isEmpty(); list = list.tail) {
+            if (!list.head.isPresent()) {
+                return failure();
+            }
+            for (final byte value : list.head.get().getValue()) {
+                members[value & 0xff] = true;
+            }
+        }
+        final BigInteger size = scan(environment.parseState, members, getWords(members));
+        if (size.signum() == 0) {
+            return success(environment.parseState);
+        }
+        return environment.parseState
+            .slice(size)
+            .map(slice -> environment.parseState.add(new ParseValue(environment.scope, this, slice, environment.encoding)).seek(environment.parseState.offset.add(size)))
+            .orElseGet(Util::failure);
+    }
+
+    // Returns every member of the class repeated in all bytes of a word, or null if the class is too large.
+    private static long[] getWords(final boolean[] members) {
+        int count = 0;
+        for (final boolean member : members) {
+            count += member ? 1 : 0;
+        }
+        if (count > MAX_WORD_CLASS_SIZE) {
+            return null;
+        }
+        final long[] words = new long[count];
+        for (int value = 0; value < members.length; value++) {
+            if (members[value]) {
+                words[--count] = value * ALL_BYTES;
+            }
+        }
+        return words;
+    }
+
+    private BigInteger scan(final ParseState parseState, final boolean[] members, final long[] words) {
+        BigInteger size = ZERO;
+        int chunkSize = MIN_CHUNK_SIZE;
+        while (true) {
+            final Optional<byte[]> data = read(parseState, parseState.offset.add(size), chunkSize);
+            if (!data.isPresent()) {
+                return size;
+            }
+            final int length = span(data.get(), members, words);
+            size = size.add(BigInteger.valueOf(length));
+            if (length < data.get().length) {
+                return size;
+            }
+            chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_SIZE);
+        }
+    }
+
+    // Reads at most length bytes at offset, reading less at the end of the input.
+    private static Optional<byte[]> read(final ParseState parseState, final BigInteger offset, final int length) {
+        for (int size = length; size > 0; size /= 2) {
+            final Optional<Slice> slice = Slice.createFromSource(parseState.source, offset, BigInteger.valueOf(size));
+            if (slice.isPresent()) {
+                return Optional.of(slice.get().getData());
+            }
+        }
+        return Optional.empty();
+    }
+
+    // Returns the number of bytes at the start of data that are consumed.
+    private int span(final byte[] data, final boolean[] members, final long[] words) {
+        int index = 0;
+        if (words != null) {
+            final ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            for (; index + Long.BYTES <= data.length; index += Long.BYTES) {
+                final long stops = getStops(buffer.getLong(index), words);
+                if (stops != 0) {
+                    return index + Long.numberOfTrailingZeros(stops) / Byte.SIZE;
+                }
+            }
+        }
+        while (index < data.length && members[data[index] & 0xff] == include) {
+            index++;
+        }
+        return index;
+    }
+
+    // Returns a word with the high bit set in every byte of word that is not consumed.
+    private long getStops(final long word, final long[] words) {
+        long matches = 0;
+        for (final long member : words) {
+            matches |= getZeroBytes(word ^ member);
+        }
+        return include ? ~matches & HIGH_BITS : matches;
+    }
+
+    // Returns a word with the high bit set in every byte of word that is zero.
+    private static long getZeroBytes(final long word) {
+        return ~((((word & LOW_BITS) + LOW_BITS) | word) | LOW_BITS);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + makeNameFragment() + bytes + "," + include + ")";
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return super.equals(obj)
+            && Objects.equals(bytes, ((Scan)obj).bytes)
+            && Objects.equals(include, ((Scan)obj).include);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), bytes, include);
+    }
+
+}
@@ -22,9 +22,11 @@ import static io.parsingdata.metal.data.callback.Callbacks.success;
 
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.parsingdata.metal.Util;
 import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ParseCache;
 import io.parsingdata.metal.data.ParseState;
 import io.parsingdata.metal.encoding.Encoding;
 
@@ -49,6 +51,11 @@ import io.parsingdata.metal.encoding.Encoding;
  * overrides outer encoding specifications and is passed to nested tokens
  * instead. As such it can itself be overridden by explicit specifications in
  * nested tokens.
+ * <p>
+ * Every Token instance is assigned a unique <code>id</code> on construction.
+ * Unlike {@link #equals(Object)}, which compares the complete structure of
+ * two tokens, the id identifies a single instance. It is not part of the
+ * token's equality and is used for fast lookups during parsing.
  */
 public abstract class Token {
 
@@ -56,17 +63,22 @@ public abstract class Token {
     public static final String SEPARATOR = ".";
     public static final String EMPTY_NAME = "__EMPTY__";
 
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    public final long id;
     public final String name;
     public final Encoding encoding;
 
     protected Token(final String name, final Encoding encoding) {
         this.name = checkNotNull(name, "name");
         this.encoding = encoding;
+        id = NEXT_ID.getAndIncrement();
     }
 
     public Optional<ParseState> parse(final Environment environment) {
         final Environment activeEnvironment = this.encoding != null ? environment.withEncoding(this.encoding) : environment;
-        final Optional<ParseState> result = parseImpl(activeEnvironment.extendScope(name));
+        final Environment scopedEnvironment = activeEnvironment.extendScope(name);
+        final Optional<ParseState> result = activeEnvironment.cache == ParseCache.NONE ? parseImpl(scopedEnvironment) : activeEnvironment.cache.parse(this, scopedEnvironment, this::parseImpl);
         environment.callbacks.handle(this, result
             .map(after -> success(this, environment.parseState, after))
             .orElseGet(() -> failure(this, environment.parseState)));
@@ -92,6 +104,7 @@ public abstract class Token {
         return Util.notNullAndSameClass(this, obj)
             && Objects.equals(name, ((Token)obj).name)
             && Objects.equals(encoding, ((Token)obj).encoding);
+            // The id field is excluded from equals() and hashCode() because it identifies an instance, not a structure.
     }
 
     @Override
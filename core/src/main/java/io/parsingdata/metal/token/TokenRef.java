@@ -16,18 +16,14 @@
 
 package io.parsingdata.metal.token;
 
-import static io.parsingdata.metal.Trampoline.complete;
-import static io.parsingdata.metal.Trampoline.intermediate;
 import static io.parsingdata.metal.Util.checkNotNull;
 import static io.parsingdata.metal.Util.failure;
+import static io.parsingdata.metal.data.Selection.findDefinition;
 
 import java.util.Objects;
 import java.util.Optional;
 
-import io.parsingdata.metal.Trampoline;
 import io.parsingdata.metal.data.Environment;
-import io.parsingdata.metal.data.ImmutableList;
-import io.parsingdata.metal.data.ParseItem;
 import io.parsingdata.metal.data.ParseState;
 import io.parsingdata.metal.encoding.Encoding;
 
@@ -39,8 +35,10 @@ import io.parsingdata.metal.encoding.Encoding;
  * reference an enclosing token and use it at the current location. An example
  * for use of this token is to recursively define a linked list.
  * <p>
- * The referenced token is located in the current parse state by traversing it
- * backwards until it is located. Parsing will fail if it is not found.
+ * The referenced token is the one that is found first when traversing the
+ * current parse state backwards. It is looked up in an index that the parse
+ * state keeps up to date, so the parse state is not traversed. Parsing will
+ * fail if it is not found.
  */
 public class TokenRef extends Token {
 
@@ -63,26 +61,12 @@ public class TokenRef extends Token {
 
     @Override
     protected Optional<ParseState> parseImpl(final Environment environment) {
-        return lookup(ImmutableList.create(environment.parseState.order), referenceName).computeResult().parse(environment);
-    }
-
-    private Trampoline<Token> lookup(final ImmutableList<ParseItem> items, final String referenceName) {
-        if (items.isEmpty()) {
-            return complete(() -> LOOKUP_FAILED);
-        }
-        final ParseItem item = items.head;
-        if (item.getDefinition().name.equals(referenceName)) {
-            return complete(item::getDefinition);
-        }
-        if (item.isGraph() && !item.asGraph().isEmpty()) {
-            return intermediate(() -> lookup(items.tail.add(item.asGraph().tail).add(item.asGraph().head), referenceName));
-        }
-        return intermediate(() -> lookup(items.tail, referenceName));
+        return getCanonical(environment.parseState).parse(environment);
     }
 
     @Override
     public Token getCanonical(final ParseState parseState) {
-        return lookup(ImmutableList.create(parseState.order), referenceName).computeResult();
+        return findDefinition(parseState.order, referenceName).orElse(LOOKUP_FAILED);
     }
 
     @Override
@@ -26,6 +26,7 @@ import static io.parsingdata.metal.Util.checkNotNull;
 import static io.parsingdata.metal.Util.success;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -36,7 +37,11 @@ import io.parsingdata.metal.data.ImmutableList;
 import io.parsingdata.metal.data.ParseState;
 import io.parsingdata.metal.data.ParseValue;
 import io.parsingdata.metal.data.Slice;
+import io.parsingdata.metal.data.callback.Callbacks;
 import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.expression.Expression;
+import io.parsingdata.metal.expression.comparison.Eq;
+import io.parsingdata.metal.expression.value.Const;
 import io.parsingdata.metal.expression.value.Value;
 import io.parsingdata.metal.expression.value.ValueExpression;
 
@@ -62,6 +67,13 @@ import io.parsingdata.metal.expression.value.ValueExpression;
  * as sets of values to attempt. If <code>stepSize</code> is negative,
  * <code>maxSize</code> must be smaller than <code>initialSize</code>.
  * Parsing fails if <code>stepSize</code> is zero.
+ * <p>
+ * If the <code>terminator</code> can only succeed on a constant sequence of
+ * bytes (for instance <code>def(name, con(1), eq(con('\n')))</code>) and
+ * <code>stepSize</code> is positive, the input is searched for that sequence
+ * and the <code>terminator</code> is only parsed where it occurs. When
+ * callbacks are present, the <code>terminator</code> is parsed at every size
+ * so that every failure is reported.
  *
  * @see ValueExpression
  */
@@ -71,10 +83,15 @@ public class Until extends Token {
     public static final ValueExpression DEFAULT_STEP = con(1);
     public static final ValueExpression DEFAULT_MAX = con(Integer.MAX_VALUE);
 
+    private static final int MIN_CHUNK_SIZE = 256;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+
     public final ValueExpression initialSize;
     public final ValueExpression stepSize;
     public final ValueExpression maxSize;
     public final Token terminator;
+    private final byte[] pattern; // Derived from terminator, so pattern and shifts are excluded from equals() and hashCode().
+    private final int[] shifts;
 
     public Until(final String name, final ValueExpression initialSize, final ValueExpression stepSize, final ValueExpression maxSize, final Token terminator, final Encoding encoding) {
         super(checkNotEmpty(name, "name"), encoding);
@@ -82,6 +99,72 @@ public class Until extends Token {
         this.stepSize = stepSize == null ? DEFAULT_STEP : stepSize;
         this.maxSize = maxSize == null ? DEFAULT_MAX : maxSize;
         this.terminator = checkNotNull(terminator, "terminator");
+        pattern = getPattern(terminator);
+        shifts = pattern == null ? null : getShifts(pattern);
+    }
+
+    // Returns the bytes that a successful parse of token always starts with, or null if they are not constant.
+    private static byte[] getPattern(final Token token) {
+        final byte[] constant = getConstant(token);
+        if (constant != null) {
+            return constant;
+        }
+        if (token instanceof Post) {
+            return getPattern(((Post) token).token);
+        }
+        if (token instanceof Pre) {
+            return getPattern(((Pre) token).token);
+        }
+        if (token instanceof Seq) {
+            return getPattern(((Seq) token).tokens, new byte[0]);
+        }
+        return null;
+    }
+
+    // Concatenates the patterns of the tokens at the start of a Seq, up to and including the first that is not entirely constant.
+    private static byte[] getPattern(final ImmutableList<Token> tokens, final byte[] pattern) {
+        final byte[] next = tokens.isEmpty() ? null : getPattern(tokens.head);
+        if (next == null) {
+            return pattern.length == 0 ? null : pattern;
+        }
+        final byte[] result = Arrays.copyOf(pattern, pattern.length + next.length);
+        System.arraycopy(next, 0, result, pattern.length, next.length);
+        return isConstant(tokens.head) ? getPattern(tokens.tail, result) : result;
+    }
+
+    // Returns the bytes of a def with a constant size and a predicate that they equal a constant, or null if token is not such a def.
+    private static byte[] getConstant(final Token token) {
+        if (token instanceof Post && ((Post) token).token instanceof Def) {
+            final ValueExpression size = ((Def) ((Post) token).token).size;
+            final Expression predicate = ((Post) token).predicate;
+            if (size instanceof Const && predicate instanceof Eq && ((Eq) predicate).value == null && ((Eq) predicate).predicate instanceof Const) {
+                final byte[] constant = ((Const) ((Eq) predicate).predicate).value.getValue();
+                return constant.length > 0 && ((Const) size).value.asNumeric().equals(BigInteger.valueOf(constant.length)) ? constant : null;
+            }
+        }
+        return null;
+    }
+
+    // Returns whether a successful parse of token always consists of exactly its pattern.
+    private static boolean isConstant(final Token token) {
+        if (getConstant(token) != null) {
+            return true;
+        }
+        if (token instanceof Post) {
+            return isConstant(((Post) token).token);
+        }
+        if (token instanceof Pre) {
+            return isConstant(((Pre) token).token);
+        }
+        if (token instanceof Seq) {
+            for (ImmutableList<Token> tokens = ((Seq) token).tokens; !tokens.isEmpty(); tokens = tokens.tail) {
+                if (!isConstant(tokens.head)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -105,6 +188,14 @@ public class Until extends Token {
             stepSize.compareTo(ZERO) < 0 && currentSize.compareTo(maxSize) < 0) {
             return complete(Util::failure);
         }
+        if (pattern != null && stepSize.compareTo(ZERO) > 0 && environment.callbacks == Callbacks.NONE) {
+            return findPattern(environment.parseState, currentSize, stepSize, maxSize)
+                .map(size -> environment.parseState
+                    .slice(size)
+                    .map(slice -> parseSlice(environment, size, stepSize, maxSize, slice))
+                    .orElseGet(() -> complete(Util::failure)))
+                .orElseGet(() -> complete(Util::failure));
+        }
         return environment.parseState
             .slice(currentSize)
             .map(slice -> parseSlice(environment, currentSize, stepSize, maxSize, slice))
@@ -119,6 +210,63 @@ public class Until extends Token {
             .orElseGet(() -> intermediate(() -> iterate(environment, currentSize.add(stepSize), stepSize, maxSize)));
     }
 
+    // Returns the smallest size from currentSize up to maxSize, in steps of stepSize, at which the pattern occurs in the input.
+    private Optional<BigInteger> findPattern(final ParseState parseState, final BigInteger currentSize, final BigInteger stepSize, final BigInteger maxSize) {
+        final BigInteger end = parseState.offset.add(maxSize);
+        BigInteger start = parseState.offset.add(currentSize);
+        int chunkSize = MIN_CHUNK_SIZE;
+        while (start.compareTo(end) <= 0) {
+            final Optional<byte[]> data = read(parseState, start, end.subtract(start).add(BigInteger.valueOf(pattern.length)).min(BigInteger.valueOf(chunkSize)).intValueExact());
+            if (!data.isPresent()) {
+                return Optional.empty();
+            }
+            final byte[] bytes = data.get();
+            for (int index = search(bytes, 0); index >= 0; index = search(bytes, index + 1)) {
+                final BigInteger size = start.add(BigInteger.valueOf(index)).subtract(parseState.offset);
+                if (size.subtract(currentSize).mod(stepSize).signum() == 0) {
+                    return Optional.of(size);
+                }
+            }
+            start = start.add(BigInteger.valueOf(bytes.length - pattern.length + 1));
+            chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_SIZE);
+        }
+        return Optional.empty();
+    }
+
+    // Reads at most length bytes at offset, reading less at the end of the input, but at least the length of the pattern.
+    private Optional<byte[]> read(final ParseState parseState, final BigInteger offset, final int length) {
+        for (int size = length; size >= pattern.length; size = size == pattern.length ? 0 : Math.max(size / 2, pattern.length)) {
+            final Optional<Slice> slice = Slice.createFromSource(parseState.source, offset, BigInteger.valueOf(size));
+            if (slice.isPresent()) {
+                return Optional.of(slice.get().getData());
+            }
+        }
+        return Optional.empty();
+    }
+
+    // Returns the first index from start at which the pattern occurs in data, or -1 (Boyer-Moore-Horspool).
+    private int search(final byte[] data, final int start) {
+        final int last = pattern.length - 1;
+        for (int index = start; index + last < data.length; index += shifts[data[index + last] & 0xff]) {
+            int position = last;
+            while (data[index + position] == pattern[position]) {
+                if (position-- == 0) {
+                    return index;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int[] getShifts(final byte[] pattern) {
+        final int[] shifts = new int[256];
+        Arrays.fill(shifts, pattern.length);
+        for (int index = 0; index < pattern.length - 1; index++) {
+            shifts[pattern[index] & 0xff] = pattern.length - 1 - index;
+        }
+        return shifts;
+    }
+
     private boolean checkNotValidList(final ImmutableList<Optional<Value>> list) {
         return list.isEmpty() || !list.head.isPresent();
     }
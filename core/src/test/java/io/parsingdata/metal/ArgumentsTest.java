@@ -60,6 +60,10 @@ import io.parsingdata.metal.expression.value.reference.Nth;
 import io.parsingdata.metal.expression.value.reference.Offset;
 import io.parsingdata.metal.token.Cho;
 import io.parsingdata.metal.token.Def;
+import io.parsingdata.metal.token.ParallelCho;
+import io.parsingdata.metal.token.ParallelRep;
+import io.parsingdata.metal.token.ParallelRepN;
+import io.parsingdata.metal.token.ParallelSub;
 import io.parsingdata.metal.token.Pre;
 import io.parsingdata.metal.token.Rep;
 import io.parsingdata.metal.token.RepN;
@@ -123,6 +127,9 @@ public class ArgumentsTest {
             { Cho.class, new Object[] { VALID_NAME, null, VALID_T, null, new Token[] { VALID_T } } },
             { Cho.class, new Object[] { VALID_NAME, null, VALID_T, VALID_T, new Token[] { null } } },
             { Cho.class, new Object[] { VALID_NAME, null, VALID_T, VALID_T, null } },
+            { ParallelCho.class, new Object[] { null, null, VALID_T, VALID_T, new Token[] { VALID_T } } },
+            { ParallelCho.class, new Object[] { VALID_NAME, null, null, VALID_T, new Token[] { VALID_T } } },
+            { ParallelCho.class, new Object[] { VALID_NAME, null, VALID_T, VALID_T, null } },
             { Def.class, new Object[] { VALID_NAME, null, null } },
             { Def.class, new Object[] { null, VALID_VE, null } },
             { Pre.class, new Object[] { null, VALID_T, null, null } },
@@ -132,6 +139,11 @@ public class ArgumentsTest {
             { RepN.class, new Object[] { null, VALID_T, VALID_VE, null } },
             { RepN.class, new Object[] { VALID_NAME, null, VALID_VE, null } },
             { RepN.class, new Object[] { VALID_NAME, VALID_T, null, null } },
+            { ParallelRep.class, new Object[] { null, VALID_T, null } },
+            { ParallelRep.class, new Object[] { VALID_NAME, null, null } },
+            { ParallelRepN.class, new Object[] { null, VALID_T, VALID_VE, null } },
+            { ParallelRepN.class, new Object[] { VALID_NAME, null, VALID_VE, null } },
+            { ParallelRepN.class, new Object[] { VALID_NAME, VALID_T, null, null } },
             { Seq.class, new Object[] { null, null, VALID_T, VALID_T, new Token[] { VALID_T } } },
             { Seq.class, new Object[] { VALID_NAME, null, null, VALID_T, new Token[] { VALID_T } } },
             { Seq.class, new Object[] { VALID_NAME, null, VALID_T, null, new Token[] { VALID_T } } },
@@ -140,6 +152,9 @@ public class ArgumentsTest {
             { Sub.class, new Object[] { null, VALID_T, VALID_VE, null } },
             { Sub.class, new Object[] { VALID_NAME, VALID_T, null, null } },
             { Sub.class, new Object[] { VALID_NAME, null, VALID_VE, null } },
+            { ParallelSub.class, new Object[] { null, VALID_T, VALID_VE, null } },
+            { ParallelSub.class, new Object[] { VALID_NAME, VALID_T, null, null } },
+            { ParallelSub.class, new Object[] { VALID_NAME, null, VALID_VE, null } },
             { While.class, new Object[] { null, VALID_T, null, null } },
             { While.class, new Object[] { VALID_NAME, null, null, null } },
             { TokenRef.class, new Object[] { VALID_NAME, null, null } },
@@ -107,11 +107,17 @@ import io.parsingdata.metal.expression.value.reference.Len;
 import io.parsingdata.metal.expression.value.reference.Nth;
 import io.parsingdata.metal.expression.value.reference.Offset;
 import io.parsingdata.metal.token.Cho;
+import io.parsingdata.metal.token.Compiled;
 import io.parsingdata.metal.token.Def;
+import io.parsingdata.metal.token.ParallelCho;
+import io.parsingdata.metal.token.ParallelRep;
+import io.parsingdata.metal.token.ParallelRepN;
+import io.parsingdata.metal.token.ParallelSub;
 import io.parsingdata.metal.token.Post;
 import io.parsingdata.metal.token.Pre;
 import io.parsingdata.metal.token.Rep;
 import io.parsingdata.metal.token.RepN;
+import io.parsingdata.metal.token.Scan;
 import io.parsingdata.metal.token.Seq;
 import io.parsingdata.metal.token.Sub;
 import io.parsingdata.metal.token.Tie;
@@ -147,6 +153,7 @@ public class AutoEqualityTest {
     private static final List<Supplier<Object>> BYTE_ARRAYS = Arrays.asList(() -> new byte[] { 0 }, () -> new byte[] { 1, 2 }, () -> new byte[] {});
     private static final List<Supplier<Object>> SOURCES = Arrays.asList(() -> new ConstantSource(new byte[] {}), () -> new DataExpressionSource(ref("x"), 8, createFromByteStream(DUMMY_STREAM).add(PARSE_VALUE), signed()));
     private static final List<Supplier<Object>> LONGS = Arrays.asList(() -> 0L, () -> 1L, () -> 31L, () -> 100000L);
+    private static final List<Supplier<Object>> BOOLEANS = Arrays.asList(() -> true, () -> false);
     private static final List<Supplier<Object>> INTEGERS = Arrays.asList(() -> 0, () -> 1, () -> 17, () -> 21212121);
     private static final List<Supplier<Object>> PARSE_GRAPHS = Arrays.asList(() -> ParseGraph.EMPTY, () -> GRAPH_WITH_REFERENCE);
     private static final List<Supplier<Object>> PARSE_ITEMS = Arrays.asList(() -> CLOSED_BRANCHED_GRAPH, () -> ParseGraph.EMPTY, () -> GRAPH_WITH_REFERENCE, () -> createFromByteStream(DUMMY_STREAM).add(PARSE_VALUE).order, () -> createFromByteStream(DUMMY_STREAM).add(PARSE_VALUE).add(PARSE_VALUE).order, () -> BRANCHED_GRAPH);
@@ -168,6 +175,7 @@ public class AutoEqualityTest {
         put(Source.class, SOURCES);
         put(long.class, LONGS);
         put(int.class, INTEGERS);
+        put(boolean.class, BOOLEANS);
         put(ParseGraph.class, PARSE_GRAPHS);
         put(ParseItem.class, PARSE_ITEMS);
         put(ByteStream.class, BYTE_STREAMS);
@@ -181,7 +189,8 @@ public class AutoEqualityTest {
         return generateObjectArrays(
             // Tokens
             Cho.class, Def.class, Pre.class, Rep.class, RepN.class, Seq.class, Sub.class, Tie.class,
-            TokenRef.class, While.class, Post.class, Until.class,
+            TokenRef.class, While.class, Post.class, Until.class, Scan.class, Compiled.class,
+            ParallelSub.class, ParallelCho.class, ParallelRep.class, ParallelRepN.class,
             // ValueExpressions
             Len.class, Offset.class, Neg.class, Not.class, Count.class, First.class, Last.class, Reverse.class,
             And.class, Or.class, ShiftLeft.class, ShiftRight.class, Add.class, Div.class, Mod.class, Mul.class,
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.eq;
+import static io.parsingdata.metal.Shorthand.last;
+import static io.parsingdata.metal.Shorthand.ref;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.util.EncodingFactory.enc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import io.parsingdata.metal.data.ByteStream;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.token.Token;
+import io.parsingdata.metal.util.InMemoryByteStream;
+
+public class ParseServiceTest {
+
+    private static final Token SIZED = seq(def("size", con(1)), def("data", last(ref("size"))), def("end", con(1), eq(con(0))));
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private static ByteStream input(final int size) {
+        final byte[] data = new byte[size + 2];
+        data[0] = (byte) size;
+        return new InMemoryByteStream(data);
+    }
+
+    @Test
+    public void parseBatch() throws Exception {
+        final List<ByteStream> inputs = new ArrayList<>();
+        for (int size = 0; size < 100; size++) {
+            inputs.add(input(size));
+        }
+        inputs.add(new InMemoryByteStream(new byte[] { 1, 0, 1 }));
+        try (final ParseService service = ParseService.create(4)) {
+            final List<CompletableFuture<Optional<ParseState>>> results = service.submitAll(SIZED, inputs, enc());
+            assertEquals(101, results.size());
+            for (int size = 0; size < 100; size++) {
+                assertEquals(BigInteger.valueOf(size + 2), results.get(size).get().get().offset);
+            }
+            assertFalse(results.get(100).get().isPresent());
+            assertEquals(101, service.parses());
+            assertEquals(1, service.failures());
+            assertEquals(0, service.errors());
+            assertEquals(100 * 99 / 2 + 200, service.bytes());
+            assertTrue(service.parsesPerSecond() > 0);
+            assertTrue(service.bytesPerSecond() > 0);
+            assertEquals("ParseService(maxConcurrency:4;parses:101;bytes:5150;failures:1;errors:0)", service.toString());
+        }
+    }
+
+    @Test
+    public void error() throws Exception {
+        final ByteStream failing = new ByteStream() {
+            @Override public byte[] read(final BigInteger offset, final int length) throws IOException { throw new IOException("read"); }
+            @Override public boolean isAvailable(final BigInteger offset, final int length) { return true; }
+        };
+        try (final ParseService service = ParseService.create(1)) {
+            final CompletableFuture<Optional<ParseState>> result = service.submit(SIZED, failing, enc());
+            thrown.expect(ExecutionException.class);
+            try {
+                result.get();
+            } finally {
+                assertEquals(0, service.parses());
+                assertEquals(1, service.errors());
+                // The permit of the failed parse is released.
+                assertTrue(service.submit(SIZED, input(1), enc()).get().isPresent());
+            }
+        }
+    }
+
+    @Test
+    public void backpressure() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final ByteStream blocking = new InMemoryByteStream(new byte[] { 0, 0 }) {
+            @Override public byte[] read(final BigInteger offset, final int length) throws IOException {
+                try {
+                    release.await();
+                } catch (final InterruptedException exception) {
+                    throw new IOException(exception);
+                }
+                return super.read(offset, length);
+            }
+        };
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final ParseService service = ParseService.create(executor, 1);
+            final CompletableFuture<Optional<ParseState>> first = service.submit(SIZED, blocking, enc());
+            // The second submit runs on its own thread, which blocks on the permit held by the first parse.
+            final AtomicReference<CompletableFuture<Optional<ParseState>>> second = new AtomicReference<>();
+            final Thread submitter = new Thread(() -> {
+                try {
+                    second.set(service.submit(SIZED, input(1), enc()));
+                } catch (final InterruptedException exception) {
+                    throw new IllegalStateException(exception);
+                }
+            });
+            submitter.start();
+            while (submitter.getState() != Thread.State.WAITING && submitter.getState() != Thread.State.TERMINATED) {
+                Thread.yield();
+            }
+            assertEquals(Thread.State.WAITING, submitter.getState());
+            assertNull(second.get());
+            release.countDown();
+            submitter.join();
+            assertTrue(first.get().isPresent());
+            assertTrue(second.get().get().isPresent());
+            assertEquals(2, service.parses());
+            service.close();
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void invalidMaxConcurrency() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Argument maxConcurrency must be positive.");
+        ParseService.create(0);
+    }
+
+    @Test
+    public void invalidMaxConcurrencyWithExecutor() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Argument maxConcurrency must be positive.");
+        ParseService.create(Executors.newSingleThreadExecutor(), 0);
+    }
+
+}
@@ -26,13 +26,17 @@ import static io.parsingdata.metal.util.ParseStateFactory.stream;
 
 import java.util.Optional;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 
 import io.parsingdata.metal.data.ImmutableList;
 import io.parsingdata.metal.expression.value.Value;
 
 public class UtilInflateTest {
 
+    @Rule public final ExpectedException thrown = ExpectedException.none();
+
     @Test
     public void inflateDataFormatError() {
         final ImmutableList<Optional<Value>> result = inflate(con(0xffffffff)).eval(stream(), enc());
@@ -40,4 +44,18 @@ public class UtilInflateTest {
         assertFalse(result.head.isPresent());
     }
 
+    @Test
+    public void inflateTruncated() {
+        final ImmutableList<Optional<Value>> result = inflate(con(0xcb, 0x4d, 0x2d)).eval(stream(), enc());
+        assertEquals(1, result.size);
+        assertFalse(result.head.isPresent());
+    }
+
+    @Test
+    public void inflateInvalidCheckpointSpacing() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Argument checkpointSpacing must be positive.");
+        inflate(con(0xcb, 0x4d, 0x2d), Long.MAX_VALUE, 0);
+    }
+
 }
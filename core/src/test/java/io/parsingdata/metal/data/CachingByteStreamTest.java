@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static java.math.BigInteger.ONE;
+import static java.math.BigInteger.ZERO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.data.ParseState.createFromByteStream;
+import static io.parsingdata.metal.util.EncodingFactory.enc;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import io.parsingdata.metal.util.InMemoryByteStream;
+
+public class CachingByteStreamTest {
+
+    @Rule public final ExpectedException thrown = ExpectedException.none();
+
+    private CountingByteStream counting;
+
+    @Before
+    public void setUp() {
+        final byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        counting = new CountingByteStream(new InMemoryByteStream(data));
+    }
+
+    @Test
+    public void smallReadsFromSinglePage() throws IOException {
+        final CachingByteStream stream = new CachingByteStream(counting, 16, 1024, 2);
+        for (int i = 0; i < 8; i++) {
+            assertArrayEquals(new byte[] { (byte) (i * 2), (byte) (i * 2 + 1) }, stream.read(BigInteger.valueOf(i * 2), 2));
+        }
+        assertEquals(1, counting.reads);
+        assertEquals(7, stream.getHits());
+        assertEquals(1, stream.getMisses());
+        assertEquals(0, stream.getEvictions());
+    }
+
+    @Test
+    public void readAcrossPages() throws IOException {
+        final CachingByteStream stream = new CachingByteStream(counting, 8, 1024, 4);
+        assertArrayEquals(new byte[] { 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17 }, stream.read(BigInteger.valueOf(6), 12));
+        assertEquals(3, counting.reads);
+    }
+
+    @Test
+    public void readByteBuffer() throws IOException {
+        final CachingByteStream stream = new CachingByteStream(counting, 16, 1024, 2);
+        assertEquals(ByteBuffer.wrap(new byte[] { 2, 3, 4 }), stream.readByteBuffer(2, 3));
+        assertEquals(ByteBuffer.wrap(new byte[] { 14, 15, 16, 17 }), stream.readByteBuffer(14, 4));
+        assertEquals(ByteBuffer.wrap(new byte[] { 97, 98 }), stream.readByteBuffer(97, 2));
+        assertTrue(stream.readByteBuffer(5, 1).isReadOnly());
+        assertEquals(3, counting.reads);
+    }
+
+    @Test
+    public void readTailPassesThrough() throws IOException {
+        final CachingByteStream stream = new CachingByteStream(counting, 16, 1024, 1);
+        assertArrayEquals(new byte[] { 94, 95, 96, 97, 98, 99 }, stream.read(BigInteger.valueOf(94), 6));
+        assertArrayEquals(new byte[] { 96, 97, 98, 99 }, stream.read(BigInteger.valueOf(96), 4));
+        assertEquals(3, counting.reads);
+    }
+
+    @Test
+    public void isAvailableFromCache() throws IOException {
+        final CachingByteStream stream = new CachingByteStream(counting, 16, 1024, 1);
+        stream.read(ZERO, 1);
+        final int before = counting.availabilityChecks;
+        assertTrue(stream.isAvailable(ONE, 15));
+        assertEquals(before, counting.availabilityChecks);
+        assertTrue(stream.isAvailable(ONE, 16));
+        assertFalse(stream.isAvailable(BigInteger.valueOf(90), 11));
+        assertEquals(before + 2, counting.availabilityChecks);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        final CachingByteStream stream = new CachingByteStream(counting, 10, 20, 1);
+        stream.read(ZERO, 1);
+        stream.read(BigInteger.valueOf(10), 1);
+        stream.read(ZERO, 1);
+        stream.read(BigInteger.valueOf(20), 1);
+        assertEquals(1, stream.getEvictions());
+        stream.read(ZERO, 1);
+        assertEquals(2, stream.getHits());
+        stream.read(BigInteger.valueOf(10), 1);
+        assertEquals(4, stream.getMisses());
+        assertEquals(4, counting.reads);
+    }
+
+    @Test
+    public void readNotAvailable() throws IOException {
+        thrown.expect(IOException.class);
+        new CachingByteStream(counting, 16, 1024, 1).read(BigInteger.valueOf(96), 5);
+    }
+
+    @Test
+    public void parseThroughCache() {
+        final CachingByteStream stream = new CachingByteStream(counting, 32, 64, 2);
+        final Optional<ParseState> result = rep(def("a", con(3))).parse(env(createFromByteStream(stream), enc()));
+        assertTrue(result.isPresent());
+        assertEquals(99, result.get().offset.intValueExact());
+        ImmutableList<ParseValue> values = Selection.getAllValues(result.get().order, value -> true);
+        for (int offset = 0; !values.isEmpty(); offset += 3, values = values.tail) {
+            assertArrayEquals(new byte[] { (byte) offset, (byte) (offset + 1), (byte) (offset + 2) }, values.head.getValue());
+        }
+        assertEquals(4, stream.getMisses());
+        assertEquals(1, stream.getEvictions());
+        assertEquals(4, counting.reads);
+    }
+
+    @Test
+    public void invalidPageSize() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Argument pageSize must be positive.");
+        new CachingByteStream(counting, 0, 1024, 1);
+    }
+
+    @Test
+    public void maxBytesBelowOnePagePerSegment() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Argument maxBytes must be at least pageSize * segments.");
+        new CachingByteStream(counting, 16, 63, 4);
+    }
+
+    @Test
+    public void equality() {
+        final CachingByteStream stream = new CachingByteStream(counting);
+        assertEquals(stream, new CachingByteStream(counting));
+        assertEquals(stream.hashCode(), new CachingByteStream(counting).hashCode());
+        assertNotEquals(stream, new CachingByteStream(counting, 8, 1024, 1));
+        assertNotEquals(stream, null);
+        assertTrue(stream.toString().startsWith("CachingByteStream(CountingByteStream"));
+    }
+
+    private static class CountingByteStream implements ByteStream {
+
+        private final ByteStream byteStream;
+        int reads;
+        int availabilityChecks;
+
+        CountingByteStream(final ByteStream byteStream) {
+            this.byteStream = byteStream;
+        }
+
+        @Override
+        public byte[] read(final BigInteger offset, final int length) throws IOException {
+            reads++;
+            return byteStream.read(offset, length);
+        }
+
+        @Override
+        public boolean isAvailable(final BigInteger offset, final int length) {
+            availabilityChecks++;
+            return byteStream.isAvailable(offset, length);
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName();
+        }
+
+    }
+
+}
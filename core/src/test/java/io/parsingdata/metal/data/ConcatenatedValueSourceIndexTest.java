@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static java.math.BigInteger.ZERO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import static io.parsingdata.metal.data.Slice.createFromSource;
+import static io.parsingdata.metal.expression.value.ConstantFactory.createFromBytes;
+import static io.parsingdata.metal.util.EncodingFactory.enc;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import io.parsingdata.metal.expression.value.Value;
+
+public class ConcatenatedValueSourceIndexTest {
+
+    private static final int PART_SIZE = 3;
+
+    @Test
+    public void readManySmallParts() {
+        // Every read finds its first part by a binary search, so doubling the parts adds at most one lookup to it.
+        assertEquals(14, readParts(10000));
+        assertEquals(15, readParts(20000));
+    }
+
+    // Reads every part of a source of count parts and returns the most part lookups done by a single read.
+    private static long readParts(final int count) {
+        final byte[] data = new byte[count * PART_SIZE];
+        ImmutableList<Optional<Value>> values = new ImmutableList<>();
+        for (int i = 0; i < count; i++) {
+            final byte[] part = new byte[PART_SIZE];
+            for (int j = 0; j < PART_SIZE; j++) {
+                part[j] = (byte) (i * PART_SIZE + j);
+            }
+            System.arraycopy(part, 0, data, i * PART_SIZE, PART_SIZE);
+            values = values.add(Optional.of(createFromBytes(part, enc())));
+        }
+        final ConcatenatedValueSource source = ConcatenatedValueSource.create(values).get();
+        assertEquals(BigInteger.valueOf(data.length), source.length);
+        long maxLookups = 0;
+        for (int offset = 0; offset + 5 <= data.length; offset += 7) {
+            final byte[] expected = new byte[5];
+            System.arraycopy(data, offset, expected, 0, expected.length);
+            LookupStatistics.reset();
+            assertArrayEquals(expected, source.getData(BigInteger.valueOf(offset), BigInteger.valueOf(5)));
+            maxLookups = Math.max(maxLookups, LookupStatistics.PART_LOOKUPS.sum());
+        }
+        assertArrayEquals(data, source.getData(ZERO, BigInteger.valueOf(data.length)));
+        return maxLookups;
+    }
+
+    @Test
+    public void skipEmptyParts() {
+        final byte[] source = new byte[] { 1, 2, 3 };
+        final ImmutableList<Optional<Value>> values = ImmutableList
+            .create(Optional.of(new Value(createFromSource(new ConstantSource(source), 2L, 1L).get(), enc())))
+            .add(Optional.of(new Value(createFromSource(new ConstantSource(source), 0L, 0L).get(), enc())))
+            .add(Optional.of(new Value(createFromSource(new ConstantSource(source), 0L, 0L).get(), enc())))
+            .add(Optional.of(new Value(createFromSource(new ConstantSource(source), 0L, 2L).get(), enc())))
+            .add(Optional.of(new Value(createFromSource(new ConstantSource(source), 1L, 0L).get(), enc())));
+        final ConcatenatedValueSource cvs = ConcatenatedValueSource.create(values).get();
+        assertArrayEquals(new byte[] { 3, 1, 2 }, cvs.getData(ZERO, BigInteger.valueOf(3)));
+        assertArrayEquals(new byte[] { 1 }, cvs.getData(BigInteger.ONE, BigInteger.ONE));
+        assertArrayEquals(new byte[] {}, cvs.getData(BigInteger.valueOf(3), ZERO));
+    }
+
+    @Test
+    public void byteBufferWithinAndAcrossParts() {
+        final ConcatenatedValueSource cvs = ConcatenatedValueSourceTest.cvs;
+        assertEquals(ByteBuffer.wrap(new byte[] { 6, 7, 8 }), cvs.getByteBuffer(6, 3));
+        assertEquals(ByteBuffer.wrap(new byte[] { 8, 9, 10, 11 }), cvs.getByteBuffer(8, 4));
+        assertEquals(0, cvs.getByteBuffer(25, 0).remaining());
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.last;
+import static io.parsingdata.metal.Shorthand.ref;
+import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.Shorthand.sub;
+import static io.parsingdata.metal.Shorthand.tie;
+import static io.parsingdata.metal.Util.inflate;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+import static io.parsingdata.metal.util.ParseStateFactory.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.parsingdata.metal.data.selection.ByName;
+
+public class IndexedInflatedSourceTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final byte[] DATA = generate(300000);
+    private static final byte[] DEFLATED = deflateMixed(DATA);
+
+    private static byte[] generate(final int size) {
+        final Random random = new Random(3);
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i % 5000 < 2500 ? random.nextInt(8) + 'a' : random.nextInt(256));
+        }
+        return data;
+    }
+
+    // Varies the compression level so that stored, fixed and dynamic blocks all occur.
+    private static byte[] deflateMixed(final byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        final int[] levels = { Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION };
+        for (int chunk = 0; chunk * 10000 < data.length; chunk++) {
+            deflater.setLevel(levels[chunk % levels.length]);
+            deflater.setInput(data, chunk * 10000, Math.min(10000, data.length - chunk * 10000));
+            int count;
+            do {
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, count);
+            } while (count == buffer.length || !deflater.needsInput());
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void indexHasCheckpoints() {
+        final InflateIndex index = InflateIndex.build(Slice.createFromBytes(DEFLATED), 16 * 1024, Long.MAX_VALUE).get();
+        assertTrue(index.size() > 5);
+        assertEquals(DATA.length, index.outputLength);
+        assertEquals(DEFLATED.length, index.inputLength);
+    }
+
+    @Test
+    public void sequentialRead() {
+        final Slice slice = IndexedInflatedSource.inflate(Slice.createFromBytes(DEFLATED), 16 * 1024, Long.MAX_VALUE).get();
+        assertEquals(BigInteger.valueOf(DATA.length), slice.length);
+        assertArrayEquals(DATA, slice.getData());
+    }
+
+    @Test
+    public void randomAccess() {
+        final InflateIndex index = InflateIndex.build(Slice.createFromBytes(DEFLATED), 8 * 1024, Long.MAX_VALUE).get();
+        final Slice slice = IndexedInflatedSource.inflate(Slice.createFromBytes(DEFLATED), index, 1024).get();
+        final Random random = new Random(11);
+        for (int i = 0; i < 300; i++) {
+            final int offset = random.nextInt(DATA.length - 3000);
+            final int length = random.nextInt(3000);
+            assertArrayEquals(Arrays.copyOfRange(DATA, offset, offset + length), slice.source.getData((long) offset, length));
+        }
+    }
+
+    @Test
+    public void singleFixedBlock() {
+        final Slice slice = IndexedInflatedSource.inflate(Slice.createFromBytes(new byte[] { (byte) 0xcb, 0x4d, 0x2d, 0x49, (byte) 0xcc, 0x01, 0x00 }), 1, Long.MAX_VALUE).get();
+        assertEquals("metal", new String(slice.getData()));
+    }
+
+    @Test
+    public void invalidInput() {
+        assertFalse(IndexedInflatedSource.inflate(Slice.createFromBytes(new byte[] { -1, -1, -1, -1 }), 1024, Long.MAX_VALUE).isPresent());
+        assertFalse(IndexedInflatedSource.inflate(Slice.createFromBytes(Arrays.copyOf(DEFLATED, DEFLATED.length / 2)), 1024, Long.MAX_VALUE).isPresent());
+        assertFalse(IndexedInflatedSource.inflate(Slice.createFromBytes(DEFLATED), 1024, DATA.length - 1).isPresent());
+    }
+
+    @Test
+    public void writeAndReadIndex() throws IOException {
+        final InflateIndex index = InflateIndex.build(Slice.createFromBytes(DEFLATED), 16 * 1024, Long.MAX_VALUE).get();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.writeTo(out);
+        final InflateIndex read = InflateIndex.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(index.size(), read.size());
+        final Slice slice = IndexedInflatedSource.inflate(Slice.createFromBytes(DEFLATED), read, 4096).get();
+        assertArrayEquals(Arrays.copyOfRange(DATA, 250000, 260000), slice.source.getData(250000L, 10000));
+    }
+
+    @Test(expected = IOException.class)
+    public void readInvalidIndex() throws IOException {
+        InflateIndex.readFrom(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+    }
+
+    @Test
+    public void indexSideFile() throws IOException {
+        final Path indexFile = folder.getRoot().toPath().resolve("evidence.idx");
+        final Slice first = IndexedInflatedSource.inflate(Slice.createFromBytes(DEFLATED), 16 * 1024, Long.MAX_VALUE, indexFile).get();
+        assertTrue(indexFile.toFile().exists());
+        final Slice second = IndexedInflatedSource.inflate(Slice.createFromBytes(DEFLATED), 16 * 1024, Long.MAX_VALUE, indexFile).get();
+        assertEquals(InflateIndex.load(indexFile).size(), ((IndexedInflatedSource) second.source).index.size());
+        assertArrayEquals(first.source.getData(123456L, 1000), second.source.getData(123456L, 1000));
+        // An index that does not match the input is rebuilt.
+        final byte[] other = deflateMixed(Arrays.copyOf(DATA, 1000));
+        final Slice rebuilt = IndexedInflatedSource.inflate(Slice.createFromBytes(other), 16 * 1024, Long.MAX_VALUE, indexFile).get();
+        assertArrayEquals(Arrays.copyOf(DATA, 1000), rebuilt.getData());
+        assertEquals(other.length, InflateIndex.load(indexFile).inputLength);
+    }
+
+    @Test
+    public void indexOfInputWithSameLength() throws IOException {
+        final Path indexFile = folder.getRoot().toPath().resolve("evidence.idx");
+        final byte[] first = deflateMixed(Arrays.copyOf(DATA, 20000));
+        IndexedInflatedSource.inflate(Slice.createFromBytes(first), 4096, Long.MAX_VALUE, indexFile).get();
+        final InflateIndex stale = InflateIndex.load(indexFile);
+        final byte[] changed = generate(20000);
+        changed[12345] ^= 1;
+        final byte[] second = deflateMixed(changed);
+        assertEquals(first.length, second.length);
+        assertFalse(IndexedInflatedSource.inflate(Slice.createFromBytes(second), stale, 4096).isPresent());
+        final Slice rebuilt = IndexedInflatedSource.inflate(Slice.createFromBytes(second), 4096, Long.MAX_VALUE, indexFile).get();
+        assertArrayEquals(changed, rebuilt.getData());
+        assertFalse(stale.equals(InflateIndex.load(indexFile)));
+    }
+
+    @Test
+    public void checksumOfLargeInput() {
+        // Only the start and end of the input are checked, so that using an index does not require reading all of it.
+        assertTrue(DEFLATED.length > 2 * InflateIndex.CHECKSUM_SAMPLE_SIZE);
+        final InflateIndex index = InflateIndex.build(Slice.createFromBytes(DEFLATED), 16 * 1024, Long.MAX_VALUE).get();
+        assertTrue(index.matches(Slice.createFromBytes(DEFLATED)));
+        assertFalse(index.matches(Slice.createFromBytes(flip(DEFLATED, 0))));
+        assertFalse(index.matches(Slice.createFromBytes(flip(DEFLATED, InflateIndex.CHECKSUM_SAMPLE_SIZE - 1))));
+        assertFalse(index.matches(Slice.createFromBytes(flip(DEFLATED, DEFLATED.length - InflateIndex.CHECKSUM_SAMPLE_SIZE))));
+        assertFalse(index.matches(Slice.createFromBytes(flip(DEFLATED, DEFLATED.length - 1))));
+        assertTrue(index.matches(Slice.createFromBytes(flip(DEFLATED, InflateIndex.CHECKSUM_SAMPLE_SIZE))));
+    }
+
+    private static byte[] flip(final byte[] data, final int offset) {
+        final byte[] result = data.clone();
+        result[offset] ^= 1;
+        return result;
+    }
+
+    @Test
+    public void unreadableIndexFileIsRebuilt() throws IOException {
+        final Path indexFile = folder.getRoot().toPath().resolve("evidence.idx");
+        Files.write(indexFile, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        assertArrayEquals(DATA, IndexedInflatedSource.inflate(Slice.createFromBytes(DEFLATED), 16 * 1024, Long.MAX_VALUE, indexFile).get().getData());
+        assertEquals(InflateIndex.build(Slice.createFromBytes(DEFLATED), 16 * 1024, Long.MAX_VALUE).get(), InflateIndex.load(indexFile));
+    }
+
+    @Test
+    public void indexEquality() throws IOException {
+        final InflateIndex index = InflateIndex.build(Slice.createFromBytes(DEFLATED), 16 * 1024, Long.MAX_VALUE).get();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.writeTo(out);
+        final InflateIndex read = InflateIndex.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(index, read);
+        assertEquals(index.hashCode(), read.hashCode());
+        assertFalse(index.equals(InflateIndex.build(Slice.createFromBytes(DEFLATED), 8 * 1024, Long.MAX_VALUE).get()));
+        assertFalse(index.equals(null));
+    }
+
+    @Test
+    public void subIntoInflatedData() {
+        final byte[] deflated = deflateMixed(Arrays.copyOf(DATA, 60000));
+        final int[] input = new int[deflated.length + 4];
+        for (int i = 0; i < 4; i++) {
+            input[i] = (deflated.length >> (24 - i * 8)) & 0xff;
+        }
+        for (int i = 0; i < deflated.length; i++) {
+            input[i + 4] = deflated[i] & 0xff;
+        }
+        final Optional<ParseState> result =
+            seq(def("size", con(4)),
+                def("data", last(ref("size"))),
+                tie(seq(rep(def("skip", con(10000))), sub(def("late", con(4)), con(50000)), sub(def("early", con(4)), con(10))),
+                    inflate(last(ref("data")), Long.MAX_VALUE, 8 * 1024))).parse(env(stream(input)));
+        assertTrue(result.isPresent());
+        assertArrayEquals(Arrays.copyOfRange(DATA, 50000, 50004), ByName.getValue(result.get().order, "late").getValue());
+        assertArrayEquals(Arrays.copyOfRange(DATA, 10, 14), ByName.getValue(result.get().order, "early").getValue());
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.last;
+import static io.parsingdata.metal.Shorthand.ref;
+import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.Shorthand.tie;
+import static io.parsingdata.metal.Util.inflate;
+import static io.parsingdata.metal.util.EncodingFactory.enc;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+import static io.parsingdata.metal.util.ParseStateFactory.stream;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import io.parsingdata.metal.data.selection.ByName;
+import io.parsingdata.metal.expression.value.Value;
+
+public class InflatedSourceTest {
+
+    @Rule public final ExpectedException thrown = ExpectedException.none();
+
+    private static final byte[] DATA = generate(100000);
+    private static final byte[] DEFLATED = deflate(DATA);
+
+    private static byte[] generate(final int size) {
+        final Random random = new Random(42);
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (random.nextInt(16) + (i / 1000));
+        }
+        return data;
+    }
+
+    static byte[] deflate(final byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        final byte[] buffer = new byte[data.length + 1024];
+        final int length = deflater.deflate(buffer);
+        deflater.end();
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private static Slice inflated(final byte[] deflated, final int windowSize, final long maxLength) {
+        return InflatedSource.inflate(Slice.createFromBytes(deflated), windowSize, maxLength).get();
+    }
+
+    @Test
+    public void inflateSmallWindow() {
+        final Slice slice = inflated(DEFLATED, 64, Long.MAX_VALUE);
+        assertEquals(BigInteger.valueOf(DATA.length), slice.length);
+        assertArrayEquals(DATA, slice.getData());
+    }
+
+    @Test
+    public void randomAccess() {
+        final Slice slice = inflated(DEFLATED, 1024, Long.MAX_VALUE);
+        final Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            final int offset = random.nextInt(DATA.length - 100);
+            final int length = random.nextInt(100);
+            assertArrayEquals(Arrays.copyOfRange(DATA, offset, offset + length), slice.source.getData((long) offset, length));
+        }
+    }
+
+    @Test
+    public void readLargerThanWindow() {
+        final Slice slice = inflated(DEFLATED, 100, Long.MAX_VALUE);
+        assertArrayEquals(Arrays.copyOfRange(DATA, 5000, 9000), slice.source.getData(5000L, 4000));
+        assertArrayEquals(Arrays.copyOfRange(DATA, 10, 20), slice.source.getData(10L, 10));
+    }
+
+    @Test
+    public void inflaterHeldUntilEnd() {
+        final InflatedSource source = (InflatedSource) inflated(DEFLATED, 1024, Long.MAX_VALUE).source;
+        assertFalse(source.isInflating());
+        assertArrayEquals(Arrays.copyOfRange(DATA, 0, 10), source.getData(0L, 10));
+        assertTrue(source.isInflating());
+        assertArrayEquals(Arrays.copyOfRange(DATA, DATA.length - 10, DATA.length), source.getData((long) DATA.length - 10, 10));
+        assertFalse(source.isInflating());
+    }
+
+    @Test
+    public void noInflaterWhenDataFitsInWindow() {
+        final InflatedSource source = (InflatedSource) inflated(DEFLATED, DATA.length, Long.MAX_VALUE).source;
+        assertArrayEquals(DATA, source.getData(0L, DATA.length));
+        assertFalse(source.isInflating());
+    }
+
+    @Test
+    public void expansionLimit() {
+        assertFalse(InflatedSource.inflate(Slice.createFromBytes(DEFLATED), 1024, DATA.length - 1).isPresent());
+        assertTrue(InflatedSource.inflate(Slice.createFromBytes(DEFLATED), 1024, DATA.length).isPresent());
+    }
+
+    @Test
+    public void defaultExpansionLimit() {
+        assertTrue(InflatedSource.DEFAULT_MAX_LENGTH < Long.MAX_VALUE);
+        assertEquals(InflatedSource.DEFAULT_MAX_LENGTH, ((InflatedSource) InflatedSource.inflate(Slice.createFromBytes(DEFLATED)).get().source).maxLength);
+    }
+
+    @Test
+    public void truncatedInput() {
+        assertFalse(InflatedSource.inflate(Slice.createFromBytes(Arrays.copyOf(DEFLATED, DEFLATED.length / 2))).isPresent());
+    }
+
+    @Test
+    public void emptyOutput() {
+        final Slice slice = InflatedSource.inflate(Slice.createFromBytes(deflate(new byte[0]))).get();
+        assertEquals(BigInteger.ZERO, slice.length);
+    }
+
+    @Test
+    public void inflateWithLimitExpression() {
+        final ImmutableList<Optional<Value>> small = inflate(con(0xcb, 0x4d, 0x2d, 0x49, 0xcc, 0x01, 0x00), 4).eval(stream(), enc());
+        assertFalse(small.head.isPresent());
+        final ImmutableList<Optional<Value>> exact = inflate(con(0xcb, 0x4d, 0x2d, 0x49, 0xcc, 0x01, 0x00), 5).eval(stream(), enc());
+        assertEquals("metal", exact.head.get().asString());
+    }
+
+    @Test
+    public void tieReadsInflatedData() {
+        final byte[] small = deflate(Arrays.copyOf(DATA, 1000));
+        final byte[] smallInput = new byte[small.length + 2];
+        smallInput[0] = (byte) (small.length >> 8);
+        smallInput[1] = (byte) small.length;
+        System.arraycopy(small, 0, smallInput, 2, small.length);
+        final Optional<ParseState> result =
+            seq(def("size", con(2)),
+                def("data", last(ref("size"))),
+                tie(rep(def("block", con(100))), inflate(last(ref("data"))))).parse(env(stream(toInts(smallInput))));
+        assertTrue(result.isPresent());
+        assertEquals(10, ByName.getAllValues(result.get().order, "block").size);
+        assertArrayEquals(Arrays.copyOfRange(DATA, 900, 1000), ByName.getValue(result.get().order, "block").getValue());
+    }
+
+    @Test
+    public void invalidWindowSize() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Argument windowSize must be positive.");
+        InflatedSource.inflate(Slice.createFromBytes(DEFLATED), 0, Long.MAX_VALUE);
+    }
+
+    private static int[] toInts(final byte[] bytes) {
+        final int[] ints = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            ints[i] = bytes[i] & 0xff;
+        }
+        return ints;
+    }
+
+}
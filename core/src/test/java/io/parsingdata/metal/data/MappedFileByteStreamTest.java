@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static java.math.BigInteger.ONE;
+import static java.math.BigInteger.ZERO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.eq;
+import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.data.ParseState.createFromByteStream;
+import static io.parsingdata.metal.util.EncodingFactory.enc;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Optional;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedFileByteStreamTest {
+
+    @Rule public final ExpectedException thrown = ExpectedException.none();
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File createFile(final int size) throws IOException {
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) i;
+        }
+        final File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    @Test
+    public void readAcrossWindows() throws IOException {
+        try (final MappedFileByteStream stream = new MappedFileByteStream(createFile(100).toPath(), 8, 2)) {
+            assertArrayEquals(new byte[] { 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21 }, stream.read(BigInteger.valueOf(5), 17));
+            assertArrayEquals(new byte[] { 96, 97, 98, 99 }, stream.read(BigInteger.valueOf(96), 4));
+            assertArrayEquals(new byte[] {}, stream.read(BigInteger.valueOf(100), 0));
+        }
+    }
+
+    @Test
+    public void readByteBuffer() throws IOException {
+        try (final MappedFileByteStream stream = new MappedFileByteStream(createFile(100).toPath(), 8, 2)) {
+            final ByteBuffer inWindow = stream.readByteBuffer(9, 3);
+            assertTrue(inWindow.isReadOnly());
+            assertEquals(ByteBuffer.wrap(new byte[] { 9, 10, 11 }), inWindow);
+            assertEquals(ByteBuffer.wrap(new byte[] { 6, 7, 8, 9 }), stream.readByteBuffer(6, 4));
+        }
+    }
+
+    @Test
+    public void isAvailable() throws IOException {
+        try (final MappedFileByteStream stream = new MappedFileByteStream(createFile(10).toPath())) {
+            assertTrue(stream.isAvailable(ZERO, 10));
+            assertTrue(stream.isAvailable(BigInteger.TEN, 0));
+            assertFalse(stream.isAvailable(ONE, 10));
+            assertFalse(stream.isAvailable(BigInteger.valueOf(Long.MAX_VALUE).add(ONE), 1));
+            assertFalse(stream.isAvailable(ONE.negate(), 1));
+        }
+    }
+
+    @Test
+    public void readNotAvailable() throws IOException {
+        thrown.expect(IOException.class);
+        thrown.expectMessage("Data to read is not available.");
+        try (final MappedFileByteStream stream = new MappedFileByteStream(createFile(10).toPath())) {
+            stream.read(BigInteger.valueOf(5), 6);
+        }
+    }
+
+    @Test
+    public void readAfterClose() throws IOException {
+        final MappedFileByteStream stream = new MappedFileByteStream(createFile(10).toPath());
+        stream.close();
+        thrown.expect(IOException.class);
+        thrown.expectMessage("Stream is closed.");
+        stream.read(ZERO, 1);
+    }
+
+    @Test
+    public void readBeyondTwoGigabytes() throws IOException {
+        final File file = folder.newFile();
+        final long size = 3L * Integer.MAX_VALUE;
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+            raf.seek(size - 2);
+            raf.write(new byte[] { 42, 84 });
+        }
+        try (final MappedFileByteStream stream = new MappedFileByteStream(file.toPath())) {
+            assertArrayEquals(new byte[] { 0, 42, 84 }, stream.read(BigInteger.valueOf(size - 3), 3));
+            assertFalse(stream.isAvailable(BigInteger.valueOf(size - 2), 3));
+        }
+    }
+
+    @Test
+    public void parseWithSmallWindows() throws IOException {
+        try (final MappedFileByteStream stream = new MappedFileByteStream(createFile(64).toPath(), 3, 1)) {
+            final Optional<ParseState> result = seq(rep(def("a", con(5))), def("b", con(4), eq(con(60, 61, 62, 63)))).parse(env(createFromByteStream(stream), enc()));
+            assertTrue(result.isPresent());
+            assertEquals(64, result.get().offset.intValueExact());
+        }
+    }
+
+    @Test
+    public void invalidWindowSize() throws IOException {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Argument windowSize must be positive.");
+        new MappedFileByteStream(createFile(1).toPath(), 0, 1);
+    }
+
+    @Test
+    public void equality() throws IOException {
+        final File file = createFile(4);
+        try (final MappedFileByteStream stream = new MappedFileByteStream(file.toPath());
+             final MappedFileByteStream same = new MappedFileByteStream(file.toPath(), 1, 1);
+             final MappedFileByteStream other = new MappedFileByteStream(createFile(4).toPath())) {
+            assertEquals(stream, same);
+            assertEquals(stream.hashCode(), same.hashCode());
+            assertNotEquals(stream, other);
+            assertNotEquals(stream, null);
+            assertTrue(stream.toString().startsWith("MappedFileByteStream("));
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.cho;
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.eq;
+import static io.parsingdata.metal.Shorthand.last;
+import static io.parsingdata.metal.Shorthand.neg;
+import static io.parsingdata.metal.Shorthand.ref;
+import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.data.ParseState.createFromByteStream;
+import static io.parsingdata.metal.token.Token.NO_NAME;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+import static io.parsingdata.metal.util.ParseStateFactory.stream;
+
+import java.util.Optional;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import io.parsingdata.metal.data.callback.Callbacks;
+import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.expression.value.ConstantFactory;
+import io.parsingdata.metal.expression.value.Value;
+import io.parsingdata.metal.expression.value.arithmetic.Neg;
+import io.parsingdata.metal.token.ParallelRep;
+import io.parsingdata.metal.token.Token;
+import io.parsingdata.metal.util.InMemoryByteStream;
+import io.parsingdata.metal.util.ReadTrackingByteStream;
+
+public class ParseCacheTest {
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private static Token header() {
+        return seq(def("signature", con(2), eq(con(0x50, 0x4b))),
+                   def("size", con(1)));
+    }
+
+    // Every alternative starts with an equal header, only the last one matches the record type.
+    private static final Token RECORDS =
+        rep(cho(seq("first", header(), def("type", con(1), eq(con(1)))),
+                seq("second", header(), def("type", con(1), eq(con(2)))),
+                seq("third", header(), def("type", con(1), eq(con(3))))));
+
+    private static final int[] INPUT = { 0x50, 0x4b, 0x00, 0x03, 0x50, 0x4b, 0x01, 0x03 };
+
+    private static Optional<ParseState> parse(final Token token, final ParseCache cache, final int... input) {
+        return token.parse(env(stream(input)).withCache(cache));
+    }
+
+    @Test
+    public void reuseAcrossAlternatives() {
+        final ParseCache cache = ParseCache.create(100);
+        final Optional<ParseState> cached = parse(RECORDS, cache, INPUT);
+        final Optional<ParseState> uncached = parse(RECORDS, ParseCache.NONE, INPUT);
+        assertTrue(cached.isPresent());
+        assertEquals(uncached, cached);
+        // Per record, the header and the type value of the second and third alternative are reused.
+        assertEquals(8, cache.hits());
+        assertEquals("third.size", ((ParseValue) Selection.getValuesByName(cached.get().order, "size").head.get()).name);
+    }
+
+    @Test
+    public void reuseFailure() {
+        final ParseCache cache = ParseCache.create(100);
+        final Token token = cho(seq("first", header(), def("type", con(1))), seq("second", header(), def("type", con(1), eq(con(2)))));
+        assertFalse(parse(token, cache, 0x50, 0x4c, 0x00).isPresent());
+        // Only the header of the second alternative is reused, all other tokens are parsed once.
+        assertEquals(1, cache.hits());
+        assertEquals(6, cache.misses());
+        assertEquals(1.0 / 7, cache.hitRate(), 0.0);
+    }
+
+    @Test
+    public void contextDependentNotCached() {
+        final ParseCache cache = ParseCache.create(100);
+        final Token token = cho(seq("first", def("size", con(1)), def("data", last(ref("size"))), def("type", con(1), eq(con(1)))),
+                                seq("second", def("size", con(1)), def("data", last(ref("size")))));
+        final Optional<ParseState> cached = parse(token, cache, 1, 2, 3);
+        assertEquals(parse(token, ParseCache.NONE, 1, 2, 3), cached);
+        // Only the first def of the second alternative is reused.
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void onlyBuiltInClassesContextFree() {
+        assertTrue(ParseCache.isContextFree(def("a", neg(con(1)))));
+        // A subclass of a built-in expression may use the parse state it is evaluated in.
+        assertFalse(ParseCache.isContextFree(def("a", new Neg(con(1)) {
+            @Override
+            public Optional<Value> eval(final Value value, final ParseState parseState, final Encoding encoding) {
+                return Optional.of(ConstantFactory.createFromNumeric(parseState.offset, encoding));
+            }
+        })));
+        assertTrue(ParseCache.isContextFree(rep(def("a", con(1)))));
+        assertFalse(ParseCache.isContextFree(new ParallelRep(NO_NAME, def("a", con(1)), null)));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        final ParseCache cache = ParseCache.create(2);
+        assertTrue(parse(RECORDS, cache, INPUT).isPresent());
+        assertEquals(2, cache.size());
+        assertEquals(parse(RECORDS, ParseCache.NONE, INPUT), parse(RECORDS, cache, INPUT));
+    }
+
+    private static Optional<ParseState> reparse(final Token token, final int[] previousInput, final int[] input, final long offset, final long length) {
+        final Optional<ParseState> previous = parse(token, ParseCache.NONE, previousInput);
+        final Environment environment = env(stream(input));
+        final ParseCache cache = ParseCache.createIncremental(100, previous.get(), ImmutableList.create(Slice.createFromSource(environment.parseState.source, offset, length).get()), environment);
+        final Optional<ParseState> result = token.parse(environment.withCache(cache));
+        assertEquals(token.parse(environment), result);
+        return result;
+    }
+
+    @Test
+    public void reparseChangedAlternative() {
+        final int[] previous = { 0x50, 0x4b, 0x00, 0x01, 0x50, 0x4b, 0x01, 0x02, 0x50, 0x4b, 0x02, 0x03 };
+        final int[] changed = { 0x50, 0x4b, 0x00, 0x01, 0x50, 0x4b, 0x01, 0x01, 0x50, 0x4b, 0x02, 0x03 };
+        assertTrue(reparse(RECORDS, previous, changed, 7, 1).isPresent());
+        assertTrue(reparse(RECORDS, previous, new int[] { 0x50, 0x4b, 0x00, 0x01, 0x50, 0x4b, 0x01, 0x04, 0x50, 0x4b, 0x02, 0x03 }, 7, 1).isPresent());
+    }
+
+    @Test
+    public void reparseSkipsUnchangedBytes() {
+        final int[] previous = { 0x50, 0x4b, 0x00, 0x01, 0x50, 0x4b, 0x01, 0x02, 0x50, 0x4b, 0x02, 0x03 };
+        final byte[] changed = { 0x50, 0x4b, 0x00, 0x01, 0x50, 0x4b, 0x01, 0x01, 0x50, 0x4b, 0x02, 0x03 };
+        final ReadTrackingByteStream input = new ReadTrackingByteStream(new InMemoryByteStream(changed));
+        final Environment environment = env(createFromByteStream(input));
+        final ParseCache cache = ParseCache.createIncremental(100, parse(RECORDS, ParseCache.NONE, previous).get(), ImmutableList.create(Slice.createFromSource(environment.parseState.source, 7, 1).get()), environment);
+        assertEquals(3, cache.size());
+        assertTrue(RECORDS.parse(environment.withCache(cache)).isPresent());
+        // Only the first bytes of the reused records are read, to select the alternatives of the Cho.
+        assertTrue(input.containsNone(1, 2, 3, 5, 6));
+        assertTrue(input.containsAll(7));
+    }
+
+    @Test
+    public void reparseContextDependent() {
+        final Token token = rep(seq("record", def("size", con(1)), def("data", last(ref("size"))), def("end", con(1), eq(con(0)))));
+        final int[] previous = { 1, 9, 0, 2, 7, 7, 0, 0, 0 };
+        assertEquals(9, reparse(token, previous, new int[] { 1, 9, 0, 2, 7, 8, 0, 0, 0 }, 5, 1).get().offset.intValueExact());
+        assertEquals(3, reparse(token, previous, new int[] { 1, 9, 0, 1, 7, 7, 0, 0, 0 }, 3, 1).get().offset.intValueExact());
+        assertEquals(9, reparse(token, previous, new int[] { 1, 9, 0, 2, 7, 7, 0, 0, 0 }, 0, 0).get().offset.intValueExact());
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertEquals(ParseCache.NONE, env(stream(INPUT)).cache);
+        assertEquals(ParseCache.NONE, new Environment(stream(INPUT), Callbacks.NONE, env(stream()).encoding).cache);
+    }
+
+    @Test
+    public void invalidMaxEntries() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Argument maxEntries must be positive.");
+        ParseCache.create(0);
+    }
+
+    @Test
+    public void changesOfOtherSource() {
+        final Optional<ParseState> previous = parse(RECORDS, ParseCache.NONE, INPUT);
+        final Environment environment = env(stream(INPUT));
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Argument changes may only contain slices of the input of environment");
+        ParseCache.createIncremental(100, previous.get(), ImmutableList.create(Slice.createFromSource(previous.get().source, 0, 1).get()), environment);
+    }
+
+}
@@ -34,6 +34,7 @@ import static io.parsingdata.metal.util.ParseStateFactory.stream;
 import static io.parsingdata.metal.util.TokenDefinitions.any;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.util.Optional;
 
 import org.junit.Rule;
@@ -237,6 +238,44 @@ public class ParseGraphTest {
         EMPTY.asReference();
     }
 
+    @Test
+    public void addGraph() {
+        final ParseGraph outer = EMPTY.addBranch(t).add(c).addBranch(t).add(d).add(e).closeBranch().add(f).closeBranch().head.asGraph();
+        final ParseGraph inner = EMPTY.addBranch(t).add(d).add(e).closeBranch().head.asGraph();
+        assertEquals(pg, EMPTY.add(a).add(b).add(outer).add(g).add(h));
+        assertEquals(pg, EMPTY.add(a).add(b).addBranch(t).add(c).add(inner).add(f).closeBranch().add(g).add(h));
+        // The indexes of a root graph are updated as if all items were added one at a time.
+        final ParseGraph indexed = EMPTY.add(a);
+        indexed.names();
+        indexed.locations();
+        indexed.tokens();
+        final ParseGraph expected = indexed.add(b).addBranch(t).add(c).addBranch(t).add(d).add(e).closeBranch().add(f).closeBranch().add(g).add(h);
+        for (final ParseGraph actual : new ParseGraph[] { indexed.add(b).add(outer).add(g).add(h), indexed.add(b).addBranch(t).add(c).add(inner).add(f).closeBranch().add(g).add(h) }) {
+            assertTrue(actual.hasNames() && actual.hasLocations() && actual.hasTokens());
+            for (final String name : new String[] { "a", "c", "d", "e", "f", "h", "t" }) {
+                assertEquals(Selection.getValuesByName(expected, name), Selection.getValuesByName(actual, name));
+                assertEquals(Selection.findDefinition(expected, name), Selection.findDefinition(actual, name));
+            }
+            for (int offset = 0; offset < 16; offset++) {
+                assertEquals(Selection.hasRootAtOffset(expected, t, BigInteger.valueOf(offset), a.slice.source), Selection.hasRootAtOffset(actual, t, BigInteger.valueOf(offset), a.slice.source));
+            }
+        }
+    }
+
+    @Test
+    public void addOpenGraph() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Cannot add graph with an open branch.");
+        EMPTY.add(EMPTY.addBranch(t).head.asGraph().addBranch(t));
+    }
+
+    @Test
+    public void addRootGraph() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Cannot add the root of a parse.");
+        EMPTY.add(EMPTY.add(a));
+    }
+
     @Test
     public void testCurrent() {
         assertFalse(EMPTY.current().isPresent());
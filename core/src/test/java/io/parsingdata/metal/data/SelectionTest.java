@@ -20,10 +20,31 @@ import static java.math.BigInteger.ONE;
 import static java.math.BigInteger.ZERO;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.eq;
+import static io.parsingdata.metal.Shorthand.first;
+import static io.parsingdata.metal.Shorthand.last;
+import static io.parsingdata.metal.Shorthand.opt;
+import static io.parsingdata.metal.Shorthand.ref;
 import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.Shorthand.repn;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.Shorthand.count;
+import static io.parsingdata.metal.Shorthand.sub;
+import static io.parsingdata.metal.Shorthand.token;
+import static io.parsingdata.metal.data.Selection.findDefinition;
 import static io.parsingdata.metal.data.Selection.findItemAtOffset;
+import static io.parsingdata.metal.data.Selection.getAllRoots;
 import static io.parsingdata.metal.data.Selection.getAllValues;
+import static io.parsingdata.metal.data.Selection.getFirstValueByName;
+import static io.parsingdata.metal.data.Selection.getValuesByDefinition;
+import static io.parsingdata.metal.data.Selection.getValuesByName;
+import static io.parsingdata.metal.data.Selection.reverse;
 import static io.parsingdata.metal.util.EnvironmentFactory.env;
 import static io.parsingdata.metal.util.ParseStateFactory.stream;
 import static io.parsingdata.metal.util.TokenDefinitions.any;
@@ -36,6 +57,8 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.expression.value.Value;
+import io.parsingdata.metal.token.Token;
 
 public class SelectionTest {
 
@@ -61,4 +84,275 @@ public class SelectionTest {
         }
     }
 
+    @Test
+    public void valuesByNameMatchTraversal() throws IOException {
+        final Token nested = seq("outer", def("a", con(1)), rep(seq("inner", def("a", con(1)), def("b", con(1)))), def("a", con(1)));
+        final Optional<ParseState> parseState = nested.parse(env(stream(1, 2, 3, 4, 5, 6, 7, 8)));
+        Assert.assertTrue(parseState.isPresent());
+        final ParseGraph graph = parseState.get().order;
+        for (final String name : new String[] { "a", "b", "inner.a", "outer.a", "outer.inner.b", "c", "nner.a" }) {
+            ImmutableList<ParseValue> expected = reverse(getAllValues(graph, (value) -> value.matches(name)));
+            ImmutableList<Optional<Value>> actual = getValuesByName(graph, name);
+            assertEquals(expected.size, actual.size);
+            while (!expected.isEmpty()) {
+                assertSame(expected.head, actual.head.get());
+                expected = expected.tail;
+                actual = actual.tail;
+            }
+        }
+        assertEquals(1, getFirstValueByName(graph, "a").get().asNumeric().intValueExact());
+        assertEquals(2, getFirstValueByName(graph, "inner.a").get().asNumeric().intValueExact());
+        assertFalse(getFirstValueByName(graph, "c").isPresent());
+    }
+
+    @Test
+    public void limitByName() throws IOException {
+        Optional<ParseState> parseState = rep(any("a")).parse(env(stream(1, 2, 3, 4, 5)));
+        Assert.assertTrue(parseState.isPresent());
+        for (int i = 0; i < 7; i++) {
+            final ImmutableList<Optional<Value>> values = getValuesByName(parseState.get().order, "a", i);
+            assertEquals(Math.min(5, i), values.size);
+            if (i > 0) {
+                assertEquals(5, values.head.get().asNumeric().intValueExact());
+            }
+        }
+    }
+
+    @Test
+    public void nameIndexBuiltDuringParse() throws IOException {
+        final Token token = seq("outer", def("a", con(1)), rep(seq("inner", def("a", con(1)), def("b", con(1), eq(first(ref("a")))))), def("a", con(1)));
+        final Optional<ParseState> parseState = token.parse(env(stream(1, 2, 1, 3, 1, 4)));
+        Assert.assertTrue(parseState.isPresent());
+        final ParseGraph graph = parseState.get().order;
+        // Built by the first lookup of first(ref), then updated by every value that was added.
+        assertTrue(graph.hasNames());
+        for (final String name : new String[] { "a", "b", "inner.a", "outer.a" }) {
+            ImmutableList<ParseValue> expected = reverse(getAllValues(graph, (value) -> value.matches(name)));
+            ImmutableList<Optional<Value>> actual = getValuesByName(graph, name);
+            assertEquals(expected.size, actual.size);
+            for (; !expected.isEmpty(); expected = expected.tail, actual = actual.tail) {
+                assertSame(expected.head, actual.head.get());
+            }
+        }
+        assertFalse(rep(any("a")).parse(env(stream(1, 2, 3))).get().order.hasNames());
+        assertFalse(ParseGraph.EMPTY.hasNames());
+    }
+
+    @Test
+    public void locationIndexBuiltDuringParse() {
+        final Token inner = def("b", con(1));
+        final Token token = seq(def("a", con(1)), sub(inner, con(0)), sub(inner, con(0)), sub(inner, con(2)));
+        final Optional<ParseState> parseState = token.parse(env(stream(1, 2, 3)));
+        assertTrue(parseState.isPresent());
+        final ParseGraph graph = parseState.get().order;
+        // Built by the first Sub, then updated by every item that was added.
+        assertTrue(graph.hasLocations());
+        assertEquals(2, getAllValues(graph, (value) -> value.matches("b")).size);
+        for (final BigInteger offset : new BigInteger[] { ZERO, ONE, BigInteger.valueOf(2) }) {
+            assertEquals(findItemAtOffset(getAllRoots(graph, inner), offset, parseState.get().source).computeResult().isPresent(),
+                         Selection.hasRootAtOffset(graph, inner, offset, parseState.get().source));
+        }
+        assertFalse(seq(def("a", con(1)), def("b", con(1))).parse(env(stream(1, 2))).get().order.hasLocations());
+        assertFalse(ParseGraph.EMPTY.hasLocations());
+    }
+
+    @Test
+    public void tokenIndexBuiltDuringParse() {
+        final Token inner = seq("inner", def("a", con(1)), def("a", con(0)));
+        final Token token = seq("outer", inner, token("inner"), def("b", con(1)));
+        final Optional<ParseState> parseState = token.parse(env(stream(1, 2, 3)));
+        assertTrue(parseState.isPresent());
+        final ParseGraph graph = parseState.get().order;
+        // Built by the first TokenRef, then updated by every item that was added.
+        assertTrue(graph.hasTokens());
+        assertSame(inner, findDefinition(graph, "inner").get());
+        assertSame(token, findDefinition(graph, "outer").get());
+        assertEquals("b", findDefinition(graph, "b").get().name);
+        assertFalse(findDefinition(graph, "c").isPresent());
+        assertFalse(inner.parse(env(stream(1))).get().order.hasTokens());
+        assertFalse(ParseGraph.EMPTY.hasTokens());
+    }
+
+    @Test
+    public void manyValues() {
+        // Every value refers to the first and last size. The name index is built once, by the first lookup, and then used by all others.
+        final long[] small = parseManyValues(10000);
+        final long[] large = parseManyValues(20000);
+        assertEquals(1, small[1]);
+        assertEquals(1, large[1]);
+        assertEquals(small[0], large[0]);
+    }
+
+    // Returns the visits and index builds of parsing count pairs of values.
+    private static long[] parseManyValues(final int count) {
+        final int[] data = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            data[i * 2] = 1;
+            data[i * 2 + 1] = 1;
+        }
+        LookupStatistics.reset();
+        final Optional<ParseState> parseState = rep(seq(def("size", con(1)), def("data", last(ref("size")), eq(first(ref("size")))))).parse(env(stream(data)));
+        final long[] statistics = { LookupStatistics.VISITS.sum(), LookupStatistics.INDEX_BUILDS.sum() };
+        Assert.assertTrue(parseState.isPresent());
+        assertEquals(count, getValuesByName(parseState.get().order, "data").size);
+        return statistics;
+    }
+
+    @Test
+    public void valuesByDefinitionMatchTraversal() throws IOException {
+        final Token a = def("a", con(1));
+        final Token b = def("b", con(1));
+        final Token inner = seq("inner", a, b);
+        final Token nested = seq("outer", def("a", con(1)), rep(inner), sub(inner, con(1)), a);
+        final Optional<ParseState> parseState = nested.parse(env(stream(1, 2, 3, 4, 5, 6, 7, 8)));
+        Assert.assertTrue(parseState.isPresent());
+        final ParseGraph graph = parseState.get().order;
+        for (final Token definition : new Token[] { a, def("a", con(1)), b, def("b", con(2)), inner, any("a") }) {
+            ImmutableList<ParseValue> expected = reverse(getAllValues(graph, (value) -> value.definition.equals(definition)));
+            ImmutableList<Optional<Value>> actual = getValuesByDefinition(graph, definition);
+            assertEquals(expected.size, actual.size);
+            while (!expected.isEmpty()) {
+                assertSame(expected.head, actual.head.get());
+                expected = expected.tail;
+                actual = actual.tail;
+            }
+        }
+        assertEquals(5, getValuesByDefinition(graph, a).size);
+        assertEquals(2, getValuesByDefinition(graph, a, 2).size);
+        assertEquals(8, getValuesByDefinition(graph, a, 2).head.get().asNumeric().intValueExact());
+    }
+
+    @Test
+    public void definitionIndexBuiltDuringParse() throws IOException {
+        final Token a = def("a", con(1));
+        final Token check = def("check", con(1), eq(last(ref(a))));
+        final Optional<ParseState> parseState = seq(rep(seq("inner", a, check)), a).parse(env(stream(1, 1, 2, 2, 3, 3, 4)));
+        Assert.assertTrue(parseState.isPresent());
+        final ParseGraph graph = parseState.get().order;
+        for (final Token definition : new Token[] { a, check }) {
+            ImmutableList<ParseValue> expected = reverse(getAllValues(graph, (value) -> value.definition.equals(definition)));
+            ImmutableList<Optional<Value>> actual = getValuesByDefinition(graph, definition);
+            assertEquals(expected.size, actual.size);
+            for (; !expected.isEmpty(); expected = expected.tail, actual = actual.tail) {
+                assertSame(expected.head, actual.head.get());
+            }
+        }
+        assertEquals(4, getValuesByDefinition(graph, a).size);
+    }
+
+    @Test
+    public void rootsOfEqualDefinitions() throws IOException {
+        final Token smallSeq = seq(any("b"), any("c"));
+        final Optional<ParseState> parseState = seq(any("a"), smallSeq, seq(any("b"), any("c"))).parse(env(stream(1, 2, 3, 4, 5)));
+        Assert.assertTrue(parseState.isPresent());
+        final ImmutableList<ParseItem> roots = getAllRoots(parseState.get().order, seq(any("b"), any("c")));
+        assertEquals(2, roots.size);
+        assertEquals(5, roots.head.asGraph().head.asValue().asNumeric().intValueExact());
+        assertEquals(3, roots.tail.head.asGraph().head.asValue().asNumeric().intValueExact());
+    }
+
+    @Test
+    public void fewMatchesInLargeGraph() {
+        // Every value refers to the single header, which the definition index finds without visiting the other values.
+        final long[] small = parseFewMatches(10000);
+        final long[] large = parseFewMatches(20000);
+        assertTrue(large[0] + " visits for twice the values of " + small[0], large[0] <= 2 * small[0]);
+        assertEquals(small[1], large[1]);
+    }
+
+    // Returns the visits of parsing count values and those of looking up the roots of the header afterwards.
+    private static long[] parseFewMatches(final int count) {
+        final int[] data = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            data[i] = 1;
+        }
+        final Token header = def("header", con(1));
+        LookupStatistics.reset();
+        final Optional<ParseState> parseState = seq(header, rep(def("data", first(ref(header)), eq(count(ref(header)))))).parse(env(stream(data)));
+        final long parseVisits = LookupStatistics.VISITS.sum();
+        Assert.assertTrue(parseState.isPresent());
+        LookupStatistics.reset();
+        assertEquals(1, getAllRoots(parseState.get().order, header).size);
+        final long rootVisits = LookupStatistics.VISITS.sum();
+        assertEquals(count, getValuesByName(parseState.get().order, "data").size);
+        return new long[] { parseVisits, rootVisits };
+    }
+
+    @Test
+    public void manySharedAddresses() {
+        // Every pair of pointers points to the same entry, which the location index finds without visiting the other items.
+        final long[] small = parseSharedAddresses(10000);
+        final long[] large = parseSharedAddresses(20000);
+        assertTrue(large[0] + " visits for twice the pointers of " + small[0], large[0] <= 2 * small[0]);
+        assertEquals(2, small[1]); // The name index of ref("pointer") and the location index.
+        assertEquals(2, large[1]);
+    }
+
+    // Returns the visits and index builds of parsing count pointers and the entries they point to.
+    private static long[] parseSharedAddresses(final int count) {
+        final int[] data = new int[count * 3];
+        for (int i = 0; i < count; i++) {
+            final int target = count * 2 + (i / 2) * 2;
+            data[i * 2] = target >> 8;
+            data[i * 2 + 1] = target & 0xff;
+        }
+        LookupStatistics.reset();
+        final Optional<ParseState> parseState = seq(repn(def("pointer", con(2)), con(count)), sub(def("entry", con(2)), ref("pointer"))).parse(env(stream(data), new Encoding()));
+        final long[] statistics = { LookupStatistics.VISITS.sum(), LookupStatistics.INDEX_BUILDS.sum() };
+        Assert.assertTrue(parseState.isPresent());
+        assertEquals(count / 2, getValuesByName(parseState.get().order, "entry").size);
+        return statistics;
+    }
+
+    @Test
+    public void deeplyNestedTokens() {
+        // Every box refers to the box it is nested in, which the token index finds without visiting the enclosing boxes.
+        final long[] small = parseNestedBoxes(150);
+        final long[] large = parseNestedBoxes(300);
+        assertEquals(1, small[1]);
+        assertEquals(1, large[1]);
+        assertEquals(small[0], large[0]);
+    }
+
+    // Returns the visits and index builds of parsing depth nested boxes of 20 pads each.
+    private static long[] parseNestedBoxes(final int depth) {
+        final int[] data = new int[depth * 21 + 20];
+        for (int i = 0; i < depth; i++) {
+            data[i * 21 + 20] = 1;
+        }
+        final Token box =
+            seq("box",
+                repn(def("pad", con(1), eq(con(0))), con(20)),
+                opt(seq(def("open", con(1), eq(con(1))),
+                        token("box"))),
+                opt(token("missing")));
+        LookupStatistics.reset();
+        final Optional<ParseState> parseState = box.parse(env(stream(data)));
+        final long[] statistics = { LookupStatistics.VISITS.sum(), LookupStatistics.INDEX_BUILDS.sum() };
+        Assert.assertTrue(parseState.isPresent());
+        assertEquals(data.length, parseState.get().offset.intValueExact());
+        assertEquals(depth, getValuesByName(parseState.get().order, "open").size);
+        return statistics;
+    }
+
+    @Test
+    public void manyFailedTokenLookups() {
+        // Every lookup of a missing definition fails on the token index, without visiting the values parsed so far.
+        final long[] small = parseFailedLookups(10000);
+        final long[] large = parseFailedLookups(20000);
+        assertEquals(1, small[1]);
+        assertEquals(1, large[1]);
+        assertEquals(small[0], large[0]);
+    }
+
+    // Returns the visits and index builds of parsing count values that are each followed by a failed lookup.
+    private static long[] parseFailedLookups(final int count) {
+        LookupStatistics.reset();
+        final Optional<ParseState> parseState = rep(seq(def("pad", con(1), eq(con(0))), opt(token("missing")))).parse(env(stream(new int[count])));
+        final long[] statistics = { LookupStatistics.VISITS.sum(), LookupStatistics.INDEX_BUILDS.sum() };
+        Assert.assertTrue(parseState.isPresent());
+        assertEquals(count, parseState.get().offset.intValueExact());
+        return statistics;
+    }
+
 }
@@ -42,6 +42,7 @@ import static io.parsingdata.metal.util.EnvironmentFactory.env;
 import static io.parsingdata.metal.util.ParseStateFactory.stream;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Optional;
 
 import org.junit.Rule;
@@ -55,6 +56,14 @@ public class SliceTest {
 
     @Rule public final ExpectedException thrown = ExpectedException.none();
 
+    private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+    // A stream of zeros that is available at any offset.
+    private static final ByteStream UNBOUNDED = new ByteStream() {
+        @Override public byte[] read(final BigInteger offset, final int length) { return new byte[length]; }
+        @Override public boolean isAvailable(final BigInteger offset, final int length) { return true; }
+    };
+
     @Test
     public void lazyRead() {
         final ReadTrackingByteStream stream = new ReadTrackingByteStream(new InMemoryByteStream(toByteArray(1, 2, 3, 0, 0, 4, 1)));
@@ -106,4 +115,41 @@ public class SliceTest {
         assertTrue(dataExpressionSliceString.endsWith(")@0:2)"));
     }
 
+    @Test
+    public void partOfSlice() {
+        final Slice slice = Slice.createFromSource(new ConstantSource(new byte[] { 0, 1, 2, 3 }), ONE, BigInteger.valueOf(3)).get();
+        assertArrayEquals(new byte[] { 2, 3 }, slice.slice(ONE, BigInteger.valueOf(2)).getData());
+        assertEquals(0, slice.slice(BigInteger.valueOf(3), ZERO).length.intValueExact());
+    }
+
+    @Test
+    public void sliceBeyondLong() {
+        final ParseState parseState = createFromByteStream(UNBOUNDED, MAX_LONG.subtract(ONE));
+        final Slice slice = parseState.slice(TEN).get();
+        assertEquals(MAX_LONG.subtract(ONE), slice.offset);
+        assertArrayEquals(new byte[10], slice.getData());
+        assertArrayEquals(new byte[2], slice.getData(BigInteger.valueOf(2)));
+        assertEquals(ByteBuffer.wrap(new byte[10]), slice.asByteBuffer());
+        assertEquals(slice, Slice.createFromSource(parseState.source, Long.MAX_VALUE - 1, 10).get());
+        assertEquals(MAX_LONG.add(ONE), slice.slice(BigInteger.valueOf(2), ONE).offset);
+    }
+
+    @Test
+    public void parseBeyondLong() {
+        final ParseState parseState = createFromByteStream(UNBOUNDED, MAX_LONG.subtract(ONE));
+        final Optional<ParseState> result = seq(def("a", con(1)), def("b", con(2)), def("c", con(3))).parse(env(parseState));
+        assertTrue(result.isPresent());
+        assertEquals(MAX_LONG.add(BigInteger.valueOf(5)), result.get().offset);
+        assertEquals(MAX_LONG, getValue(result.get().order, "b").slice.offset);
+        assertEquals(MAX_LONG.add(BigInteger.valueOf(2)), getValue(result.get().order, "c").slice.offset);
+        assertEquals(createFromByteStream(UNBOUNDED, MAX_LONG.add(BigInteger.valueOf(9))), parseState.skip(TEN));
+    }
+
+    @Test
+    public void partOutsideSlice() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Part at offset 2 with length 2 exceeds Slice(ConstantSource(0x00010203)@1:4).");
+        Slice.createFromSource(new ConstantSource(new byte[] { 0, 1, 2, 3 }), ONE, BigInteger.valueOf(3)).get().slice(BigInteger.valueOf(2), BigInteger.valueOf(2));
+    }
+
 }
@@ -19,6 +19,8 @@ package io.parsingdata.metal.data;
 import static java.math.BigInteger.ONE;
 import static java.math.BigInteger.ZERO;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -29,6 +31,7 @@ import static io.parsingdata.metal.util.EncodingFactory.enc;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Optional;
@@ -75,6 +78,45 @@ public class SourceAndSliceTest {
         assertFalse(source.isAvailable(BigInteger.valueOf(5), ZERO));
     }
 
+    @Test
+    public void validSourceWithLongs() {
+        assertTrue(source.isAvailable(0L, 4L));
+        assertTrue(source.isAvailable(1L, 3L));
+        assertTrue(source.isAvailable(4L, 0L));
+        assertFalse(source.isAvailable(0L, 5L));
+        assertFalse(source.isAvailable(4L, 1L));
+        assertFalse(source.isAvailable(5L, 0L));
+    }
+
+    @Test
+    public void validSliceWithLongs() {
+        assertArrayEquals(new byte[] { 1, 2 }, createFromSource(source, 1L, 2L).get().getData());
+        assertArrayEquals(new byte[] { 2, 3 }, source.getData(2L, 2));
+        assertFalse(createFromSource(source, 3L, 2L).isPresent());
+        assertFalse(createFromSource(source, -1L, 1L).isPresent());
+        assertFalse(createFromSource(source, 0L, -1L).isPresent());
+    }
+
+    @Test
+    public void sliceAsByteBuffer() {
+        final ByteBuffer buffer = createFromSource(source, 1L, 2L).get().asByteBuffer();
+        assertTrue(buffer.isReadOnly());
+        assertEquals(ByteBuffer.wrap(new byte[] { 1, 2 }), buffer);
+        assertEquals(0, createFromSource(source, 4L, 0L).get().asByteBuffer().remaining());
+    }
+
+    @Test
+    public void readBeyondEndOfSourceWithLongs() {
+        thrown.expect(IllegalStateException.class);
+        source.getData(1L, 4);
+    }
+
+    @Test
+    public void startReadAtNegativeOffsetSourceWithLongs() {
+        thrown.expect(IllegalArgumentException.class);
+        source.getData(-1L, 1);
+    }
+
     @Test
     public void validSlice() {
         checkSlice(ZERO, 2);
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.and;
+import static io.parsingdata.metal.Shorthand.cho;
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.eq;
+import static io.parsingdata.metal.Shorthand.gtNum;
+import static io.parsingdata.metal.Shorthand.not;
+import static io.parsingdata.metal.Shorthand.or;
+import static io.parsingdata.metal.Shorthand.pre;
+import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+import static io.parsingdata.metal.util.ParseStateFactory.stream;
+
+import java.util.Optional;
+
+import org.junit.Test;
+
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.Selection;
+import io.parsingdata.metal.expression.Expression;
+
+public class ChoTest {
+
+    private static final Token SCAN_DATA = def("scandata", con(1), not(eq(con(0xff))));
+    private static final Token ESCAPE = def("escape", con(2), or(eq(con(0xff, 0x00)), and(gtNum(con(0xffcf)), not(eq(con(0xff, 0xd8))))));
+
+    @Test
+    public void firstBytesOfConstant() {
+        final FirstBytes first = FirstBytes.of(seq(def("marker", con(1), eq(con(0xff))), def("identifier", con(1))));
+        assertTrue(first.mayStartWith(0xff));
+        assertFalse(first.mayStartWith(0x00));
+        assertFalse(first.mayStartWith(0xfe));
+    }
+
+    @Test
+    public void firstBytesOfNegation() {
+        final FirstBytes first = FirstBytes.of(SCAN_DATA);
+        assertFalse(first.mayStartWith(0xff));
+        assertTrue(first.mayStartWith(0x00));
+        // The second byte of a longer constant is not taken into account.
+        assertTrue(FirstBytes.of(ESCAPE).mayStartWith(0x00));
+        assertTrue(FirstBytes.of(def("word", con(2), not(eq(con(0xff, 0x00))))).mayStartWith(0xff));
+    }
+
+    @Test
+    public void firstBytesOfOptionalPrefix() {
+        final FirstBytes first = FirstBytes.of(seq(rep(def("pad", con(1), eq(con(0x00)))), def("marker", con(1), eq(con(0xff)))));
+        assertTrue(first.mayStartWith(0x00));
+        assertTrue(first.mayStartWith(0xff));
+        assertFalse(first.mayStartWith(0x01));
+        assertTrue(FirstBytes.of(rep(SCAN_DATA)).mayStartWith(0xff));
+        assertTrue(FirstBytes.of(def("empty", con(0))).mayStartWith(0xff));
+    }
+
+    @Test
+    public void skipAlternatives() {
+        final int[] evaluations = new int[1];
+        final Expression counting = (parseState, encoding) -> ++evaluations[0] > 0;
+        final Token choice = cho(pre(def("one", con(1), eq(con(1))), counting),
+                                 pre(def("two", con(1), eq(con(2))), counting),
+                                 def("other", con(1)));
+        final Optional<ParseState> result = rep(choice).parse(env(stream(2, 2, 3, 1)));
+        assertTrue(result.isPresent());
+        assertEquals(4, result.get().offset.intValueExact());
+        // Only the alternatives that match the byte at the current offset are tried.
+        assertEquals(3, evaluations[0]);
+        assertEquals(1, Selection.getValuesByName(result.get().order, "other").size);
+    }
+
+    @Test
+    public void keepPrecedence() {
+        final Token choice = cho(def("any", con(1)), def("one", con(1), eq(con(1))));
+        assertEquals(1, Selection.getValuesByName(choice.parse(env(stream(1))).get().order, "any").size);
+        final Token reversed = cho(def("one", con(1), eq(con(1))), def("any", con(1)));
+        assertEquals(1, Selection.getValuesByName(reversed.parse(env(stream(1))).get().order, "one").size);
+    }
+
+    @Test
+    public void endOfInput() {
+        final Token choice = cho(def("one", con(1), eq(con(1))), def("empty", con(0)));
+        assertTrue(choice.parse(env(stream())).isPresent());
+        assertFalse(cho(def("one", con(1), eq(con(1))), def("two", con(1), eq(con(2)))).parse(env(stream())).isPresent());
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.add;
+import static io.parsingdata.metal.Shorthand.cat;
+import static io.parsingdata.metal.Shorthand.cho;
+import static io.parsingdata.metal.Shorthand.compile;
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.eq;
+import static io.parsingdata.metal.Shorthand.eqNum;
+import static io.parsingdata.metal.Shorthand.last;
+import static io.parsingdata.metal.Shorthand.ltNum;
+import static io.parsingdata.metal.Shorthand.mul;
+import static io.parsingdata.metal.Shorthand.neg;
+import static io.parsingdata.metal.Shorthand.not;
+import static io.parsingdata.metal.Shorthand.pre;
+import static io.parsingdata.metal.Shorthand.ref;
+import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.Shorthand.repn;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.Shorthand.sub;
+import static io.parsingdata.metal.Shorthand.toByteArray;
+import static io.parsingdata.metal.Shorthand.whl;
+import static io.parsingdata.metal.util.EncodingFactory.enc;
+import static io.parsingdata.metal.util.EncodingFactory.le;
+import static io.parsingdata.metal.data.ParseState.createFromByteStream;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+import static io.parsingdata.metal.util.ParseStateFactory.stream;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import io.parsingdata.metal.data.ByteStream;
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.callback.Callback;
+import io.parsingdata.metal.data.callback.Callbacks;
+import io.parsingdata.metal.util.InMemoryByteStream;
+
+public class CompiledTest {
+
+    private static final Token HEADER = seq("header", def("marker", con(1), eq(con(0xff))), def("size", con(1)));
+
+    // Uses every compiled token, a shared token, an encoding override and an interpreted Sub.
+    private static final Token FORMAT =
+        seq("format",
+            HEADER,
+            def("data", last(ref("size"))),
+            rep("records",
+                cho(seq("short", pre(def("value", con(1)), ltNum(last(ref("size")), con(4))), HEADER),
+                    seq("long", le(), def("value", con(2), not(eq(con(0x00, 0x00)))), repn(def("pad", con(1)), con(2))),
+                    seq("end", def("end", con(1), eq(con(0))), whl(def("rest", con(1)), not(eqNum(last(ref("rest")), con(0))))))),
+            sub(def("pointed", con(1)), con(1)));
+
+    private static void assertSame(final Token token, final int... data) {
+        final Optional<ParseState> interpreted = token.parse(env(stream(data)));
+        final Optional<ParseState> compiled = compile(token).parse(env(stream(data)));
+        assertEquals(interpreted, compiled);
+    }
+
+    @Test
+    public void sameAsInterpreter() {
+        assertSame(FORMAT, 0xff, 2, 0xaa, 0xbb, 1, 0xff, 3, 0x00, 0x02, 0x01, 0x00);
+        assertSame(FORMAT, 0xff, 5, 1, 2, 3, 4, 5, 0x01, 0x02, 0x00, 0x00, 0x03, 0x04, 0x00, 0x00);
+        assertSame(FORMAT, 0xfe, 0);
+        assertSame(FORMAT);
+    }
+
+    @Test
+    public void sameScope() {
+        final Token token = rep(HEADER);
+        final Token compiled = compile(token);
+        for (final String scope : new String[] { "outer", "other", "", "outer" }) {
+            final Environment environment = env(scope, stream(0xff, 0, 0xff, 0), enc());
+            assertEquals(token.parse(environment), compiled.parse(environment));
+        }
+    }
+
+    @Test
+    public void longRepetition() {
+        final int[] data = new int[100000];
+        final Optional<ParseState> result = compile(rep(def("byte", con(1), eq(con(0))))).parse(env(stream(data)));
+        assertTrue(result.isPresent());
+        assertEquals(data.length, result.get().offset.intValueExact());
+    }
+
+    @Test
+    public void interpretWithCallbacks() {
+        final List<Token> tokens = new ArrayList<>();
+        final Token token = seq(def("a", con(1)), def("b", con(1)));
+        final Callbacks callbacks = Callbacks.create().add(new Callback() {
+            @Override
+            public void handleSuccess(final Token token, final ParseState before, final ParseState after) {
+                tokens.add(token);
+            }
+
+            @Override
+            public void handleFailure(final Token token, final ParseState before) {}
+        });
+        final Optional<ParseState> result = compile(token).parse(env(stream(1, 2), callbacks, enc()));
+        assertEquals(token.parse(env(stream(1, 2))), result);
+        assertEquals(3, tokens.size());
+    }
+
+    @Test
+    public void foldedSizes() {
+        final Token token = seq(def("a", add(con(1), con(1))),
+                                def("b", sub(con(3), con(2))),
+                                def("c", con(0)),
+                                def("d", mul(con(2), con(2)), le()),
+                                def("e", cat(con(0), con(1))),
+                                repn(def("f", con(1)), add(con(1), con(1))));
+        final int[] data = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+        for (int length = 0; length <= data.length; length++) {
+            assertSame(token, Arrays.copyOf(data, length));
+        }
+        assertSame(seq(def("a", con(1)), def("b", neg(con(1)))), data);
+    }
+
+    @Test
+    public void foldPerEncoding() {
+        // The size is 1 in big endian and 256 in little endian.
+        final Token token = seq(def("a", cat(con(0), con(1))), def("b", con(1)));
+        final Token compiled = compile(token);
+        final int[] data = new int[300];
+        for (final Environment environment : new Environment[] { env(stream(data), enc()), env(stream(data), le()), env(stream(data), enc()) }) {
+            assertEquals(token.parse(environment), compiled.parse(environment));
+        }
+    }
+
+    @Test
+    public void readRunOnce() {
+        final int[] availabilityChecks = new int[1];
+        final ByteStream input = new ByteStream() {
+            final ByteStream data = new InMemoryByteStream(toByteArray(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16));
+
+            @Override
+            public byte[] read(final BigInteger offset, final int length) throws IOException {
+                return data.read(offset, length);
+            }
+
+            @Override
+            public boolean isAvailable(final BigInteger offset, final int length) {
+                availabilityChecks[0]++;
+                return data.isAvailable(offset, length);
+            }
+        };
+        final Token token = seq(def("a", con(1)), def("b", con(2)), def("c", con(4)), def("d", con(1)), def("e", con(0)), def("f", con(8)));
+        final Optional<ParseState> result = compile(token).parse(env(createFromByteStream(input)));
+        assertEquals(token.parse(env(createFromByteStream(input))), result);
+        // The interpreter checks the availability of every value.
+        assertEquals(1 + 5, availabilityChecks[0]);
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.add;
+import static io.parsingdata.metal.Shorthand.cat;
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.div;
+import static io.parsingdata.metal.Shorthand.last;
+import static io.parsingdata.metal.Shorthand.len;
+import static io.parsingdata.metal.Shorthand.mul;
+import static io.parsingdata.metal.Shorthand.neg;
+import static io.parsingdata.metal.Shorthand.ref;
+import static io.parsingdata.metal.util.EncodingFactory.enc;
+import static io.parsingdata.metal.util.EncodingFactory.le;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+public class ConstantFoldingTest {
+
+    @Test
+    public void constantExpressions() {
+        assertTrue(ConstantFolding.isConstant(con(1)));
+        assertTrue(ConstantFolding.isConstant(add(con(1), mul(con(2), neg(con(3))))));
+        assertTrue(ConstantFolding.isConstant(len(cat(con(1), con(2)))));
+        assertFalse(ConstantFolding.isConstant(ref("a")));
+        assertFalse(ConstantFolding.isConstant(add(con(1), last(ref("a")))));
+    }
+
+    @Test
+    public void fold() {
+        assertEquals(BigInteger.valueOf(7), ConstantFolding.fold(add(con(1), mul(con(2), con(3))), enc()));
+        assertEquals(BigInteger.valueOf(2), ConstantFolding.fold(len(cat(con(1), con(2))), enc()));
+        assertEquals(BigInteger.valueOf(256), ConstantFolding.fold(cat(con(0), con(1)), le()));
+        assertNull(ConstantFolding.fold(last(ref("a")), enc()));
+        assertNull(ConstantFolding.fold(div(con(1), con(0)), enc()));
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.eq;
+import static io.parsingdata.metal.Shorthand.parallelCho;
+import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.Shorthand.toByteArray;
+import static io.parsingdata.metal.data.ParseState.createFromByteStream;
+import static io.parsingdata.metal.data.Selection.getAllValues;
+import static io.parsingdata.metal.util.EncodingFactory.enc;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+import static io.parsingdata.metal.util.ParseStateFactory.stream;
+
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import io.parsingdata.metal.data.ParseCache;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.callback.Callback;
+import io.parsingdata.metal.data.callback.Callbacks;
+import io.parsingdata.metal.util.ConcurrentReadByteStream;
+import io.parsingdata.metal.util.InMemoryByteStream;
+
+public class ParallelChoTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    // Callbacks disable parallel parsing.
+    private static final Callbacks SEQUENTIAL = Callbacks.create().add(new Callback() {
+        @Override public void handleSuccess(final Token token, final ParseState before, final ParseState after) {}
+        @Override public void handleFailure(final Token token, final ParseState before) {}
+    });
+
+    // The first two alternatives succeed on the same input, the third one only differs in its last value.
+    private static ParallelCho choice() {
+        return (ParallelCho) parallelCho(seq("first", def("a", con(1)), def("b", con(1), eq(con(1)))),
+                                         seq("second", def("a", con(1)), def("b", con(1))),
+                                         seq("third", def("a", con(1)), def("b", con(1), eq(con(3)))));
+    }
+
+    private static Optional<ParseState> parseInPool(final Token token, final int... data) throws Exception {
+        return POOL.submit(() -> token.parse(env(stream(data)))).get();
+    }
+
+    private static void assertSame(final Token token, final int... data) throws Exception {
+        assertEquals(token.parse(env(stream(data), SEQUENTIAL, enc())), parseInPool(token, data));
+    }
+
+    @Test
+    public void leftmostSuccess() throws Exception {
+        final ParallelCho choice = choice();
+        final Optional<ParseState> result = parseInPool(choice, 0, 1);
+        assertTrue(result.isPresent());
+        assertEquals(1, getAllValues(result.get().order, value -> value.name.equals("first.b")).size);
+        assertTrue(getAllValues(result.get().order, value -> value.name.equals("second.b")).isEmpty());
+        assertEquals(1, choice.parses());
+        assertTrue(choice.started() >= 1);
+        assertEquals(choice.started() - 1, choice.wasted());
+        assertSame(choice(), 0, 1);
+        assertSame(choice(), 0, 2);
+        assertSame(choice(), 0, 3);
+    }
+
+    @Test
+    public void parsesConcurrently() throws Exception {
+        // The first read of the second byte by a thread waits until another thread reads it, which only happens if both tokens are parsed concurrently.
+        final ParallelCho choice = (ParallelCho) parallelCho(seq(def("a", con(1)), def("b", con(1), eq(con(1)))),
+                                                             seq(def("a", con(1)), def("c", con(1), eq(con(2)))));
+        final ConcurrentReadByteStream input = new ConcurrentReadByteStream(new InMemoryByteStream(toByteArray(0, 2)), 1, 2);
+        assertTrue(POOL.submit(() -> choice.parse(env(createFromByteStream(input)))).get().isPresent());
+        assertEquals(2, input.readers());
+        assertEquals(2, choice.started());
+    }
+
+    @Test
+    public void failure() throws Exception {
+        final ParallelCho choice = (ParallelCho) parallelCho(def("a", con(2)), def("b", con(3)), def("c", con(4)));
+        assertFalse(parseInPool(choice, 3).isPresent());
+        assertEquals(1, choice.parses());
+        assertEquals(3, choice.started());
+        assertEquals(0, choice.wasted());
+        assertSame(choice, 3);
+    }
+
+    @Test
+    public void repeated() throws Exception {
+        final ParallelCho choice = choice();
+        assertSame(rep(choice), 0, 3, 0, 1, 0, 2, 0, 4, 0, 3);
+        assertEquals(5, choice.parses());
+    }
+
+    @Test
+    public void sequentialWithSingleCandidate() throws Exception {
+        final ParallelCho choice = (ParallelCho) parallelCho(def("a", con(1), eq(con(1))), def("b", con(1), eq(con(2))));
+        assertTrue(parseInPool(choice, 2).isPresent());
+        assertEquals(0, choice.parses());
+    }
+
+    @Test
+    public void sequentialWithCallbacksOrCache() throws Exception {
+        final ParallelCho choice = choice();
+        assertTrue(POOL.submit(() -> choice.parse(env(stream(0, 2), SEQUENTIAL, enc()))).get().isPresent());
+        assertTrue(POOL.submit(() -> choice.parse(env(stream(0, 2)).withCache(ParseCache.create(10)))).get().isPresent());
+        assertEquals(0, choice.parses());
+    }
+
+}
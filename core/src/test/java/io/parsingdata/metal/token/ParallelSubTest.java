@@ -0,0 +1,183 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.eqNum;
+import static io.parsingdata.metal.Shorthand.first;
+import static io.parsingdata.metal.Shorthand.last;
+import static io.parsingdata.metal.Shorthand.neg;
+import static io.parsingdata.metal.Shorthand.parallelSub;
+import static io.parsingdata.metal.Shorthand.ref;
+import static io.parsingdata.metal.Shorthand.repn;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.Shorthand.sub;
+import static io.parsingdata.metal.Shorthand.toByteArray;
+import static io.parsingdata.metal.Shorthand.token;
+import static io.parsingdata.metal.data.ParseState.createFromByteStream;
+import static io.parsingdata.metal.data.Selection.getAllValues;
+import static io.parsingdata.metal.util.EncodingFactory.enc;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+import static io.parsingdata.metal.util.ParseStateFactory.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import io.parsingdata.metal.data.ParseCache;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.callback.Callback;
+import io.parsingdata.metal.data.callback.Callbacks;
+import io.parsingdata.metal.util.ConcurrentReadByteStream;
+import io.parsingdata.metal.util.InMemoryByteStream;
+
+public class ParallelSubTest {
+
+    // A record refers to a value parsed before the table and to a value it has parsed itself.
+    private static final Token RECORD =
+        seq("record",
+            def("marker", con(1), eqNum(first(ref("marker")))),
+            def("size", con(1)),
+            def("data", last(ref("size"))));
+
+    private static final Token TABLE =
+        seq(def("marker", con(1)),
+            def("count", con(1)),
+            repn(def("pointer", con(1)), last(ref("count"))),
+            parallelSub(RECORD, ref("pointer")));
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    // With callbacks, a ParallelSub parses its locations sequentially, just like a Sub.
+    private static void assertSame(final Token token, final int... data) {
+        assertEquals(token.parse(env(stream(data), callbacks(new ArrayList<>()), enc())), parseInPool(token, data));
+    }
+
+    // Outside a pool with a parallelism of more than one, a ParallelSub also parses its locations sequentially.
+    private static Optional<ParseState> parseInPool(final Token token, final int... data) {
+        return POOL.submit(() -> token.parse(env(stream(data)))).join();
+    }
+
+    @Test
+    public void table() {
+        final Optional<ParseState> result = parseInPool(TABLE, 7, 3, 5, 8, 12, 7, 1, 1, 7, 2, 2, 2, 7, 0);
+        assertTrue(result.isPresent());
+        assertEquals(5, result.get().offset.intValueExact());
+        assertEquals(3, getAllValues(result.get().order, value -> value.name.equals("record.marker")).size);
+        assertSame(TABLE, 7, 3, 5, 8, 12, 7, 1, 1, 7, 2, 2, 2, 7, 0);
+    }
+
+    @Test
+    public void parsesConcurrently() throws Exception {
+        // The first read of a record by a thread waits until another thread reads a record, which only happens if they are parsed concurrently.
+        final ConcurrentReadByteStream input = new ConcurrentReadByteStream(new InMemoryByteStream(toByteArray(7, 3, 5, 8, 12, 7, 1, 1, 7, 2, 2, 2, 7, 0)), 5, 2);
+        assertTrue(POOL.submit(() -> TABLE.parse(env(createFromByteStream(input)))).get().isPresent());
+        assertTrue(input.readers() >= 2);
+    }
+
+    @Test
+    public void sameAsSub() {
+        final Token sequential =
+            seq(def("marker", con(1)),
+                def("count", con(1)),
+                repn(def("pointer", con(1)), last(ref("count"))),
+                sub(RECORD, ref("pointer")));
+        final int[] data = { 7, 3, 5, 8, 12, 7, 1, 1, 7, 2, 2, 2, 7, 0 };
+        assertEquals(getAllValues(sequential.parse(env(stream(data))).get().order, value -> value.name.equals("record.data")), getAllValues(parseInPool(TABLE, data).get().order, value -> value.name.equals("record.data")));
+    }
+
+    @Test
+    public void duplicates() {
+        assertSame(TABLE, 7, 4, 6, 9, 6, 6, 7, 1, 5, 7, 0);
+        assertTrue(parseInPool(TABLE, 7, 4, 6, 9, 6, 6, 7, 1, 5, 7, 0).get().order.head.asGraph().head.asGraph().head.isReference());
+    }
+
+    @Test
+    public void failure() {
+        // The record at the second location has the wrong marker, the one at the third location is too long.
+        assertSame(TABLE, 7, 3, 5, 7, 9, 7, 0, 6, 0, 7, 9);
+        assertSame(TABLE, 7, 2, 4, 6, 7, 0, 7, 9);
+        assertSame(TABLE, 7, 1, 9);
+    }
+
+    @Test
+    public void invalidLocations() {
+        assertSame(seq(def("a", con(1)), parallelSub(def("b", con(1)), neg(con(1)))), 1, 2);
+        assertSame(parallelSub(def("b", con(1)), ref("none")), 1);
+    }
+
+    @Test
+    public void cycle() {
+        assertSame(seq("linked", def("next", con(1)), parallelSub(token("linked"), last(ref("next")))), 1, 2, 0);
+    }
+
+    @Test
+    public void manyLocations() {
+        final int[] data = new int[2 + 2 * 1000 + 3 * 1000];
+        data[0] = 7;
+        for (int i = 0; i < 1000; i++) {
+            final int offset = 2 + 2 * 1000 + 3 * i;
+            data[2 + 2 * i] = offset >> 8;
+            data[3 + 2 * i] = offset & 0xff;
+            data[offset] = 7;
+            data[offset + 1] = 1;
+            data[offset + 2] = i & 0xff;
+        }
+        assertSame(seq(def("marker", con(1)),
+                       def("zero", con(1)),
+                       repn(def("pointer", con(2)), con(1000)),
+                       parallelSub(RECORD, ref("pointer"))), data);
+    }
+
+    @Test
+    public void sequentialWithCallbacksOrCache() {
+        final int[] data = { 7, 2, 4, 7, 7, 0, 0, 7, 0 };
+        final Token sequential =
+            seq(def("marker", con(1)),
+                def("count", con(1)),
+                repn(def("pointer", con(1)), last(ref("count"))),
+                sub(RECORD, ref("pointer")));
+        final List<Token> sequentialTokens = new ArrayList<>();
+        final List<Token> parallelTokens = new ArrayList<>();
+        sequential.parse(env(stream(data), callbacks(sequentialTokens), enc()));
+        TABLE.parse(env(stream(data), callbacks(parallelTokens), enc()));
+        assertEquals(sequentialTokens.size(), parallelTokens.size());
+        assertEquals(parseInPool(TABLE, data), TABLE.parse(env(stream(data)).withCache(ParseCache.create(100))));
+    }
+
+    private static Callbacks callbacks(final List<Token> tokens) {
+        return Callbacks.create().add(new Callback() {
+            @Override
+            public void handleSuccess(final Token token, final ParseState before, final ParseState after) {
+                tokens.add(token);
+            }
+
+            @Override
+            public void handleFailure(final Token token, final ParseState before) {
+                tokens.add(token);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.cat;
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.eq;
+import static io.parsingdata.metal.Shorthand.last;
+import static io.parsingdata.metal.Shorthand.not;
+import static io.parsingdata.metal.Shorthand.parallelRep;
+import static io.parsingdata.metal.Shorthand.parallelRepN;
+import static io.parsingdata.metal.Shorthand.ref;
+import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.Shorthand.repn;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.Shorthand.toByteArray;
+import static io.parsingdata.metal.data.ParseState.createFromByteStream;
+import static io.parsingdata.metal.util.EncodingFactory.enc;
+import static io.parsingdata.metal.util.EncodingFactory.le;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+import static io.parsingdata.metal.util.ParseStateFactory.stream;
+
+import java.math.BigInteger;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.callback.Callback;
+import io.parsingdata.metal.data.callback.Callbacks;
+import io.parsingdata.metal.encoding.Encoding;
+import io.parsingdata.metal.util.ConcurrentReadByteStream;
+import io.parsingdata.metal.util.InMemoryByteStream;
+
+public class ParallelTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    // Callbacks disable parallel parsing.
+    private static final Callbacks SEQUENTIAL = Callbacks.create().add(new Callback() {
+        @Override public void handleSuccess(final Token token, final ParseState before, final ParseState after) {}
+        @Override public void handleFailure(final Token token, final ParseState before) {}
+    });
+
+    private static final Token RECORD =
+        seq("record",
+            def("marker", con(1), eq(con(0x2a))),
+            def("type", con(1), not(eq(con(0xff)))),
+            repn(def("field", con(1)), con(2)),
+            def("value", con(2), le()));
+
+    private static final int STRIDE = 6;
+
+    private static int[] records(final int count, final int extra) {
+        final int[] data = new int[count * STRIDE + extra];
+        for (int i = 0; i < count; i++) {
+            data[i * STRIDE] = 0x2a;
+            data[i * STRIDE + 1] = i & 0x7f;
+            data[i * STRIDE + 4] = i & 0xff;
+            data[i * STRIDE + 5] = i >> 8;
+        }
+        return data;
+    }
+
+    private static Optional<ParseState> parseInPool(final Token token, final int... data) throws Exception {
+        return POOL.submit(() -> token.parse(env(stream(data)))).get();
+    }
+
+    private static void assertSame(final Token token, final int... data) throws Exception {
+        assertEquals(token.parse(env(stream(data), SEQUENTIAL, enc())), parseInPool(token, data));
+    }
+
+    @Test
+    public void repN() throws Exception {
+        final int count = Parallel.MIN_PARALLEL_COUNT * 3 + 17;
+        final Optional<ParseState> result = parseInPool(parallelRepN(RECORD, con(count >> 8, count & 0xff)), records(count, 1));
+        assertTrue(result.isPresent());
+        assertEquals(count * STRIDE, result.get().offset.intValueExact());
+        assertSame(parallelRepN(RECORD, con(count >> 8, count & 0xff)), records(count, 1));
+        assertSame(seq(def("first", con(1)), parallelRepN(RECORD, con(count >> 8, count & 0xff)), def("last", con(1))), prepend(1, records(count, 1)));
+    }
+
+    @Test
+    public void repNFailure() throws Exception {
+        final int count = Parallel.MIN_PARALLEL_COUNT * 2;
+        final int[] data = records(count, 0);
+        data[(count - 300) * STRIDE] = 0x2b;
+        assertFalse(parseInPool(parallelRepN(RECORD, con(count >> 8, count & 0xff)), data).isPresent());
+        assertSame(parallelRepN(RECORD, con(count >> 8, count & 0xff)), data);
+        // Too little input for all repetitions.
+        assertFalse(parseInPool(parallelRepN(RECORD, con(count >> 8, count & 0xff)), records(count - 1, 5)).isPresent());
+    }
+
+    @Test
+    public void repetition() throws Exception {
+        for (final int count : new int[] { 0, 10, Parallel.MIN_PARALLEL_COUNT * 4, Parallel.MIN_PARALLEL_COUNT * 4 + 100 }) {
+            final int[] data = records(count, 3);
+            final Optional<ParseState> result = parseInPool(parallelRep(RECORD), data);
+            assertEquals(count * STRIDE, result.get().offset.intValueExact());
+            assertSame(parallelRep(RECORD), data);
+        }
+    }
+
+    @Test
+    public void repStopsAtFailure() throws Exception {
+        final int[] data = records(Parallel.MIN_PARALLEL_COUNT * 4, 0);
+        data[(Parallel.CHUNK_SIZE * 3 + 5) * STRIDE + 1] = 0xff;
+        assertEquals((Parallel.CHUNK_SIZE * 3 + 5) * STRIDE, parseInPool(parallelRep(RECORD), data).get().offset.intValueExact());
+        assertSame(parallelRep(RECORD), data);
+    }
+
+    @Test
+    public void repNParsesConcurrently() throws Exception {
+        final int count = Parallel.MIN_PARALLEL_COUNT;
+        assertTrue(readersInPool(parallelRepN(RECORD, con(count >> 8, count & 0xff)), records(count, 0)) >= 2);
+    }
+
+    @Test
+    public void repParsesConcurrently() throws Exception {
+        assertTrue(readersInPool(parallelRep(RECORD), records(Parallel.MIN_PARALLEL_COUNT * 4, 0)) >= 2);
+    }
+
+    // Returns the number of threads that have read the data, which is at least two if chunks are parsed concurrently.
+    private static int readersInPool(final Token token, final int... data) throws Exception {
+        final ConcurrentReadByteStream input = new ConcurrentReadByteStream(new InMemoryByteStream(toByteArray(data)), 0, 2);
+        assertTrue(POOL.submit(() -> token.parse(env(createFromByteStream(input)))).get().isPresent());
+        return input.readers();
+    }
+
+    @Test
+    public void stride() throws Exception {
+        assertEquals(BigInteger.valueOf(STRIDE), stride(RECORD, enc()));
+        assertEquals(BigInteger.valueOf(256), stride(def("a", cat(con(0), con(1))), le()));
+        assertEquals(BigInteger.valueOf(3), stride(seq(def("a", cat(con(0), con(1))), def("b", con(2))), enc()));
+        assertEquals(BigInteger.valueOf(257), stride(seq(le(), def("a", cat(con(0), con(1))), def("b", con(1))), enc()));
+        assertNull(stride(def("a", con(0)), enc()));
+        assertNull(stride(def("a", last(ref("a"))), enc()));
+        assertNull(stride(seq(def("a", con(1)), def("b", con(1), eq(last(ref("a"))))), enc()));
+        assertNull(stride(rep(def("a", con(1))), enc()));
+        assertNull(POOL.submit(() -> Parallel.getStride(RECORD, env(stream(), SEQUENTIAL, enc()))).get());
+    }
+
+    private static BigInteger stride(final Token token, final Encoding encoding) throws Exception {
+        return POOL.submit(() -> Parallel.getStride(token, new Environment(stream(), encoding))).get();
+    }
+
+    private static int[] prepend(final int first, final int[] data) {
+        final int[] result = new int[data.length + 1];
+        result[0] = first;
+        System.arraycopy(data, 0, result, 1, data.length);
+        return result;
+    }
+
+}
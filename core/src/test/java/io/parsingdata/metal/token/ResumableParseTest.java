@@ -0,0 +1,239 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.cho;
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.eq;
+import static io.parsingdata.metal.Shorthand.last;
+import static io.parsingdata.metal.Shorthand.ref;
+import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.Shorthand.repn;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.data.Selection.getAllValues;
+import static io.parsingdata.metal.util.EncodingFactory.enc;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+import static io.parsingdata.metal.util.ParseStateFactory.stream;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import io.parsingdata.metal.data.ByteStream;
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ImmutableList;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.ParseValue;
+import io.parsingdata.metal.data.callback.Callback;
+import io.parsingdata.metal.data.callback.Callbacks;
+
+public class ResumableParseTest {
+
+    private static final Token RECORD = seq("record", def("size", con(1)), def("data", last(ref("size"))), def("end", con(1), eq(con(0))));
+    private static final Token RECORDS = seq("file", def("magic", con(1), eq(con(0x4d))), rep(RECORD), def("footer", con(1), eq(con(0xff))));
+    private static final int[] DATA = { 0x4d, 2, 1, 2, 0, 0, 0, 3, 1, 2, 3, 0, 0xff };
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    // A stream of which only the first available bytes can be read.
+    private static class GrowingByteStream implements ByteStream {
+
+        final int[] data;
+        int available;
+
+        GrowingByteStream(final int[] data, final int available) {
+            this.data = data;
+            this.available = available;
+        }
+
+        @Override
+        public byte[] read(final BigInteger offset, final int length) throws IOException {
+            final byte[] result = new byte[length];
+            for (int i = 0; i < length; i++) {
+                result[i] = (byte) data[offset.intValueExact() + i];
+            }
+            return result;
+        }
+
+        @Override
+        public boolean isAvailable(final BigInteger offset, final int length) {
+            return offset.intValueExact() + length <= available;
+        }
+
+    }
+
+    private static class RecordingCallback implements Callback {
+
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void handleSuccess(final Token token, final ParseState before, final ParseState after) {
+            events.add("success:" + token.getClass().getSimpleName() + "@" + before.offset);
+        }
+
+        @Override
+        public void handleFailure(final Token token, final ParseState before) {
+            events.add("failure:" + token.getClass().getSimpleName() + "@" + before.offset);
+        }
+
+    }
+
+    private static List<String> values(final Optional<ParseState> result) {
+        final List<String> values = new ArrayList<>();
+        for (ImmutableList<ParseValue> list = getAllValues(result.get().order, value -> true); !list.isEmpty(); list = list.tail) {
+            values.add(list.head.name + "=" + list.head.asNumeric());
+        }
+        return values;
+    }
+
+    @Test
+    public void byteByByte() {
+        final GrowingByteStream input = new GrowingByteStream(DATA, 0);
+        ResumableParse parse = ResumableParse.parse(RECORDS, input, enc());
+        final List<BigInteger> offsets = new ArrayList<>();
+        while (input.available < DATA.length) {
+            assertTrue(parse.isSuspended());
+            offsets.add(parse.getOffset());
+            input.available++;
+            parse = parse.resume();
+        }
+        // The rep can only stop once all input has arrived.
+        assertTrue(parse.isSuspended());
+        parse = parse.finish();
+        assertFalse(parse.isSuspended());
+        final Optional<ParseState> expected = RECORDS.parse(env(stream(DATA)));
+        assertEquals(expected.get().offset, parse.getResult().get().offset);
+        assertEquals(values(expected), values(parse.getResult()));
+        assertEquals(expected.get().order.toString(), parse.getResult().get().order.toString());
+        // Values are parsed as soon as they are available.
+        assertEquals("[0, 1, 2, 2, 4, 5, 6, 7, 8, 8, 8, 11, 12]", offsets.toString());
+    }
+
+    @Test
+    public void completedWorkIsNotRedone() {
+        final int[] parses = new int[1];
+        final Token counted = new Token("", null) {
+            @Override
+            protected Optional<ParseState> parseImpl(final Environment environment) {
+                parses[0]++;
+                return RECORD.parse(environment);
+            }
+        };
+        final GrowingByteStream input = new GrowingByteStream(DATA, 7);
+        ResumableParse parse = ResumableParse.parse(seq(def("magic", con(1)), rep(counted)), input, enc());
+        assertTrue(parse.isSuspended());
+        assertEquals(BigInteger.valueOf(7), parse.getOffset());
+        assertEquals(3, parses[0]);
+        input.available = DATA.length;
+        parse = parse.finish();
+        // Only the incomplete record and the one that ends the rep are parsed again.
+        assertEquals(5, parses[0]);
+        assertEquals(BigInteger.valueOf(12), parse.getResult().get().offset);
+    }
+
+    @Test
+    public void failure() {
+        final GrowingByteStream input = new GrowingByteStream(DATA, 5);
+        final ResumableParse parse = ResumableParse.parse(RECORDS, input, enc());
+        assertTrue(parse.isSuspended());
+        assertFalse(parse.finish().getResult().isPresent());
+        assertFalse(ResumableParse.parse(RECORDS, new GrowingByteStream(new int[] { 0 }, 1), enc()).getResult().isPresent());
+    }
+
+    @Test
+    public void repN() {
+        final Token token = seq(def("count", con(1)), repn(RECORD, last(ref("count"))));
+        final int[] data = { 2, 1, 7, 0, 0, 0 };
+        final GrowingByteStream input = new GrowingByteStream(data, 4);
+        final ResumableParse parse = ResumableParse.parse(token, input, enc());
+        assertTrue(parse.isSuspended());
+        input.available = data.length;
+        final ResumableParse resumed = parse.resume();
+        assertFalse(resumed.isSuspended());
+        assertEquals(values(token.parse(env(stream(data)))), values(resumed.getResult()));
+        assertFalse(ResumableParse.parse(repn(RECORD, last(ref("count"))), input, enc()).getResult().isPresent());
+    }
+
+    @Test
+    public void repNWithTooLargeCount() {
+        // Fails like RepN.parse() does, see repNWithTooLargeCountNotResumable().
+        thrown.expect(ArithmeticException.class);
+        ResumableParse.parse(repn(RECORD, con(1, 0, 0, 0, 0, 0, 0, 0, 0)), new GrowingByteStream(DATA, DATA.length), enc());
+    }
+
+    @Test
+    public void repNWithTooLargeCountNotResumable() {
+        thrown.expect(ArithmeticException.class);
+        repn(RECORD, con(1, 0, 0, 0, 0, 0, 0, 0, 0)).parse(env(stream(DATA)));
+    }
+
+    @Test
+    public void callbacks() {
+        final RecordingCallback expected = new RecordingCallback();
+        RECORDS.parse(env(stream(DATA), Callbacks.create().add(expected), enc()));
+        final RecordingCallback actual = new RecordingCallback();
+        final RecordingCallback records = new RecordingCallback();
+        final GrowingByteStream input = new GrowingByteStream(DATA, 0);
+        ResumableParse parse = ResumableParse.parse(RECORDS, input, Callbacks.create().add(actual).add(RECORD, records), enc());
+        while (input.available < DATA.length) {
+            input.available++;
+            parse = parse.resume();
+        }
+        parse.finish();
+        assertEquals(expected.events, actual.events);
+        assertEquals("[success:Seq@1, success:Seq@5, success:Seq@7, failure:Seq@12]", records.events.toString());
+    }
+
+    @Test
+    public void choRequestingUnavailableData() {
+        final Token token = cho(def("long", con(4)), def("short", con(1)));
+        final GrowingByteStream input = new GrowingByteStream(new int[] { 1, 2, 3, 4 }, 1);
+        final ResumableParse parse = ResumableParse.parse(token, input, enc());
+        // The short alternative succeeds, but the long one may succeed once more data arrives.
+        assertTrue(parse.isSuspended());
+        assertEquals("[short=1]", values(parse.finish().getResult()).toString());
+        input.available = 4;
+        assertEquals("[long=16909060]", values(parse.resume().getResult()).toString());
+    }
+
+    @Test
+    public void resultOfSuspendedParse() {
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("Parse is suspended.");
+        ResumableParse.parse(RECORDS, new GrowingByteStream(DATA, 0), enc()).getResult();
+    }
+
+    @Test
+    public void resumeCompletedParse() {
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("Parse is not suspended.");
+        ResumableParse.parse(RECORDS, new GrowingByteStream(DATA, 0), enc()).finish().resume();
+    }
+
+}
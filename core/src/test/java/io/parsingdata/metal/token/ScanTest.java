@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.cat;
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.eq;
+import static io.parsingdata.metal.Shorthand.not;
+import static io.parsingdata.metal.Shorthand.or;
+import static io.parsingdata.metal.Shorthand.ref;
+import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.Shorthand.scan;
+import static io.parsingdata.metal.Shorthand.scanNot;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.data.selection.ByName.getAllValues;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+import static io.parsingdata.metal.util.ParseStateFactory.stream;
+
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.parsingdata.metal.data.ImmutableList;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.ParseValue;
+import io.parsingdata.metal.expression.Expression;
+import io.parsingdata.metal.expression.value.ValueExpression;
+
+public class ScanTest {
+
+    @Test
+    public void scanSameAsRepeatedDef() {
+        final Random random = new Random(7);
+        final int[] data = new int[20000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i % 3000 == 2999 ? 0xff : random.nextInt(40);
+        }
+        final int[][] classes = { { 0xff }, { 0, 1, 2 }, { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 } };
+        for (final int[] members : classes) {
+            final ValueExpression bytes = con(members);
+            final Expression inClass = inClass(members);
+            assertSame(rep(seq(scan("run", bytes), def("stop", con(1)))), rep(seq(rep(def("run", con(1), inClass)), def("stop", con(1)))), data);
+            assertSame(rep(seq(scanNot("run", bytes), def("stop", con(1)))), rep(seq(rep(def("run", con(1), not(inClass))), def("stop", con(1)))), data);
+        }
+    }
+
+    private static Expression inClass(final int[] members) {
+        Expression result = eq(con(members[0]));
+        for (int i = 1; i < members.length; i++) {
+            result = or(result, eq(con(members[i])));
+        }
+        return result;
+    }
+
+    // The scanned run is a single value, so compare the concatenation of the bytes per run.
+    private static void assertSame(final Token scanning, final Token repeating, final int[] data) {
+        final Optional<ParseState> scanned = scanning.parse(env(stream(data)));
+        final Optional<ParseState> repeated = repeating.parse(env(stream(data)));
+        assertTrue(scanned.isPresent());
+        assertTrue(repeated.isPresent());
+        assertEquals(repeated.get().offset, scanned.get().offset);
+        final ImmutableList<ParseValue> stops = getAllValues(scanned.get().order, "stop");
+        assertEquals(getAllValues(repeated.get().order, "stop").size, stops.size);
+        int runBytes = 0;
+        for (ImmutableList<ParseValue> runs = getAllValues(scanned.get().order, "run"); !runs.isEmpty(); runs = runs.tail) {
+            runBytes += runs.head.slice.length.intValueExact();
+        }
+        assertEquals(getAllValues(repeated.get().order, "run").size, runBytes);
+    }
+
+    @Test
+    public void scanToEndOfInput() {
+        final Optional<ParseState> result = scanNot("data", con(0xff)).parse(env(stream(1, 2, 3, 4, 5, 6, 7, 8, 9, 10)));
+        assertTrue(result.isPresent());
+        assertEquals(10, result.get().offset.intValueExact());
+        assertEquals(1, getAllValues(result.get().order, "data").size);
+    }
+
+    @Test
+    public void emptyRun() {
+        final Optional<ParseState> result = scan("data", cat(con(1), con(2))).parse(env(stream(3, 1, 2)));
+        assertTrue(result.isPresent());
+        assertEquals(0, result.get().offset.intValueExact());
+        assertTrue(getAllValues(result.get().order, "data").isEmpty());
+    }
+
+    @Test
+    public void invalidClass() {
+        assertFalse(scan("data", ref("missing")).parse(env(stream(1, 2, 3))).isPresent());
+    }
+
+    @Test(timeout = 10000)
+    public void scanLargeInput() {
+        final int[] data = new int[8 * 1024 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i & 0x7f;
+        }
+        data[data.length - 2] = 0xff;
+        final Optional<ParseState> result = seq(scanNot("scandata", con(0xff)), def("marker", con(1), eq(con(0xff)))).parse(env(stream(data)));
+        assertTrue(result.isPresent());
+        assertEquals(data.length - 2, getAllValues(result.get().order, "scandata").head.slice.length.intValueExact());
+    }
+
+}
@@ -29,22 +29,29 @@ import static io.parsingdata.metal.Shorthand.eq;
 import static io.parsingdata.metal.Shorthand.last;
 import static io.parsingdata.metal.Shorthand.mod;
 import static io.parsingdata.metal.Shorthand.post;
+import static io.parsingdata.metal.Shorthand.pre;
 import static io.parsingdata.metal.Shorthand.ref;
+import static io.parsingdata.metal.Shorthand.rep;
 import static io.parsingdata.metal.Shorthand.repn;
+import static io.parsingdata.metal.Shorthand.seq;
 import static io.parsingdata.metal.Shorthand.until;
 import static io.parsingdata.metal.data.selection.ByName.getAllValues;
+import static io.parsingdata.metal.util.EncodingFactory.enc;
 import static io.parsingdata.metal.util.EncodingFactory.signed;
 import static io.parsingdata.metal.util.EnvironmentFactory.env;
 import static io.parsingdata.metal.util.ParseStateFactory.stream;
 
 import java.io.IOException;
 import java.util.Optional;
+import java.util.Random;
 
 import org.junit.Test;
 
 import io.parsingdata.metal.data.ImmutableList;
 import io.parsingdata.metal.data.ParseState;
 import io.parsingdata.metal.data.ParseValue;
+import io.parsingdata.metal.data.callback.Callback;
+import io.parsingdata.metal.data.callback.Callbacks;
 import io.parsingdata.metal.expression.value.ValueExpression;
 
 public class UntilTest {
@@ -86,6 +93,59 @@ public class UntilTest {
         assertFalse(until("value", con(-1, signed()), def("terminator", 1, eq(con(0)))).parse(env(stream(1, 2, 3, 0))).isPresent());
     }
 
+    @Test
+    public void searchMatchesParseAtEverySize() {
+        final Random random = new Random(5);
+        final int[] data = new int[5000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextInt(4);
+        }
+        final Token[] terminators = {
+            def("terminator", con(1), eq(con(3))),
+            seq(def("first", con(1), eq(con(1))), def("second", con(1), eq(con(2))), def("third", con(1), eq(con(3)))),
+            seq(def("first", con(1), eq(con(0))), def("second", con(1), eq(con(0))), def("third", con(1))),
+            pre(def("terminator", con(2), eq(con(2, 2))), eq(con(1), con(1))),
+            seq(seq(def("first", con(1), eq(con(1))), def("any", con(1))), def("third", con(1), eq(con(2)))),
+            seq(seq(def("first", con(1), eq(con(3))), def("second", con(1), eq(con(3)))), def("third", con(1), eq(con(0))))
+        };
+        final ValueExpression[][] sizes = {
+            { con(0), con(1), con(10000) },
+            { con(3), con(2), con(10000) },
+            { con(1), con(7), con(4000) },
+            { con(0), con(1), con(100) }
+        };
+        for (final Token terminator : terminators) {
+            for (final ValueExpression[] size : sizes) {
+                final Token token = rep(until("value", size[0], size[1], size[2], terminator));
+                final Optional<ParseState> searched = token.parse(env(stream(data)));
+                // Callbacks disable the search, so the terminator is parsed at every size.
+                final Optional<ParseState> parsed = token.parse(env(stream(data), Callbacks.create().add(token, new NoOpCallback()), enc()));
+                assertEquals(parsed.map(parseState -> parseState.offset), searched.map(parseState -> parseState.offset));
+                assertEquals(parsed.map(parseState -> parseState.order), searched.map(parseState -> parseState.order));
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void searchLargeInput() {
+        final int[] data = new int[4000000];
+        data[data.length - 2] = '\r';
+        data[data.length - 1] = '\n';
+        final Optional<ParseState> parseState = until("line", seq(def("cr", con(1), eq(con('\r'))), def("lf", con(1), eq(con('\n'))))).parse(env(stream(data)));
+        assertTrue(parseState.isPresent());
+        assertEquals(data.length - 2, getAllValues(parseState.get().order, "line").head.slice.length.intValueExact());
+    }
+
+    private static class NoOpCallback implements Callback {
+
+        @Override
+        public void handleSuccess(final Token token, final ParseState before, final ParseState after) {}
+
+        @Override
+        public void handleFailure(final Token token, final ParseState before) {}
+
+    }
+
     private Token createToken(final ValueExpression initialSize, final Token terminator) {
         return repn(until("line", initialSize, terminator), con(3));
     }
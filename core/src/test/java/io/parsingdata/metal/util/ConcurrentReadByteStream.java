@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.util;
+
+import static io.parsingdata.metal.Util.checkNotNull;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.parsingdata.metal.Util;
+import io.parsingdata.metal.data.ByteStream;
+
+/**
+ * Records the threads that read at or beyond offset <code>from</code>. The
+ * first such read of every thread waits until <code>threads</code> different
+ * threads have read (or a timeout expires), so that reads that are parsed in
+ * parallel overlap, even on a single processor.
+ */
+public class ConcurrentReadByteStream implements ByteStream {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ByteStream byteStream;
+    private final long from;
+    private final CountDownLatch waiting;
+    private final Set<Thread> readers = ConcurrentHashMap.newKeySet();
+
+    public ConcurrentReadByteStream(final ByteStream byteStream, final long from, final int threads) {
+        this.byteStream = checkNotNull(byteStream, "byteStream");
+        this.from = from;
+        waiting = new CountDownLatch(threads);
+    }
+
+    @Override
+    public byte[] read(final BigInteger offset, final int length) throws IOException {
+        if (offset.longValueExact() >= from && readers.add(Thread.currentThread())) {
+            waiting.countDown();
+            try {
+                waiting.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (final InterruptedException exception) {
+                throw new IOException(exception);
+            }
+        }
+        return byteStream.read(offset, length);
+    }
+
+    public int readers() {
+        return readers.size();
+    }
+
+    @Override
+    public boolean isAvailable(final BigInteger offset, final int length) {
+        return byteStream.isAvailable(offset, length);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + byteStream + ")";
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return Util.notNullAndSameClass(this, obj)
+            && Objects.equals(byteStream, ((ConcurrentReadByteStream)obj).byteStream)
+            && from == ((ConcurrentReadByteStream)obj).from;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getClass(), byteStream, from);
+    }
+
+}
@@ -18,6 +18,7 @@ package io.parsingdata.metal.util;
 
 import static org.junit.Assert.assertEquals;
 
+import static io.parsingdata.metal.Shorthand.compile;
 import static io.parsingdata.metal.util.EnvironmentFactory.env;
 
 import java.io.IOException;
@@ -47,4 +48,9 @@ public class ParameterizedParse {
         assertEquals(result, token.parse(env(parseState, encoding)).isPresent());
     }
 
+    @Test
+    public void compiled() throws IOException {
+        assertEquals(token.parse(env(parseState, encoding)), compile(token).parse(env(parseState, encoding)));
+    }
+
 }
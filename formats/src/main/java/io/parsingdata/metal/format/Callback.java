@@ -16,12 +16,16 @@
 
 package io.parsingdata.metal.format;
 
+import static java.math.BigInteger.ZERO;
+
 import static io.parsingdata.metal.data.Slice.createFromBytes;
 
+import java.math.BigInteger;
 import java.util.Optional;
 import java.util.zip.CRC32;
 
 import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.data.Slice;
 import io.parsingdata.metal.encoding.Encoding;
 import io.parsingdata.metal.expression.value.UnaryValueExpression;
 import io.parsingdata.metal.expression.value.Value;
@@ -29,6 +33,8 @@ import io.parsingdata.metal.expression.value.ValueExpression;
 
 public final class Callback {
 
+    private static final BigInteger CRC32_CHUNK_SIZE = BigInteger.valueOf(1024 * 1024);
+
     private Callback() {}
 
     public static ValueExpression crc32(final ValueExpression target) {
@@ -36,7 +42,7 @@ public final class Callback {
             @Override
             public Optional<Value> eval(final Value value, final ParseState parseState, final Encoding encoding) {
                 final CRC32 crc = new CRC32();
-                crc.update(value.getValue());
+                update(crc, value.slice);
                 final long crcValue = crc.getValue();
                 return Optional.of(new Value(createFromBytes(encoding.byteOrder.apply(new byte[] {
                     (byte)((crcValue & 0xff000000) >> 24),
@@ -47,4 +53,12 @@ public final class Callback {
         };
     }
 
+    private static void update(final CRC32 crc, final Slice slice) {
+        // Feed large (e.g. inflated) data in chunks instead of copying it as a whole.
+        for (BigInteger position = ZERO; position.compareTo(slice.length) < 0; position = position.add(CRC32_CHUNK_SIZE)) {
+            final BigInteger length = slice.length.subtract(position).min(CRC32_CHUNK_SIZE);
+            crc.update(Slice.createFromSource(slice.source, slice.offset.add(position), length).get().asByteBuffer());
+        }
+    }
+
 }
@@ -16,21 +16,29 @@
 
 package io.parsingdata.metal.format;
 
+import static io.parsingdata.metal.data.ParseState.createFromByteStream;
 import static io.parsingdata.metal.util.EncodingFactory.enc;
 import static io.parsingdata.metal.util.ParseStateFactory.stream;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
+import org.junit.AfterClass;
 import org.junit.runners.Parameterized;
 
+import io.parsingdata.metal.data.MappedFileByteStream;
 import io.parsingdata.metal.data.ParseState;
 import io.parsingdata.metal.util.ParameterizedParse;
 
 public class FormatTest extends ParameterizedParse {
 
+    private static final List<MappedFileByteStream> MAPPED = new ArrayList<>();
+
     @Parameterized.Parameters(name="{0} ({4})")
     public static Collection<Object[]> data() throws URISyntaxException, IOException {
         return Arrays.asList(new Object[][] {
@@ -38,6 +46,10 @@ public class FormatTest extends ParameterizedParse {
             { "ZIP", ZIP.FORMAT, parseState("/singlefile-zip30-ubuntu.zip"), enc(), true },
             { "ZIP2", ZIP.FORMAT, parseState("/multifile-zip30-ubuntu.zip"), enc(), true },
             { "JPEG", JPEG.FORMAT, parseState("/test.jpg"), enc(), true },
+            { "PNG mapped", PNG.FORMAT, mappedParseState("/test.png"), enc(), true },
+            { "ZIP mapped", ZIP.FORMAT, mappedParseState("/singlefile-zip30-ubuntu.zip"), enc(), true },
+            { "ZIP2 mapped", ZIP.FORMAT, mappedParseState("/multifile-zip30-ubuntu.zip"), enc(), true },
+            { "JPEG mapped", JPEG.FORMAT, mappedParseState("/test.jpg"), enc(), true },
         });
     }
 
@@ -45,4 +57,19 @@ public class FormatTest extends ParameterizedParse {
         return stream(FormatTest.class.getResource(path).toURI());
     }
 
+    private static ParseState mappedParseState(final String path) throws URISyntaxException, IOException {
+        // Small windows, so that many reads cross a window boundary.
+        final MappedFileByteStream input = new MappedFileByteStream(Paths.get(FormatTest.class.getResource(path).toURI()), 256, 4);
+        MAPPED.add(input);
+        return createFromByteStream(input);
+    }
+
+    @AfterClass
+    public static void closeMapped() throws IOException {
+        for (final MappedFileByteStream input : MAPPED) {
+            input.close();
+        }
+        MAPPED.clear();
+    }
+
 }
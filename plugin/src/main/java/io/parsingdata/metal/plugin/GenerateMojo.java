@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+import io.parsingdata.metal.token.Token;
+
+/**
+ * Generates the source of a parser for a {@link Token} that is stored in a
+ * public static field, using {@link ParserGenerator}.
+ * <p>
+ * The class that declares the field is loaded from the compile classpath of
+ * the project, so it is usually part of a dependency, such as
+ * <code>metal-formats</code>. The generated source is added to the compile
+ * source roots of the project.
+ * <pre>{@code
+ * <plugin>
+ *   <groupId>io.parsingdata</groupId>
+ *   <artifactId>metal-maven-plugin</artifactId>
+ *   <executions>
+ *     <execution>
+ *       <goals><goal>generate</goal></goals>
+ *       <configuration>
+ *         <token>io.parsingdata.metal.format.ZIP.FORMAT</token>
+ *         <className>com.example.ZipParser</className>
+ *       </configuration>
+ *     </execution>
+ *   </executions>
+ * </plugin>
+ * }</pre>
+ */
+@Mojo(name = "generate", defaultPhase = LifecyclePhase.GENERATE_SOURCES, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class GenerateMojo extends AbstractMojo {
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    /** The fully qualified name of a public static field that holds the token. */
+    @Parameter(required = true)
+    private String token;
+
+    /** The fully qualified name of the generated class. */
+    @Parameter(required = true)
+    private String className;
+
+    @Parameter(defaultValue = "${project.build.directory}/generated-sources/metal", required = true)
+    private File outputDirectory;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        final String source;
+        try (final URLClassLoader loader = new URLClassLoader(getClassPath(), getClass().getClassLoader())) {
+            source = ParserGenerator.generate(token, loadToken(loader), className);
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Unable to close the class loader of " + token + ".", e);
+        }
+        final File file = new File(outputDirectory, className.replace('.', File.separatorChar) + ".java");
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Unable to write " + file + ".", e);
+        }
+        getLog().info("Generated parser " + className + " for " + token + ".");
+        project.addCompileSourceRoot(outputDirectory.getPath());
+    }
+
+    // Classes of this plugin are loaded first, so the token is an instance of the Token class that ParserGenerator inspects.
+    private Token loadToken(final ClassLoader loader) throws MojoExecutionException {
+        final int separator = token.lastIndexOf('.');
+        if (separator <= 0) {
+            throw new MojoExecutionException("Token must be the fully qualified name of a static field: " + token);
+        }
+        try {
+            final Object value = loader.loadClass(token.substring(0, separator)).getField(token.substring(separator + 1)).get(null);
+            if (!(value instanceof Token)) {
+                throw new MojoExecutionException("Field " + token + " does not hold a Token.");
+            }
+            return (Token) value;
+        } catch (final ReflectiveOperationException e) {
+            throw new MojoExecutionException("Unable to read token " + token + ".", e);
+        }
+    }
+
+    private URL[] getClassPath() throws MojoExecutionException {
+        try {
+            final List<URL> urls = new ArrayList<>();
+            for (final String element : project.getCompileClasspathElements()) {
+                urls.add(new File(element).toURI().toURL());
+            }
+            return urls.toArray(new URL[urls.size()]);
+        } catch (final DependencyResolutionRequiredException | MalformedURLException e) {
+            throw new MojoExecutionException("Unable to resolve the compile classpath.", e);
+        }
+    }
+
+}
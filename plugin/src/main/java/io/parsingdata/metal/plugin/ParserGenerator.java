@@ -0,0 +1,384 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.plugin;
+
+import static io.parsingdata.metal.Util.checkNotEmpty;
+import static io.parsingdata.metal.Util.checkNotNull;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.parsingdata.metal.data.ImmutableList;
+import io.parsingdata.metal.expression.value.Const;
+import io.parsingdata.metal.token.Cho;
+import io.parsingdata.metal.token.Compiled;
+import io.parsingdata.metal.token.Def;
+import io.parsingdata.metal.token.FirstBytes;
+import io.parsingdata.metal.token.Post;
+import io.parsingdata.metal.token.Pre;
+import io.parsingdata.metal.token.Rep;
+import io.parsingdata.metal.token.RepN;
+import io.parsingdata.metal.token.Seq;
+import io.parsingdata.metal.token.Token;
+import io.parsingdata.metal.token.While;
+
+/**
+ * Generates the Java source of a parser that is specialized for a single
+ * {@link Token}.
+ * <p>
+ * The generated class has a static <code>parse(Environment)</code> method
+ * with the same result as parsing the token itself. It contains one method
+ * per token, specialized the same way as the nodes of {@link Compiled}: a
+ * {@link Cho} is a <code>switch</code> on the next byte, constant sizes and
+ * constants are class constants and repetitions are loops. Tokens that are
+ * parsed by the interpreter in {@link Compiled} are parsed by the interpreter
+ * in the generated class as well.
+ * <p>
+ * The generated class refers to the original token through
+ * <code>tokenReference</code>, a Java expression such as
+ * <code>io.parsingdata.metal.format.ZIP.FORMAT</code>, so that it produces a
+ * {@link io.parsingdata.metal.data.ParseGraph} with the same definitions. The
+ * nested tokens are read from their public fields when the class is
+ * initialized, so it does not use reflection.
+ */
+public final class ParserGenerator {
+
+    private static final String INDENT = "    ";
+
+    private final Map<Token, Integer> ids = new IdentityHashMap<>();
+    private final Map<Token, String> paths = new IdentityHashMap<>();
+    private final List<Token> tokens = new ArrayList<>();
+    private final StringBuilder constants = new StringBuilder();
+    private final StringBuilder methods = new StringBuilder();
+
+    private ParserGenerator() {}
+
+    /**
+     * @param tokenReference A Java expression that evaluates to <code>token</code>
+     * @param token The token to generate a parser for
+     * @param className The fully qualified name of the generated class
+     * @return The source of the generated class
+     */
+    public static String generate(final String tokenReference, final Token token, final String className) {
+        checkNotEmpty(tokenReference, "tokenReference");
+        checkNotNull(token, "token");
+        checkNotEmpty(className, "className");
+        return new ParserGenerator().generateClass(tokenReference, token, className);
+    }
+
+    private String generateClass(final String tokenReference, final Token token, final String className) {
+        assign(token, "TOKEN");
+        for (int index = 0; index < tokens.size(); index++) {
+            generateMethod(tokens.get(index));
+        }
+        final int separator = className.lastIndexOf('.');
+        final StringBuilder source = new StringBuilder();
+        if (separator >= 0) {
+            source.append("package ").append(className, 0, separator).append(";\n\n");
+        }
+        source.append("import java.math.BigInteger;\n")
+              .append("import java.util.Arrays;\n")
+              .append("import java.util.Optional;\n\n")
+              .append("import io.parsingdata.metal.data.Environment;\n")
+              .append("import io.parsingdata.metal.data.ImmutableList;\n")
+              .append("import io.parsingdata.metal.data.ParseCache;\n")
+              .append("import io.parsingdata.metal.data.ParseState;\n")
+              .append("import io.parsingdata.metal.data.ParseValue;\n")
+              .append("import io.parsingdata.metal.data.Slice;\n")
+              .append("import io.parsingdata.metal.data.callback.Callbacks;\n")
+              .append("import io.parsingdata.metal.encoding.Encoding;\n")
+              .append("import io.parsingdata.metal.expression.value.Value;\n")
+              .append("import io.parsingdata.metal.token.*;\n\n")
+              .append("/**\n * Parser for <code>").append(tokenReference).append("</code>, generated by <code>metal-maven-plugin</code>.\n */\n")
+              .append("public final class ").append(className.substring(separator + 1)).append(" {\n\n")
+              .append(INDENT).append("public static final Token TOKEN = ").append(tokenReference).append(";\n\n")
+              .append(constants)
+              .append("\n").append(INDENT).append("private ").append(className.substring(separator + 1)).append("() {}\n\n")
+              .append(INDENT).append("public static Optional<ParseState> parse(final Environment environment) {\n")
+              .append(INDENT).append(INDENT).append("if (environment.callbacks != Callbacks.NONE || environment.cache != ParseCache.NONE) {\n")
+              .append(INDENT).append(INDENT).append(INDENT).append("return TOKEN.parse(environment);\n")
+              .append(INDENT).append(INDENT).append("}\n")
+              .append(INDENT).append(INDENT).append("return Optional.ofNullable(parse0(environment.scope, environment.parseState, environment.encoding));\n")
+              .append(INDENT).append("}\n")
+              .append(methods)
+              .append(HELPERS)
+              .append("}\n");
+        return source.toString();
+    }
+
+    // Assigns an id and a class constant to a token that has no id yet, so that its parent is always initialized first.
+    private void assign(final Token token, final String path) {
+        if (ids.containsKey(token)) {
+            return;
+        }
+        final int id = tokens.size();
+        ids.put(token, id);
+        tokens.add(token);
+        final String field = "T" + id;
+        paths.put(token, field);
+        constants.append(INDENT).append("private static final ").append(getType(token)).append(" ").append(field).append(" = ")
+                 .append(cast(token, path)).append(";\n");
+        if (!isCompiled(token) || token instanceof Def) {
+            return;
+        }
+        if (token instanceof Seq) {
+            assignAll(((Seq) token).tokens, field + ".tokens");
+        } else if (token instanceof Cho) {
+            assignAll(((Cho) token).tokens, field + ".tokens");
+        } else {
+            assign(getNested(token), field + ".token");
+        }
+    }
+
+    private void assignAll(final ImmutableList<Token> list, final String path) {
+        String current = path;
+        for (ImmutableList<Token> rest = list; !rest.isEmpty(); rest = rest.tail) {
+            assign(rest.head, current + ".head");
+            current += ".tail";
+        }
+    }
+
+    private static String cast(final Token token, final String path) {
+        return getType(token).equals("Token") ? path : "(" + getType(token) + ") " + path;
+    }
+
+    private static String getType(final Token token) {
+        return isCompiled(token) ? token.getClass().getSimpleName() : "Token";
+    }
+
+    private static boolean isCompiled(final Token token) {
+        final Class<?> type = token.getClass();
+        return type == Def.class || type == Post.class || type == Pre.class || type == Seq.class || type == Cho.class
+            || type == Rep.class || type == RepN.class || type == While.class;
+    }
+
+    private static Token getNested(final Token token) {
+        if (token instanceof Post) {
+            return ((Post) token).token;
+        }
+        if (token instanceof Pre) {
+            return ((Pre) token).token;
+        }
+        if (token instanceof Rep) {
+            return ((Rep) token).token;
+        }
+        if (token instanceof RepN) {
+            return ((RepN) token).token;
+        }
+        return ((While) token).token;
+    }
+
+    private void generateMethod(final Token token) {
+        final int id = ids.get(token);
+        final String field = paths.get(token);
+        methods.append("\n").append(INDENT).append("private static ParseState parse").append(id)
+               .append("(final String outerScope, final ParseState parseState, final Encoding outerEncoding) {\n");
+        if (!isCompiled(token)) {
+            line(2, "return " + field + ".parse(new Environment(outerScope, parseState, outerEncoding)).orElse(null);");
+            methods.append(INDENT).append("}\n");
+            return;
+        }
+        line(2, "final String scope = " + (token.name.isEmpty() ? "outerScope;" : "extendScope(outerScope, \"" + escape(token.name) + "\");"));
+        line(2, "final Encoding encoding = " + (token.encoding != null ? field + ".encoding;" : "outerEncoding;"));
+        if (token instanceof Def) {
+            generateDef((Def) token, id, field);
+        } else if (token instanceof Post) {
+            generatePost((Post) token, id, field);
+        } else if (token instanceof Pre) {
+            line(2, "if (!" + field + ".predicate.eval(parseState, encoding)) {");
+            line(3, "return null;");
+            line(2, "}");
+            line(2, "final ParseState result = " + call(((Pre) token).token, "parseState.addBranch(" + field + ")") + ";");
+            line(2, "return result == null ? null : result.closeBranch();");
+        } else if (token instanceof Seq) {
+            line(2, "ParseState result = parseState.addBranch(" + field + ");");
+            for (ImmutableList<Token> list = ((Seq) token).tokens; !list.isEmpty(); list = list.tail) {
+                line(2, "if ((result = " + call(list.head, "result") + ") == null) {");
+                line(3, "return null;");
+                line(2, "}");
+            }
+            line(2, "return result.closeBranch();");
+        } else if (token instanceof Cho) {
+            generateCho((Cho) token, field);
+        } else if (token instanceof Rep) {
+            line(2, "ParseState result = parseState.addBranch(" + field + ");");
+            line(2, "for (ParseState next = " + call(((Rep) token).token, "result") + "; next != null; next = " + call(((Rep) token).token, "result") + ") {");
+            line(3, "result = next;");
+            line(2, "}");
+            line(2, "return result.closeBranch();");
+        } else if (token instanceof RepN) {
+            line(2, "final ImmutableList<Optional<Value>> counts = " + field + ".n.eval(parseState, encoding);");
+            line(2, "if (counts.size != 1 || !counts.head.isPresent()) {");
+            line(3, "return null;");
+            line(2, "}");
+            line(2, "ParseState result = parseState.addBranch(" + field + ");");
+            line(2, "for (long count = counts.head.get().asNumeric().longValueExact(); count > 0; count--) {");
+            line(3, "if ((result = " + call(((RepN) token).token, "result") + ") == null) {");
+            line(4, "return null;");
+            line(3, "}");
+            line(2, "}");
+            line(2, "return result.closeBranch();");
+        } else {
+            line(2, "ParseState result = parseState.addBranch(" + field + ");");
+            line(2, "while (" + field + ".predicate.eval(result, encoding)) {");
+            line(3, "if ((result = " + call(((While) token).token, "result") + ") == null) {");
+            line(4, "return null;");
+            line(3, "}");
+            line(2, "}");
+            line(2, "return result.closeBranch();");
+        }
+        methods.append(INDENT).append("}\n");
+    }
+
+    private void generateDef(final Def def, final int id, final String field) {
+        if (!(def.size instanceof Const)) {
+            line(2, "final ImmutableList<Optional<Value>> sizes = " + field + ".size.eval(parseState, encoding);");
+            line(2, "if (sizes.size != 1 || !sizes.head.isPresent()) {");
+            line(3, "return null;");
+            line(2, "}");
+            line(2, "final BigInteger size = sizes.head.get().asNumeric();");
+            line(2, "return size.signum() == 0 ? parseState : addValue(scope, parseState, " + field + ", size, encoding);");
+            return;
+        }
+        final BigInteger size = ((Const) def.size).value.asNumeric();
+        if (size.signum() == 0) {
+            line(2, "return parseState;");
+            return;
+        }
+        constants.append(INDENT).append("private static final BigInteger S").append(id).append(" = new BigInteger(\"").append(size).append("\");\n");
+        line(2, "return addValue(scope, parseState, " + field + ", S" + id + ", encoding);");
+    }
+
+    private void generatePost(final Post post, final int id, final String field) {
+        final byte[] constant = Compiled.getConstant(post);
+        if (constant == null) {
+            line(2, "final ParseState result = " + call(post.token, "parseState.addBranch(" + field + ")") + ";");
+            line(2, "if (result == null || !" + field + ".predicate.eval(result, encoding)) {");
+            line(3, "return null;");
+            line(2, "}");
+            line(2, "return result.closeBranch();");
+            return;
+        }
+        final Def def = (Def) post.token;
+        final StringBuilder bytes = new StringBuilder();
+        for (final byte value : constant) {
+            bytes.append(bytes.length() == 0 ? "" : ", ").append(value);
+        }
+        constants.append(INDENT).append("private static final byte[] C").append(id).append(" = { ").append(bytes).append(" };\n");
+        constants.append(INDENT).append("private static final BigInteger S").append(id).append(" = BigInteger.valueOf(").append(constant.length).append(");\n");
+        line(2, "final Optional<Slice> slice = parseState.slice(S" + id + ");");
+        line(2, "if (!slice.isPresent() || !Arrays.equals(slice.get().getData(), C" + id + ")) {");
+        line(3, "return null;");
+        line(2, "}");
+        final String definition = paths.get(def);
+        line(2, "final ParseValue value = new ParseValue(extendScope(scope, \"" + escape(def.name) + "\"), " + definition + ", slice.get(), "
+            + (def.encoding != null ? definition + ".encoding" : "encoding") + ");");
+        line(2, "return new ParseState(parseState.addBranch(" + field + ").add(value).closeBranch().order, parseState.source, parseState.offset.add(S" + id + "));");
+    }
+
+    private void generateCho(final Cho cho, final String field) {
+        final Map<List<Token>, List<Integer>> cases = new LinkedHashMap<>();
+        final List<Token> alternatives = new ArrayList<>();
+        for (ImmutableList<Token> list = cho.tokens; !list.isEmpty(); list = list.tail) {
+            alternatives.add(list.head);
+        }
+        final List<FirstBytes> first = new ArrayList<>();
+        for (final Token alternative : alternatives) {
+            first.add(FirstBytes.of(alternative));
+        }
+        for (int value = 0; value <= FirstBytes.BYTES; value++) {
+            final List<Token> candidates = new ArrayList<>();
+            for (int index = 0; index < alternatives.size(); index++) {
+                if (first.get(index).mayStartWith(value)) {
+                    candidates.add(alternatives.get(index));
+                }
+            }
+            cases.computeIfAbsent(candidates, key -> new ArrayList<>()).add(value);
+        }
+        line(2, "final ParseState branched = parseState.addBranch(" + field + ");");
+        line(2, "ParseState result;");
+        if (cases.size() == 1) {
+            generateAlternatives(alternatives, 2);
+            return;
+        }
+        line(2, "switch (nextByte(parseState)) {");
+        List<Token> largest = null;
+        for (final Map.Entry<List<Token>, List<Integer>> entry : cases.entrySet()) {
+            if (largest == null || entry.getValue().size() > cases.get(largest).size()) {
+                largest = entry.getKey();
+            }
+        }
+        for (final Map.Entry<List<Token>, List<Integer>> entry : cases.entrySet()) {
+            if (entry.getKey().equals(largest)) {
+                continue;
+            }
+            for (final int value : entry.getValue()) {
+                line(3, "case " + value + ":");
+            }
+            generateAlternatives(entry.getKey(), 4);
+        }
+        line(3, "default:");
+        generateAlternatives(largest, 4);
+        line(2, "}");
+    }
+
+    private void generateAlternatives(final List<Token> candidates, final int depth) {
+        for (final Token candidate : candidates) {
+            line(depth, "if ((result = " + call(candidate, "branched") + ") != null) {");
+            line(depth + 1, "return result.closeBranch();");
+            line(depth, "}");
+        }
+        line(depth, "return null;");
+    }
+
+    private String call(final Token token, final String parseState) {
+        return "parse" + ids.get(token) + "(scope, " + parseState + ", encoding)";
+    }
+
+    private void line(final int depth, final String line) {
+        for (int i = 0; i < depth; i++) {
+            methods.append(INDENT);
+        }
+        methods.append(line).append("\n");
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static final String HELPERS =
+        "\n" +
+        INDENT + "private static String extendScope(final String scope, final String name) {\n" +
+        INDENT + INDENT + "return scope.isEmpty() ? name : scope + Token.SEPARATOR + name;\n" +
+        INDENT + "}\n\n" +
+        INDENT + "private static int nextByte(final ParseState parseState) {\n" +
+        INDENT + INDENT + "final Optional<Slice> slice = parseState.slice(BigInteger.ONE);\n" +
+        INDENT + INDENT + "return slice.isPresent() ? slice.get().getData()[0] & 0xff : 256;\n" +
+        INDENT + "}\n\n" +
+        INDENT + "private static ParseState addValue(final String scope, final ParseState parseState, final Token definition, final BigInteger size, final Encoding encoding) {\n" +
+        INDENT + INDENT + "final Optional<Slice> slice = parseState.slice(size);\n" +
+        INDENT + INDENT + "if (!slice.isPresent()) {\n" +
+        INDENT + INDENT + INDENT + "return null;\n" +
+        INDENT + INDENT + "}\n" +
+        INDENT + INDENT + "return new ParseState(parseState.add(new ParseValue(scope, definition, slice.get(), encoding)).order, parseState.source, parseState.offset.add(size));\n" +
+        INDENT + "}\n\n";
+
+}
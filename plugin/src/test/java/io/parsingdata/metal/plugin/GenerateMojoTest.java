@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.plugin.ParserGeneratorTest.assertSame;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class GenerateMojoTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+    @Rule public final ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void generateAndCompile() throws Exception {
+        final MavenProject project = project();
+        final File outputDirectory = folder.newFolder("generated-sources");
+        mojo(project, ParserGeneratorTest.class.getName() + ".FORMAT", "generated.MojoParser", outputDirectory).execute();
+
+        assertTrue(new File(outputDirectory, "generated" + File.separator + "MojoParser.java").isFile());
+        assertEquals(outputDirectory.getPath(), project.getCompileSourceRoots().get(project.getCompileSourceRoots().size() - 1));
+        final Method parse = ParserGeneratorTest.compile(outputDirectory, "generated.MojoParser");
+        assertSame(parse, 0xff, 2, 0xaa, 0xbb, 1, 0xff, 3, 0x00, 0x02, 0x01, 0x00);
+        assertSame(parse, 0xfe, 0);
+    }
+
+    @Test
+    public void tokenNotAField() throws Exception {
+        thrown.expect(MojoExecutionException.class);
+        thrown.expectMessage("Token must be the fully qualified name of a static field: FORMAT");
+        mojo(project(), "FORMAT", "generated.MojoParser", folder.newFolder("generated-sources")).execute();
+    }
+
+    @Test
+    public void fieldNotAToken() throws Exception {
+        thrown.expect(MojoExecutionException.class);
+        thrown.expectMessage("Field java.lang.Integer.MAX_VALUE does not hold a Token.");
+        mojo(project(), "java.lang.Integer.MAX_VALUE", "generated.MojoParser", folder.newFolder("generated-sources")).execute();
+    }
+
+    private MavenProject project() throws Exception {
+        final MavenProject project = new MavenProject();
+        project.getBuild().setOutputDirectory(folder.newFolder("classes").getPath());
+        return project;
+    }
+
+    // Sets the parameters that Maven injects from the plugin configuration.
+    private static GenerateMojo mojo(final MavenProject project, final String token, final String className, final File outputDirectory) throws Exception {
+        final GenerateMojo mojo = new GenerateMojo();
+        set(mojo, "project", project);
+        set(mojo, "token", token);
+        set(mojo, "className", className);
+        set(mojo, "outputDirectory", outputDirectory);
+        return mojo;
+    }
+
+    private static void set(final GenerateMojo mojo, final String name, final Object value) throws Exception {
+        final Field field = GenerateMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+
+}
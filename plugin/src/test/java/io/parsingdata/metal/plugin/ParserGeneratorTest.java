@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013-2016 Netherlands Forensic Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.parsingdata.metal.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static io.parsingdata.metal.Shorthand.cho;
+import static io.parsingdata.metal.Shorthand.con;
+import static io.parsingdata.metal.Shorthand.def;
+import static io.parsingdata.metal.Shorthand.eq;
+import static io.parsingdata.metal.Shorthand.eqNum;
+import static io.parsingdata.metal.Shorthand.last;
+import static io.parsingdata.metal.Shorthand.ltNum;
+import static io.parsingdata.metal.Shorthand.not;
+import static io.parsingdata.metal.Shorthand.pre;
+import static io.parsingdata.metal.Shorthand.ref;
+import static io.parsingdata.metal.Shorthand.rep;
+import static io.parsingdata.metal.Shorthand.repn;
+import static io.parsingdata.metal.Shorthand.seq;
+import static io.parsingdata.metal.Shorthand.sub;
+import static io.parsingdata.metal.Shorthand.whl;
+import static io.parsingdata.metal.util.EncodingFactory.le;
+import static io.parsingdata.metal.util.EnvironmentFactory.env;
+import static io.parsingdata.metal.util.ParseStateFactory.stream;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.parsingdata.metal.data.Environment;
+import io.parsingdata.metal.data.ParseState;
+import io.parsingdata.metal.token.Token;
+
+public class ParserGeneratorTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Token HEADER = seq("header", def("marker", con(1), eq(con(0xff))), def("size", con(1)));
+
+    public static final Token FORMAT =
+        seq("format",
+            HEADER,
+            def("data", last(ref("size"))),
+            def("zero", con(0)),
+            rep("records",
+                cho(seq("short", pre(def("value", con(1)), ltNum(last(ref("size")), con(4))), HEADER),
+                    seq("long", le(), def("value", con(2), not(eq(con(0x00, 0x00)))), repn(def("pad", con(1)), con(2))),
+                    seq("end", def("end", con(1), eq(con(0))), whl(def("rest", con(1)), not(eqNum(last(ref("rest")), con(0))))))),
+            sub(def("pointed", con(1)), con(1)));
+
+    @Test
+    public void sameAsInterpreter() throws Exception {
+        final Method parse = compile("generated.FormatParser", ParserGeneratorTest.class.getName() + ".FORMAT");
+        assertSame(parse, 0xff, 2, 0xaa, 0xbb, 1, 0xff, 3, 0x00, 0x02, 0x01, 0x00);
+        assertSame(parse, 0xff, 5, 1, 2, 3, 4, 5, 0x01, 0x02, 0x00, 0x00, 0x03, 0x04, 0x00, 0x00);
+        assertSame(parse, 0xfe, 0);
+        assertSame(parse);
+    }
+
+    @SuppressWarnings("unchecked")
+    static void assertSame(final Method parse, final int... data) throws Exception {
+        final Optional<ParseState> generated = (Optional<ParseState>) parse.invoke(null, env(stream(data)));
+        assertEquals(FORMAT.parse(env(stream(data))), generated);
+    }
+
+    private Method compile(final String className, final String tokenReference) throws Exception {
+        final File directory = folder.newFolder("generated");
+        final File file = new File(directory, className.replace('.', File.separatorChar) + ".java");
+        assertTrue(file.getParentFile().mkdirs());
+        Files.write(file.toPath(), ParserGenerator.generate(tokenReference, FORMAT, className).getBytes(StandardCharsets.UTF_8));
+        return compile(directory, className);
+    }
+
+    // Compiles the generated source of className in directory and returns its parse method.
+    static Method compile(final File directory, final String className) throws Exception {
+        final File file = new File(directory, className.replace('.', File.separatorChar) + ".java");
+        final String classPath = location(Token.class) + File.pathSeparator + location(ParserGeneratorTest.class);
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8), 0,
+                     compiler.run(null, null, null, "-classpath", classPath, "-d", directory.getPath(), file.getPath()));
+        final ClassLoader loader = new URLClassLoader(new URL[] { directory.toURI().toURL() }, ParserGeneratorTest.class.getClassLoader());
+        return loader.loadClass(className).getMethod("parse", Environment.class);
+    }
+
+    private static String location(final Class<?> type) throws Exception {
+        return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+
+}